@@ -0,0 +1,36 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helper methods for the benchmarks.
+ *
+ * @author Timon Hackenjos
+ */
+final class BenchmarkHelper {
+  /** The time (in milliseconds) to wait for a counter before giving up. */
+  static final long timeout = 10 * 1000;
+
+  private BenchmarkHelper() {
+  }
+
+  /**
+   * Waits until the counter reaches the expected value.
+   *
+   * @throws IllegalStateException If the counter doesn't reach the value in time.
+   */
+  static void await(AtomicLong counter, long expected) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+    while (counter.get() < expected) {
+      if (System.nanoTime() - deadline > 0) {
+        throw new IllegalStateException(
+            "Counter reached " + counter.get() + " instead of " + expected);
+      }
+
+      LockSupport.parkNanos(1000);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.ReceiveListener;
+import edu.kit.tm.ptp.SendListener;
+import edu.kit.tm.ptp.auth.DummyAuthenticatorFactory;
+import edu.kit.tm.ptp.connection.ConnectionManager;
+import edu.kit.tm.ptp.connection.TransportImplementation;
+import edu.kit.tm.ptp.utility.Constants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.LogManager;
+
+/**
+ * Measures the throughput of messages between two ConnectionManagers on the local machine.
+ * Using the TOR transport a SOCKS relay replaces Tor, the LOOPBACK transport connects directly.
+ * The DummyAuthenticator skips the authentication.
+ *
+ * @author Timon Hackenjos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionManagerBenchmark {
+  /** The number of messages sent per invocation. */
+  private static final int batch = 256;
+
+  /** The size of the messages in bytes. */
+  @Param({"64", "4096"})
+  public int size;
+
+  @Param({"TOR", "LOOPBACK"})
+  public TransportImplementation transport;
+
+  private final Listener senderListener = new Listener();
+  private final Listener receiverListener = new Listener();
+  private final Identifier destination = new Identifier("bbbbbbbbbbbbbbbb.onion");
+  private SocksRelay relay;
+  private ConnectionManager sender;
+  private ConnectionManager receiver;
+  private byte[] data;
+  private long sent = 0;
+
+  private static class Listener implements SendListener, ReceiveListener {
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong received = new AtomicLong(0);
+
+    @Override
+    public void messageReceived(byte[] data, Identifier source) {
+      received.incrementAndGet();
+    }
+
+    @Override
+    public void messageSent(long id, Identifier destination, State state) {
+      if (state != State.SUCCESS) {
+        throw new IllegalStateException("Failed to send message " + id + ": " + state);
+      }
+
+      sent.incrementAndGet();
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    LogManager.getLogManager().reset();
+
+    data = new byte[size];
+
+    receiver = new ConnectionManager(0, receiverListener, receiverListener, null,
+        new DummyAuthenticatorFactory());
+    receiver.setTransport(transport.create());
+    receiver.setLocalIdentifier(destination);
+    receiver.start();
+    int port = receiver.startBindServer(Constants.anyport);
+
+    relay = new SocksRelay();
+
+    sender = new ConnectionManager(port, senderListener, senderListener, null,
+        new DummyAuthenticatorFactory());
+    sender.setTransport(transport.create());
+    sender.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+    sender.updateSOCKSProxy(Constants.localhost, relay.getPort());
+    sender.start();
+
+    // Establish the connection before measuring
+    sender.send(data, destination, -1);
+    sent++;
+    BenchmarkHelper.await(receiverListener.received, sent);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    sender.stop();
+    receiver.stop();
+    relay.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(batch)
+  public void send() {
+    for (int i = 0; i < batch; i++) {
+      sender.send(data, destination, -1);
+    }
+
+    sent += batch;
+    BenchmarkHelper.await(receiverListener.received, sent);
+  }
+}
@@ -0,0 +1,126 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import edu.kit.tm.ptp.channels.ChannelListener;
+import edu.kit.tm.ptp.channels.ChannelManager;
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.LogManager;
+
+/**
+ * Measures writing and reading frames of MessageChannels over a loopback connection.
+ *
+ * @author Timon Hackenjos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageChannelBenchmark {
+  /** The number of frames written per invocation. */
+  private static final int batch = 64;
+
+  /** The size of the frames in bytes. */
+  @Param({"64", "4096", "131072"})
+  public int size;
+
+  private final Listener listener = new Listener();
+  private ChannelManager manager;
+  private ServerSocketChannel server;
+  private MessageChannel sender;
+  private byte[] data;
+  private long sent = 0;
+
+  private static class Listener implements ChannelListener {
+    private final AtomicLong opened = new AtomicLong(0);
+    private final AtomicLong received = new AtomicLong(0);
+
+    @Override
+    public void messageSent(long id, MessageChannel destination) {
+    }
+
+    @Override
+    public void messageReceived(byte[] data, MessageChannel source) {
+      received.incrementAndGet();
+    }
+
+    @Override
+    public void channelOpened(MessageChannel channel) {
+      opened.incrementAndGet();
+    }
+
+    @Override
+    public void channelClosed(MessageChannel channel) {
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    LogManager.getLogManager().reset();
+
+    data = new byte[size];
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+    manager = new ChannelManager(listener);
+    manager.start();
+
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(server.socket().getLocalSocketAddress());
+    sender = manager.connect(client);
+
+    SocketChannel accepted = server.accept();
+    accepted.configureBlocking(false);
+
+    BenchmarkHelper.await(listener.opened, 1);
+    manager.addChannel(sender);
+
+    MessageChannel receiver = new MessageChannel(accepted, manager);
+    manager.addChannel(receiver);
+    manager.registerRead(receiver, true);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    manager.stop();
+    server.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(batch)
+  public void writeAndRead() {
+    for (int i = 0; i < batch; i++) {
+      while (!sender.addMessage(data, sent)) {
+        // The send queue of the channel is full
+        Thread.yield();
+      }
+
+      sent++;
+    }
+
+    BenchmarkHelper.await(listener.received, sent);
+  }
+}
@@ -0,0 +1,105 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import edu.kit.tm.ptp.serialization.ByteArrayMessage;
+import edu.kit.tm.ptp.serialization.Serializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures round trips of messages through the Serializer.
+ *
+ * @author Timon Hackenjos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+  /** The size of the payload in bytes. */
+  @Param({"16", "1024", "65536"})
+  public int size;
+
+  private Serializer serializer;
+  private ByteArrayMessage byteArrayMessage;
+  private byte[] serializedByteArrayMessage;
+  private Message message;
+  private byte[] serializedMessage;
+
+  /**
+   * A custom type as applications would send it.
+   */
+  public static class Message {
+    public long id;
+    public int sequence;
+    public String name;
+    public byte[] payload;
+
+    // Necessary for kryo
+    public Message() {
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    serializer = new Serializer();
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+    serializer.registerClass(Message.class);
+
+    byte[] payload = new byte[size];
+
+    for (int i = 0; i < size; i++) {
+      payload[i] = (byte) i;
+    }
+
+    byteArrayMessage = new ByteArrayMessage(payload);
+    serializedByteArrayMessage = serializer.serialize(byteArrayMessage);
+
+    message = new Message();
+    message.id = 42;
+    message.sequence = 7;
+    message.name = "benchmark";
+    message.payload = payload;
+    serializedMessage = serializer.serialize(message);
+  }
+
+  @Benchmark
+  public byte[] serializeByteArrayMessage() {
+    return serializer.serialize(byteArrayMessage);
+  }
+
+  @Benchmark
+  public Object deserializeByteArrayMessage() throws IOException {
+    return serializer.deserialize(serializedByteArrayMessage);
+  }
+
+  @Benchmark
+  public Object roundTripByteArrayMessage() throws IOException {
+    return serializer.deserialize(serializer.serialize(byteArrayMessage));
+  }
+
+  @Benchmark
+  public Object roundTripMessage() throws IOException {
+    return serializer.deserialize(serializer.serialize(message));
+  }
+
+  @Benchmark
+  public Object deserializeMessage() throws IOException {
+    return serializer.deserialize(serializedMessage);
+  }
+}
@@ -0,0 +1,139 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A SOCKS4a proxy which connects every request to the requested port on the loopback
+ * interface regardless of the requested host. Replaces Tor to connect ConnectionManagers
+ * on the local machine.
+ *
+ * @author Timon Hackenjos
+ */
+public class SocksRelay implements Runnable, Closeable {
+  private static final int bufferSize = 64 * 1024;
+  private static final byte[] granted = new byte[] {0x00, 0x5a, 0, 0, 0, 0, 0, 0};
+
+  private final Logger logger = Logger.getLogger(SocksRelay.class.getName());
+  private final ServerSocket server;
+  private final Thread thread;
+
+  /**
+   * Starts the relay on a free port of the loopback interface.
+   */
+  public SocksRelay() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    thread = new Thread(this);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!server.isClosed()) {
+        final Socket client = server.accept();
+
+        startThread(new Runnable() {
+          @Override
+          public void run() {
+            relay(client);
+          }
+        });
+      }
+    } catch (IOException e) {
+      // Server socket has been closed
+    }
+  }
+
+  private void relay(Socket client) {
+    try {
+      client.setTcpNoDelay(true);
+      InputStream in = client.getInputStream();
+      DataInputStream data = new DataInputStream(in);
+
+      // Version, command, port and IP address
+      data.readByte();
+      data.readByte();
+      int port = data.readUnsignedShort();
+      data.readInt();
+
+      // User id and hostname
+      skipString(in);
+      skipString(in);
+
+      Socket destination = new Socket(InetAddress.getLoopbackAddress(), port);
+      destination.setTcpNoDelay(true);
+      client.getOutputStream().write(granted);
+
+      pipe(in, destination.getOutputStream(), destination);
+      pipe(destination.getInputStream(), client.getOutputStream(), client);
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Failed to relay connection: " + e.getMessage());
+      close(client);
+    }
+  }
+
+  private void pipe(final InputStream in, final OutputStream out, final Socket socket) {
+    startThread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[bufferSize];
+        int read;
+
+        try {
+          while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+          }
+        } catch (IOException e) {
+          // Connection has been closed
+        }
+
+        close(socket);
+      }
+    });
+  }
+
+  private static void skipString(InputStream in) throws IOException {
+    int read;
+
+    do {
+      read = in.read();
+    } while (read > 0);
+
+    if (read == -1) {
+      throw new IOException("Unexpected end of stream");
+    }
+  }
+
+  private static void startThread(Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Ignore
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package edu.kit.tm.ptp.benchmarks;
+
+import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.connection.ExpireListener;
+import edu.kit.tm.ptp.connection.ITimerManager;
+import edu.kit.tm.ptp.connection.TimerImplementation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+
+/**
+ * Measures setting and removing timers like the IsAliveManager and the ConnectionManager do
+ * for every sent and received message.
+ *
+ * @author Timon Hackenjos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerManagerBenchmark {
+  /** The step of the timer managers in milliseconds. */
+  private static final int step = 100;
+  /** The timeout of the timers in milliseconds. Timers don't expire while benchmarking. */
+  private static final int timeout = 60 * 1000;
+
+  @Param({"INTERVAL", "TIMING_WHEEL"})
+  public TimerImplementation implementation;
+
+  /** The number of identifiers the timers are spread over. */
+  @Param({"16", "4096"})
+  public int identifiers;
+
+  private ITimerManager manager;
+  private Identifier[] identifierArray;
+  private int next = 0;
+
+  @Setup
+  public void setUp() {
+    LogManager.getLogManager().reset();
+
+    manager = implementation.create(new ExpireListener() {
+      @Override
+      public void expired(Identifier identifier, int timerClass) {
+      }
+    }, step, null);
+    manager.start();
+
+    identifierArray = new Identifier[identifiers];
+
+    for (int i = 0; i < identifiers; i++) {
+      identifierArray[i] = new Identifier(String.format("%016d.onion", i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    manager.stop();
+  }
+
+  private Identifier nextIdentifier() {
+    Identifier identifier = identifierArray[next];
+    next = (next + 1) % identifierArray.length;
+    return identifier;
+  }
+
+  @Benchmark
+  public void setTimer() {
+    manager.setTimer(nextIdentifier(), timeout, 0);
+  }
+
+  @Benchmark
+  public void setTimerIfNoneExists() {
+    manager.setTimerIfNoneExists(nextIdentifier(), timeout, 1);
+  }
+
+  @Benchmark
+  public void setAndRemove() {
+    Identifier identifier = nextIdentifier();
+    manager.setTimer(identifier, timeout, 2);
+    manager.remove(identifier, 2);
+  }
+}
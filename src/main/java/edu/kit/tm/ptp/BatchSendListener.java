@@ -0,0 +1,23 @@
+package edu.kit.tm.ptp;
+
+/**
+ * An interface for subscribers to the results of messages sent as a batch.
+ *
+ * @author Timon Hackenjos
+ * @see PTP#sendMessages(java.util.Collection, Identifier)
+ * @see PTP#sendMessage(Object, java.util.Collection)
+ */
+public interface BatchSendListener {
+
+  /**
+   * Indicates that every message of a batch was sent or could not be sent.
+   * The entries of the arrays at the same index describe the same message.
+   * They are ordered by the time the result of a message became known.
+   *
+   * @param ids The ids of the messages.
+   * @param destinations The destinations of the messages.
+   * @param states If the sending of the messages succeeded and why.
+   */
+  public void messagesSent(long[] ids, Identifier[] destinations, SendListener.State[] states);
+
+}
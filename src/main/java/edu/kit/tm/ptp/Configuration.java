@@ -1,5 +1,8 @@
 package edu.kit.tm.ptp;
 
+import edu.kit.tm.ptp.channels.SelectorAssignment;
+import edu.kit.tm.ptp.connection.TimerImplementation;
+import edu.kit.tm.ptp.connection.TransportImplementation;
 import edu.kit.tm.ptp.utility.Constants;
 
 import java.util.logging.Logger;
@@ -17,6 +20,24 @@ public class Configuration {
   public static final int DEFAULT_CONNECTRETRYINTERVAL = 30 * 1000;
   public static final int DEFAULT_ISALIVETIMEOUT = 60 * 1000;
   public static final int DEFAULT_ISALIVESENDTIMEOUT = 20 * 1000;
+  public static final int DEFAULT_SELECTORTHREADS = 1;
+  public static final int DEFAULT_DISPATCHERTHREADS = 1;
+  public static final int DEFAULT_WARMCONNECTIONS = 0;
+  public static final int DEFAULT_CHANNELSPERDESTINATION = 1;
+  public static final int DEFAULT_STREAMCHUNKSIZE = 32 * 1024;
+  public static final int DEFAULT_COMPRESSIONTHRESHOLD = -1;
+  public static final int DEFAULT_RESUMPTIONTICKETLIFETIME = 0;
+  public static final int DEFAULT_AUTHENTICATIONTHREADS = 0;
+  public static final int DEFAULT_RECEIVEBUFFERLIMIT = 16 * 1024 * 1024;
+  public static final int DEFAULT_MAXPENDINGBYTES = -1;
+  public static final int DEFAULT_MAXPENDINGBYTESPERDESTINATION = -1;
+  public static final int DEFAULT_STREAMBUFFERLIMIT = 4 * 1024 * 1024;
+  public static final int DEFAULT_STREAMBUFFERLIMITPERSOURCE = 8 * 1024 * 1024;
+  public static final int DEFAULT_STREAMIDLETIMEOUT = 60 * 1000;
+  public static final SelectorAssignment DEFAULT_SELECTORASSIGNMENT = SelectorAssignment.HASH;
+  public static final TimerImplementation DEFAULT_TIMERIMPLEMENTATION =
+      TimerImplementation.TIMING_WHEEL;
+  public static final TransportImplementation DEFAULT_TRANSPORT = TransportImplementation.TOR;
 
   /** The logger for this class. */
   private Logger logger = null;
@@ -42,6 +63,26 @@ public class Configuration {
   private int isAliveSendTimeout = DEFAULT_ISALIVESENDTIMEOUT;
   private int connectRetryInterval = DEFAULT_CONNECTRETRYINTERVAL;
   private int messageSendRetryInterval = DEFAULT_MESSAGESENDRETRYINTERVAL;
+  /** The number of threads reading from and writing to sockets. */
+  private int selectorThreads = DEFAULT_SELECTORTHREADS;
+  private SelectorAssignment selectorAssignment = DEFAULT_SELECTORASSIGNMENT;
+  /** The number of threads passing received messages to the listeners. */
+  private int dispatcherThreads = DEFAULT_DISPATCHERTHREADS;
+  private TimerImplementation timerImplementation = DEFAULT_TIMERIMPLEMENTATION;
+  private TransportImplementation transport = DEFAULT_TRANSPORT;
+  /** The number of recently used destinations to keep connections open to. */
+  private int warmConnections = DEFAULT_WARMCONNECTIONS;
+  private int channelsPerDestination = DEFAULT_CHANNELSPERDESTINATION;
+  private int streamChunkSize = DEFAULT_STREAMCHUNKSIZE;
+  private int compressionThreshold = DEFAULT_COMPRESSIONTHRESHOLD;
+  private int resumptionTicketLifetime = DEFAULT_RESUMPTIONTICKETLIFETIME;
+  private int authenticationThreads = DEFAULT_AUTHENTICATIONTHREADS;
+  private int receiveBufferLimit = DEFAULT_RECEIVEBUFFERLIMIT;
+  private int maxPendingBytes = DEFAULT_MAXPENDINGBYTES;
+  private int maxPendingBytesPerDestination = DEFAULT_MAXPENDINGBYTESPERDESTINATION;
+  private int streamBufferLimit = DEFAULT_STREAMBUFFERLIMIT;
+  private int streamBufferLimitPerSource = DEFAULT_STREAMBUFFERLIMITPERSOURCE;
+  private int streamIdleTimeout = DEFAULT_STREAMIDLETIMEOUT;
 
   protected Configuration() {
 
@@ -78,6 +119,10 @@ public class Configuration {
     sb.append(timerUpdateInterval);
     sb.append("\n");
 
+    sb.append("\tTimer implementation = ");
+    sb.append(timerImplementation);
+    sb.append("\n");
+
     sb.append("\tlogger configuration file = ");
     sb.append(loggerConfiguration);
     sb.append("\n");
@@ -90,6 +135,70 @@ public class Configuration {
     sb.append(isAliveSendTimeout);
     sb.append("\n");
 
+    sb.append("\tSelector threads = ");
+    sb.append(selectorThreads);
+    sb.append("\n");
+
+    sb.append("\tSelector assignment = ");
+    sb.append(selectorAssignment);
+    sb.append("\n");
+
+    sb.append("\tDispatcher threads = ");
+    sb.append(dispatcherThreads);
+    sb.append("\n");
+
+    sb.append("\tTransport = ");
+    sb.append(transport);
+    sb.append("\n");
+
+    sb.append("\tWarm connections = ");
+    sb.append(warmConnections);
+    sb.append("\n");
+
+    sb.append("\tChannels per destination = ");
+    sb.append(channelsPerDestination);
+    sb.append("\n");
+
+    sb.append("\tStream chunk size = ");
+    sb.append(streamChunkSize);
+    sb.append("\n");
+
+    sb.append("\tCompression threshold = ");
+    sb.append(compressionThreshold);
+    sb.append("\n");
+
+    sb.append("\tResumption ticket lifetime = ");
+    sb.append(resumptionTicketLifetime);
+    sb.append("\n");
+
+    sb.append("\tAuthentication threads = ");
+    sb.append(authenticationThreads);
+    sb.append("\n");
+
+    sb.append("\tReceive buffer limit = ");
+    sb.append(receiveBufferLimit);
+    sb.append("\n");
+
+    sb.append("\tMax pending bytes = ");
+    sb.append(maxPendingBytes);
+    sb.append("\n");
+
+    sb.append("\tMax pending bytes per destination = ");
+    sb.append(maxPendingBytesPerDestination);
+    sb.append("\n");
+
+    sb.append("\tStream buffer limit = ");
+    sb.append(streamBufferLimit);
+    sb.append("\n");
+
+    sb.append("\tStream buffer limit per source = ");
+    sb.append(streamBufferLimitPerSource);
+    sb.append("\n");
+
+    sb.append("\tStream idle timeout = ");
+    sb.append(streamIdleTimeout);
+    sb.append("\n");
+
     sb.append("</Configuration>");
 
     return sb.toString();
@@ -172,6 +281,13 @@ public class Configuration {
     this.connectRetryInterval = connectRetryInterval;
   }
 
+  /**
+   * Sets the time (in milliseconds) to wait before retrying to send messages.
+   *
+   * @deprecated The value is ignored, messages are retried as soon as a connection
+   *     becomes available.
+   */
+  @Deprecated
   public synchronized  void setMessageSendRetryInterval(int messageSendRetryInterval) {
     if (messageSendRetryInterval < 0) {
       throw new IllegalArgumentException();
@@ -180,6 +296,142 @@ public class Configuration {
     this.messageSendRetryInterval = messageSendRetryInterval;
   }
 
+  public synchronized void setSelectorThreads(int selectorThreads) {
+    if (selectorThreads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.selectorThreads = selectorThreads;
+  }
+
+  public synchronized void setSelectorAssignment(SelectorAssignment selectorAssignment) {
+    if (selectorAssignment == null) {
+      throw new NullPointerException();
+    }
+
+    this.selectorAssignment = selectorAssignment;
+  }
+
+  public synchronized void setDispatcherThreads(int dispatcherThreads) {
+    if (dispatcherThreads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.dispatcherThreads = dispatcherThreads;
+  }
+
+  public synchronized void setTimerImplementation(TimerImplementation timerImplementation) {
+    if (timerImplementation == null) {
+      throw new NullPointerException();
+    }
+
+    this.timerImplementation = timerImplementation;
+  }
+
+  public synchronized void setTransport(TransportImplementation transport) {
+    if (transport == null) {
+      throw new NullPointerException();
+    }
+
+    this.transport = transport;
+  }
+
+  public synchronized void setWarmConnections(int warmConnections) {
+    if (warmConnections < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.warmConnections = warmConnections;
+  }
+
+  public synchronized void setChannelsPerDestination(int channelsPerDestination) {
+    if (channelsPerDestination < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.channelsPerDestination = channelsPerDestination;
+  }
+
+  public synchronized void setStreamChunkSize(int streamChunkSize) {
+    if (streamChunkSize < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.streamChunkSize = streamChunkSize;
+  }
+
+  public synchronized void setCompressionThreshold(int compressionThreshold) {
+    if (compressionThreshold < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public synchronized void setResumptionTicketLifetime(int resumptionTicketLifetime) {
+    if (resumptionTicketLifetime < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.resumptionTicketLifetime = resumptionTicketLifetime;
+  }
+
+  public synchronized void setAuthenticationThreads(int authenticationThreads) {
+    if (authenticationThreads < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.authenticationThreads = authenticationThreads;
+  }
+
+  public synchronized void setReceiveBufferLimit(int receiveBufferLimit) {
+    if (receiveBufferLimit < -1 || receiveBufferLimit == 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.receiveBufferLimit = receiveBufferLimit;
+  }
+
+  public synchronized void setMaxPendingBytes(int maxPendingBytes) {
+    if (maxPendingBytes < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  public synchronized void setMaxPendingBytesPerDestination(int maxPendingBytesPerDestination) {
+    if (maxPendingBytesPerDestination < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingBytesPerDestination = maxPendingBytesPerDestination;
+  }
+
+  public synchronized void setStreamBufferLimit(int streamBufferLimit) {
+    if (streamBufferLimit < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.streamBufferLimit = streamBufferLimit;
+  }
+
+  public synchronized void setStreamBufferLimitPerSource(int streamBufferLimitPerSource) {
+    if (streamBufferLimitPerSource < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.streamBufferLimitPerSource = streamBufferLimitPerSource;
+  }
+
+  public synchronized void setStreamIdleTimeout(int streamIdleTimeout) {
+    if (streamIdleTimeout < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.streamIdleTimeout = streamIdleTimeout;
+  }
+
   /**
    * Returns the PTP working directory.
    */
@@ -233,6 +485,13 @@ public class Configuration {
   }
 
 
+  /**
+   * Returns the implementation used to manage timers.
+   */
+  public synchronized TimerImplementation getTimerImplementation() {
+    return timerImplementation;
+  }
+
   /**
    * Returns the time (in milliseconds) to wait for a regular message to be sent
    * before an IsAliveMessage is sent as a response to a received message.
@@ -259,11 +518,137 @@ public class Configuration {
 
   /**
    * Returns the time (in milliseconds) to wait before retrying to send messages.
+   *
+   * @deprecated The value is ignored, the ConnectionManager doesn't poll anymore but retries
+   *     to send messages as soon as a connection becomes available.
    */
+  @Deprecated
   public synchronized int getMessageSendRetryInterval() {
     return messageSendRetryInterval;
   }
 
+  /**
+   * Returns the number of threads reading from and writing to sockets.
+   */
+  public synchronized int getSelectorThreads() {
+    return selectorThreads;
+  }
+
+  /**
+   * Returns the strategy to distribute sockets among the selector threads.
+   */
+  public synchronized SelectorAssignment getSelectorAssignment() {
+    return selectorAssignment;
+  }
+
+  /**
+   * Returns the number of threads passing received messages to the listeners.
+   * Messages of the same source are always handled by the same thread.
+   */
+  public synchronized int getDispatcherThreads() {
+    return dispatcherThreads;
+  }
+
+  /**
+   * Returns the transport used to reach other PTP instances.
+   */
+  public synchronized TransportImplementation getTransport() {
+    return transport;
+  }
+
+  /**
+   * Returns the number of recently used destinations to keep connections open to.
+   */
+  public synchronized int getWarmConnections() {
+    return warmConnections;
+  }
+
+  /**
+   * Returns the number of connections to open to every destination.
+   */
+  public synchronized int getChannelsPerDestination() {
+    return channelsPerDestination;
+  }
+
+  /**
+   * Returns the maximum number of bytes of a stream sent in a single message.
+   */
+  public synchronized int getStreamChunkSize() {
+    return streamChunkSize;
+  }
+
+  /**
+   * Returns the minimum length in bytes of messages to compress.
+   * Compression is only used if both ends enabled it, -1 disables compression.
+   */
+  public synchronized int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Returns how long in ms a peer may authenticate a connection again without a signature.
+   * Resumption is only used if both ends enabled it, 0 disables it.
+   */
+  public synchronized int getResumptionTicketLifetime() {
+    return resumptionTicketLifetime;
+  }
+
+  /**
+   * Returns the number of threads signing and verifying authentication messages.
+   * 0 means that authentications are handled by the thread of the ConnectionManager.
+   */
+  public synchronized int getAuthenticationThreads() {
+    return authenticationThreads;
+  }
+
+  /**
+   * Returns how many bytes of received messages from a single destination may wait to be
+   * delivered before PTP stops reading from its connections or -1 to read without a limit.
+   */
+  public synchronized int getReceiveBufferLimit() {
+    return receiveBufferLimit;
+  }
+
+  /**
+   * Returns how many payload bytes of messages may wait to be sent before further messages
+   * are rejected or -1 for no limit.
+   */
+  public synchronized int getMaxPendingBytes() {
+    return maxPendingBytes;
+  }
+
+  /**
+   * Returns how many payload bytes of messages to a single destination may wait to be sent
+   * before further messages to it are rejected or -1 for no limit.
+   */
+  public synchronized int getMaxPendingBytesPerDestination() {
+    return maxPendingBytesPerDestination;
+  }
+
+  /**
+   * Returns how many bytes of chunks of a received stream may wait for their predecessors
+   * before the stream is aborted or -1 for no limit.
+   */
+  public synchronized int getStreamBufferLimit() {
+    return streamBufferLimit;
+  }
+
+  /**
+   * Returns how many bytes of chunks of all streams from a single source may wait for their
+   * predecessors before further streams from it are aborted or -1 for no limit.
+   */
+  public synchronized int getStreamBufferLimitPerSource() {
+    return streamBufferLimitPerSource;
+  }
+
+  /**
+   * Returns the time (in milliseconds) after which a received stream without new chunks
+   * is aborted. Ids of finished streams are remembered as long to drop late chunks.
+   */
+  public synchronized int getStreamIdleTimeout() {
+    return streamIdleTimeout;
+  }
+
   private void portValid(int port) {
     if (port < 0 || port > Constants.maxport) {
       throw new IllegalArgumentException();
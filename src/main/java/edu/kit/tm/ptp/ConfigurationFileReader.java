@@ -1,5 +1,8 @@
 package edu.kit.tm.ptp;
 
+import edu.kit.tm.ptp.channels.SelectorAssignment;
+import edu.kit.tm.ptp.connection.TimerImplementation;
+import edu.kit.tm.ptp.connection.TransportImplementation;
 import edu.kit.tm.ptp.utility.Constants;
 
 import java.io.BufferedReader;
@@ -29,11 +32,28 @@ public class ConfigurationFileReader {
   // TODO: eventually support authentication types
   // public static final String AuthenticationType = "AuthenticationType";
   public static final String TimerUpdateInterval = "TimerUpdateInterval";
+  public static final String TimerImplementation = "TimerImplementation";
   public static final String LoggerConfigFile = "LoggerConfigFile";
   public static final String IsAliveTimeout = "IsAliveTimeout";
   public static final String IsAliveSendTimeout = "IsAliveSendTimeout";
   public static final String ConnectRetryInterval = "ConnectRetryInterval";
   public static final String MessageSendRetryInterval = "MessageSendRetryInterval";
+  public static final String SelectorThreads = "SelectorThreads";
+  public static final String SelectorAssignment = "SelectorAssignment";
+  public static final String DispatcherThreads = "DispatcherThreads";
+  public static final String Transport = "Transport";
+  public static final String WarmConnections = "WarmConnections";
+  public static final String ChannelsPerDestination = "ChannelsPerDestination";
+  public static final String StreamChunkSize = "StreamChunkSize";
+  public static final String CompressionThreshold = "CompressionThreshold";
+  public static final String ResumptionTicketLifetime = "ResumptionTicketLifetime";
+  public static final String AuthenticationThreads = "AuthenticationThreads";
+  public static final String ReceiveBufferLimit = "ReceiveBufferLimit";
+  public static final String MaxPendingBytes = "MaxPendingBytes";
+  public static final String MaxPendingBytesPerDestination = "MaxPendingBytesPerDestination";
+  public static final String StreamBufferLimit = "StreamBufferLimit";
+  public static final String StreamBufferLimitPerSource = "StreamBufferLimitPerSource";
+  public static final String StreamIdleTimeout = "StreamIdleTimeout";
 
   /**
    * Constructor method.
@@ -50,6 +70,7 @@ public class ConfigurationFileReader {
    * @throws IOException Throws an IOException if unable to read or find the input configuration or
    *         control port file.
    */
+  @SuppressWarnings("deprecation")
   public Configuration readFromFile() throws IOException {
     if (!configurationFile.exists()) {
       throw new FileNotFoundException(
@@ -132,6 +153,13 @@ public class ConfigurationFileReader {
       logger.info("Read " + TimerUpdateInterval + " = " + timerUpdateInterval);
     }
 
+    if (check(properties, TimerImplementation)) {
+      TimerImplementation timerImplementation =
+          parse(properties, TimerImplementation, TimerImplementation.class);
+      config.setTimerImplementation(timerImplementation);
+      logger.info("Read " + TimerImplementation + " = " + timerImplementation);
+    }
+
     if (check(properties, ConnectRetryInterval)) {
       int connectRetryInterval = parse(properties, ConnectRetryInterval);
       config.setConnectRetryInterval(connectRetryInterval);
@@ -141,7 +169,107 @@ public class ConfigurationFileReader {
     if (check(properties, MessageSendRetryInterval)) {
       int messageSendRetryInterval = parse(properties, MessageSendRetryInterval);
       config.setMessageSendRetryInterval(messageSendRetryInterval);
-      logger.info("Read " + MessageSendRetryInterval + " = " + messageSendRetryInterval);
+      logger.warning("Read " + MessageSendRetryInterval + " = " + messageSendRetryInterval
+          + ", the option is deprecated and ignored");
+    }
+
+    if (check(properties, SelectorThreads)) {
+      int selectorThreads = parse(properties, SelectorThreads);
+      config.setSelectorThreads(selectorThreads);
+      logger.info("Read " + SelectorThreads + " = " + selectorThreads);
+    }
+
+    if (check(properties, SelectorAssignment)) {
+      SelectorAssignment selectorAssignment =
+          parse(properties, SelectorAssignment, SelectorAssignment.class);
+      config.setSelectorAssignment(selectorAssignment);
+      logger.info("Read " + SelectorAssignment + " = " + selectorAssignment);
+    }
+
+    if (check(properties, DispatcherThreads)) {
+      int dispatcherThreads = parse(properties, DispatcherThreads);
+      config.setDispatcherThreads(dispatcherThreads);
+      logger.info("Read " + DispatcherThreads + " = " + dispatcherThreads);
+    }
+
+    if (check(properties, Transport)) {
+      TransportImplementation transport =
+          parse(properties, Transport, TransportImplementation.class);
+      config.setTransport(transport);
+      logger.info("Read " + Transport + " = " + transport);
+    }
+
+    if (check(properties, WarmConnections)) {
+      int warmConnections = parse(properties, WarmConnections);
+      config.setWarmConnections(warmConnections);
+      logger.info("Read " + WarmConnections + " = " + warmConnections);
+    }
+
+    if (check(properties, ChannelsPerDestination)) {
+      int channelsPerDestination = parse(properties, ChannelsPerDestination);
+      config.setChannelsPerDestination(channelsPerDestination);
+      logger.info("Read " + ChannelsPerDestination + " = " + channelsPerDestination);
+    }
+
+    if (check(properties, StreamChunkSize)) {
+      int streamChunkSize = parse(properties, StreamChunkSize);
+      config.setStreamChunkSize(streamChunkSize);
+      logger.info("Read " + StreamChunkSize + " = " + streamChunkSize);
+    }
+
+    if (check(properties, CompressionThreshold)) {
+      int compressionThreshold = parse(properties, CompressionThreshold);
+      config.setCompressionThreshold(compressionThreshold);
+      logger.info("Read " + CompressionThreshold + " = " + compressionThreshold);
+    }
+
+    if (check(properties, ResumptionTicketLifetime)) {
+      int resumptionTicketLifetime = parse(properties, ResumptionTicketLifetime);
+      config.setResumptionTicketLifetime(resumptionTicketLifetime);
+      logger.info("Read " + ResumptionTicketLifetime + " = " + resumptionTicketLifetime);
+    }
+
+    if (check(properties, AuthenticationThreads)) {
+      int authenticationThreads = parse(properties, AuthenticationThreads);
+      config.setAuthenticationThreads(authenticationThreads);
+      logger.info("Read " + AuthenticationThreads + " = " + authenticationThreads);
+    }
+
+    if (check(properties, ReceiveBufferLimit)) {
+      int receiveBufferLimit = parse(properties, ReceiveBufferLimit);
+      config.setReceiveBufferLimit(receiveBufferLimit);
+      logger.info("Read " + ReceiveBufferLimit + " = " + receiveBufferLimit);
+    }
+
+    if (check(properties, MaxPendingBytes)) {
+      int maxPendingBytes = parse(properties, MaxPendingBytes);
+      config.setMaxPendingBytes(maxPendingBytes);
+      logger.info("Read " + MaxPendingBytes + " = " + maxPendingBytes);
+    }
+
+    if (check(properties, MaxPendingBytesPerDestination)) {
+      int maxPendingBytesPerDestination = parse(properties, MaxPendingBytesPerDestination);
+      config.setMaxPendingBytesPerDestination(maxPendingBytesPerDestination);
+      logger.info("Read " + MaxPendingBytesPerDestination + " = "
+          + maxPendingBytesPerDestination);
+    }
+
+    if (check(properties, StreamBufferLimit)) {
+      int streamBufferLimit = parse(properties, StreamBufferLimit);
+      config.setStreamBufferLimit(streamBufferLimit);
+      logger.info("Read " + StreamBufferLimit + " = " + streamBufferLimit);
+    }
+
+    if (check(properties, StreamBufferLimitPerSource)) {
+      int streamBufferLimitPerSource = parse(properties, StreamBufferLimitPerSource);
+      config.setStreamBufferLimitPerSource(streamBufferLimitPerSource);
+      logger.info("Read " + StreamBufferLimitPerSource + " = " + streamBufferLimitPerSource);
+    }
+
+    if (check(properties, StreamIdleTimeout)) {
+      int streamIdleTimeout = parse(properties, StreamIdleTimeout);
+      config.setStreamIdleTimeout(streamIdleTimeout);
+      logger.info("Read " + StreamIdleTimeout + " = " + streamIdleTimeout);
     }
 
     return config;
@@ -178,4 +306,22 @@ public class ConfigurationFileReader {
     return value;
 
   }
+
+  /**
+   * Parses the enum value of a specific key in a string-to-string hash map.
+   *
+   * @param map The hash map containing the key value pair.
+   * @param key The key of the value to be parsed.
+   * @param type The enum type of the value.
+   */
+  private <T extends Enum<T>> T parse(HashMap<String, String> map, String key, Class<T> type) {
+    logger.info("Parsing enum value of the " + key + " property: " + map.get(key));
+
+    try {
+      return Enum.valueOf(type, map.get(key));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Could not parse the value of the " + key + " property.");
+    }
+  }
 }
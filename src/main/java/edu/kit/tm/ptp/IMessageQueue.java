@@ -1,5 +1,7 @@
 package edu.kit.tm.ptp;
 
+import java.util.Collection;
+
 /**
  * Interface for a generic queue which can only be polled.
  * 
@@ -8,6 +10,9 @@ package edu.kit.tm.ptp;
  * @param <T> The type of the items in the queue.
  */
 public interface IMessageQueue<T> {
+  /** The time (in milliseconds) between two polls of the default take implementation. */
+  long pollInterval = 10;
+
   /**
    * Returns true if the queue contains a message.
    */
@@ -17,4 +22,47 @@ public interface IMessageQueue<T> {
    * Return the next item in the queue or null if the queue is empty.
    */
   QueuedMessage<T> pollMessage();
+
+  /**
+   * Waits for the next item in the queue.
+   * The default implementation polls the queue until the timeout expires.
+   *
+   * @param timeout How long to wait in ms.
+   * @return The item or null if the timeout expired.
+   * @throws InterruptedException If the thread has been interrupted while waiting.
+   */
+  default QueuedMessage<T> take(long timeout) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    QueuedMessage<T> message = pollMessage();
+
+    while (message == null) {
+      long remaining = deadline - System.currentTimeMillis();
+
+      if (remaining <= 0) {
+        return null;
+      }
+
+      Thread.sleep(Math.min(remaining, pollInterval));
+      message = pollMessage();
+    }
+
+    return message;
+  }
+
+  /**
+   * Removes up to max items from the queue and adds them to the collection.
+   *
+   * @return The number of items added.
+   */
+  default int drainTo(Collection<? super QueuedMessage<T>> collection, int max) {
+    int drained = 0;
+    QueuedMessage<T> message;
+
+    while (drained < max && (message = pollMessage()) != null) {
+      collection.add(message);
+      drained++;
+    }
+
+    return drained;
+  }
 }
@@ -1,9 +1,14 @@
 package edu.kit.tm.ptp;
 
 import edu.kit.tm.ptp.connection.ExpireListener;
-import edu.kit.tm.ptp.connection.TimerManager;
+import edu.kit.tm.ptp.connection.ITimerManager;
+import edu.kit.tm.ptp.connection.PauseListener;
+import edu.kit.tm.ptp.metrics.Metrics;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,19 +18,26 @@ import java.util.logging.Logger;
  * configured by Configuration.getIsAliveTimeout().
  * If the receiver has no regular message to send it can send an IsAliveMessage.
  * IsAliveMessages must NOT be replied to by another IsAliveMessage.
+ * While reading from a source is paused its messages can't be received. The connections
+ * aren't closed for a missing answer in the meantime and IsAliveMessages are sent to the
+ * source regularly to keep its end from closing them.
  * 
  * @author Timon Hackenjos
  *
  */
-public class IsAliveManager implements ExpireListener {
+public class IsAliveManager implements ExpireListener, PauseListener {
   private static final int SENDTIMERCLASS = 0;
   private static final int RECEIVETIMERCLASS = 1;
 
   private final PTP ptp;
   private final int isAliveTimeout;
   private final int isAliveSendTimeout;
+  private final Metrics metrics;
+  /** Sources which aren't read from. */
+  private final Set<Identifier> pausedSources =
+      Collections.newSetFromMap(new ConcurrentHashMap<Identifier, Boolean>());
 
-  private TimerManager timerManager;
+  private ITimerManager timerManager;
 
   private static final Logger logger = Logger.getLogger(IsAliveManager.class.getName());
 
@@ -34,8 +46,17 @@ public class IsAliveManager implements ExpireListener {
   }
 
   public IsAliveManager(PTP ptp, Configuration config, ThreadGroup group) {
+    this(ptp, config, group, new Metrics());
+  }
+
+  /**
+   * Constructs a new IsAliveManager which records the timers it uses.
+   */
+  public IsAliveManager(PTP ptp, Configuration config, ThreadGroup group, Metrics metrics) {
     this.ptp = ptp;
-    timerManager = new TimerManager(this, config.getTimerUpdateInterval());
+    this.metrics = metrics;
+    timerManager = config.getTimerImplementation()
+        .create(this, config.getTimerUpdateInterval(), null);
     isAliveTimeout = config.getIsAliveTimeout();
     isAliveSendTimeout = config.getIsAliveSendTimeout();
   }
@@ -52,7 +73,9 @@ public class IsAliveManager implements ExpireListener {
     
     if (!isAliveMsg) {
       // It's not a isAliveMessage so we have to answer it. Set timer
-      timerManager.setTimerIfNoneExists(source, isAliveSendTimeout, SENDTIMERCLASS);
+      if (timerManager.setTimerIfNoneExists(source, isAliveSendTimeout, SENDTIMERCLASS)) {
+        metrics.timerSet();
+      }
     }
   }
   
@@ -66,9 +89,23 @@ public class IsAliveManager implements ExpireListener {
     timerManager.remove(destination, SENDTIMERCLASS);
 
     // We expect an answer. Set timer
-    timerManager.setTimerIfNoneExists(destination, isAliveTimeout, RECEIVETIMERCLASS);
+    if (timerManager.setTimerIfNoneExists(destination, isAliveTimeout, RECEIVETIMERCLASS)) {
+      metrics.timerSet();
+    }
+  }
+
+  @Override
+  public void readingPaused(Identifier source) {
+    if (pausedSources.add(source)
+        && timerManager.setTimerIfNoneExists(source, isAliveSendTimeout, SENDTIMERCLASS)) {
+      metrics.timerSet();
+    }
   }
 
+  @Override
+  public void readingResumed(Identifier source) {
+    pausedSources.remove(source);
+  }
 
   public void start() {
     timerManager.start();
@@ -81,6 +118,8 @@ public class IsAliveManager implements ExpireListener {
 
   @Override
   public void expired(Identifier identifier, int timerClass) throws IOException {
+    metrics.timerExpired();
+
     switch (timerClass) {
       case SENDTIMERCLASS:
         sendExpired(identifier);
@@ -96,12 +135,28 @@ public class IsAliveManager implements ExpireListener {
   
   private void sendExpired(Identifier identifier) {
     // The sent timer expired so we didn't send a regular message since we received the last message
-    logger.log(Level.INFO, "Sending IsAliveMessage to " + identifier);
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Sending IsAliveMessage to " + identifier);
+    }
+
     // Send an IsAliveMessage
     ptp.sendIsAlive(identifier, isAliveTimeout - isAliveSendTimeout);
+
+    if (pausedSources.contains(identifier)) {
+      // Keep the source informed while its messages aren't read
+      timerManager.setTimer(identifier, isAliveSendTimeout, SENDTIMERCLASS);
+      metrics.timerSet();
+    }
   }
   
   private void receiveExpired(Identifier identifier) {
+    if (pausedSources.contains(identifier)) {
+      // The answer might be waiting to be read, check again later
+      timerManager.setTimer(identifier, isAliveTimeout, RECEIVETIMERCLASS);
+      metrics.timerSet();
+      return;
+    }
+
     // We didn't get an answer to our last message. Kill the connection.
     logger.log(Level.INFO, "Connection to " + identifier + " timed out.");
     ptp.closeConnections(identifier);
@@ -1,79 +1,145 @@
 package edu.kit.tm.ptp;
 
-import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Container to store a listener for a class type.
  * Inspired by typesafe heterogeneous containers.
  * Effective Java, Second Edition, Item 29.
- * 
+ *
+ * <p>The registered type of a received object is looked up in a table keyed by the exact class
+ * of the object. The table is filled on the first lookup of a class and replaced when a type is
+ * registered. Lookups don't lock the container.
+ *
  * @author Timon Hackenjos
  *
  */
 public class ListenerContainer {
-  private Map<Class<?>, Object> listeners = new Hashtable<Class<?>, Object>();
-  protected Set<Class<?>> registerClasses = new HashSet<Class<?>>();
+  /** Marks classes which don't belong to a registered type. */
+  private static final Class<?> NONE = NoType.class;
+
+  private final Map<Class<?>, Object> listeners = new ConcurrentHashMap<Class<?>, Object>();
+  private volatile TypeTable types = new TypeTable(Collections.<Class<?>>emptySet());
+
+  private static final class NoType {}
+
+  /**
+   * The registered types and the types looked up for classes so far.
+   */
+  private static final class TypeTable {
+    private final Set<Class<?>> registered;
+    private final Map<Class<?>, Class<?>> lookedUp = new ConcurrentHashMap<Class<?>, Class<?>>();
+
+    private TypeTable(Set<Class<?>> registered) {
+      this.registered = registered;
+    }
+
+    private Class<?> lookup(Class<?> cl) {
+      Class<?> type = lookedUp.get(cl);
+
+      if (type == null) {
+        type = NONE;
+
+        if (registered.contains(cl)) {
+          type = cl;
+        } else {
+          for (Class<?> registeredType : registered) {
+            if (registeredType.isAssignableFrom(cl)) {
+              type = registeredType;
+              break;
+            }
+          }
+        }
+
+        lookedUp.put(cl, type);
+      }
+
+      return type == NONE ? null : type;
+    }
+  }
 
   /**
    * Maps the listener to the supplied class type.
    */
-  public <T> void putListener(Class<T> type, MessageReceivedListener<T> listener) {
+  public synchronized <T> void putListener(Class<T> type, MessageReceivedListener<T> listener) {
     if (type == null || listener == null) {
       throw new NullPointerException("Parameter is null");
     }
-    
+
     listeners.put(type, listener);
-    registerClasses.add(type);
+    registerType(type);
   }
-  
+
+  /**
+   * Adds a type objects can be looked up for.
+   */
+  protected synchronized void registerType(Class<?> type) {
+    if (types.registered.contains(type)) {
+      return;
+    }
+
+    Set<Class<?>> registered = new LinkedHashSet<Class<?>>(types.registered);
+    registered.add(type);
+    types = new TypeTable(registered);
+  }
+
   protected Class<?> getType(Object obj) {
-    for (Class<?> cl : registerClasses) {
-      if (cl.isInstance(obj)) {
-        return cl;
-      }
+    Class<?> type = getTypeOrNull(obj);
+
+    if (type == null) {
+      throw new IllegalStateException("Type of object hasn't been registered before");
     }
-    
-    throw new IllegalStateException("Type of object hasn't been registered before");
+
+    return type;
   }
-  
+
   protected Class<?> getTypeOrNull(Object obj) {
-    for (Class<?> cl : registerClasses) {
-      if (cl.isInstance(obj)) {
-        return cl;
-      }
-    }
-    
-    return null;
+    return types.lookup(obj.getClass());
   }
-  
-  
+
+
   /**
-   * Calls a previously registered listener.
+   * Calls a previously registered listener. The listener is called without holding the lock
+   * of the container.
    */
   public void callReceiveListener(Object obj, Identifier source) {
-    if (!hasListener(obj)) {
+    if (!callListener(getTypeOrNull(obj), obj, source)) {
       throw new IllegalArgumentException();
     }
-    
-    callListener(getType(obj).cast(obj), source);
   }
-  
+
   public boolean hasListener(Object obj) {
-    return listeners.get(getType(obj)) != null;
+    Class<?> type = getTypeOrNull(obj);
+    return type != null && listeners.get(type) != null;
+  }
+
+  /**
+   * Calls the listener registered for the type of the object.
+   *
+   * @param type The type of the object as returned by getTypeOrNull.
+   * @return False if there is no listener for the type.
+   */
+  protected boolean callListener(Class<?> type, Object obj, Identifier source) {
+    if (type == null) {
+      return false;
+    }
+
+    return notifyListener(type, type.cast(obj), source);
   }
-  
-  private <T> void callListener(T object, Identifier source) {
+
+  private <T> boolean notifyListener(Class<?> type, T object, Identifier source) {
     @SuppressWarnings("unchecked")
-    MessageReceivedListener<T> listener = 
-        (MessageReceivedListener<T>) listeners.get(object.getClass());
-    
+    MessageReceivedListener<T> listener = (MessageReceivedListener<T>) listeners.get(type);
+
     if (listener == null) {
-      throw new IllegalArgumentException("Type of object hasn't been registered before");
+      return false;
     }
-    
+
     listener.messageReceived(object, source);
+    return true;
   }
 }
@@ -0,0 +1,97 @@
+package edu.kit.tm.ptp;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the deserialization of received messages and the calls to listeners
+ * on a configurable number of threads. Tasks for the same identifier are always
+ * run by the same thread in the order they have been submitted.
+ *
+ * @author Timon Hackenjos
+ */
+public class MessageDispatcher {
+  /** The time (in milliseconds) to wait for pending tasks when stopping. */
+  private static final long stopTimeout = 1000;
+
+  private static final Logger logger = Logger.getLogger(MessageDispatcher.class.getName());
+  private final ExecutorService[] executors;
+  private final ThreadGroup group;
+  private final ThreadLocal<Boolean> dispatcherThread = new ThreadLocal<>();
+
+  /**
+   * Constructs a new MessageDispatcher.
+   *
+   * @param threads The number of threads to dispatch messages.
+   * @param group The ThreadGroup to start threads in or null.
+   */
+  public MessageDispatcher(int threads, ThreadGroup group) {
+    if (threads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.group = group;
+    this.executors = new ExecutorService[threads];
+
+    for (int i = 0; i < threads; i++) {
+      executors[i] = Executors.newSingleThreadExecutor(new DispatcherThreadFactory());
+    }
+  }
+
+  private class DispatcherThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      return new Thread(group, new Runnable() {
+        @Override
+        public void run() {
+          dispatcherThread.set(Boolean.TRUE);
+          runnable.run();
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs the task on the thread responsible for the identifier.
+   * Tasks submitted after the dispatcher has been stopped are discarded.
+   */
+  public void dispatch(Identifier identifier, Runnable task) {
+    int index = identifier == null ? 0
+        : (identifier.hashCode() & Integer.MAX_VALUE) % executors.length;
+
+    try {
+      executors[index].execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.log(Level.INFO, "Discarding task because the dispatcher has been stopped");
+    }
+  }
+
+  /**
+   * Stops the threads after running the tasks submitted so far.
+   * Doesn't wait for the tasks if called from a dispatcher thread.
+   */
+  public void stop() {
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+
+    if (dispatcherThread.get() != null) {
+      return;
+    }
+
+    try {
+      for (ExecutorService executor : executors) {
+        if (!executor.awaitTermination(stopTimeout, TimeUnit.MILLISECONDS)) {
+          logger.log(Level.WARNING, "Dispatcher thread didn't stop in time");
+        }
+      }
+    } catch (InterruptedException e) {
+      logger.log(Level.INFO, "Interrupted while waiting for the dispatcher threads to stop");
+    }
+  }
+}
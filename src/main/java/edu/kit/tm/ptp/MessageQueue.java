@@ -1,5 +1,7 @@
 package edu.kit.tm.ptp;
 
+import java.util.Collection;
+
 /**
  * Generic queue which can only be polled.
  * 
@@ -32,4 +34,14 @@ public class MessageQueue<T> implements IMessageQueue<T> {
     return container.pollMessage(type);
   }
 
+  @Override
+  public QueuedMessage<T> take(long timeout) throws InterruptedException {
+    return container.takeMessage(type, timeout);
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueuedMessage<T>> collection, int max) {
+    return container.drainMessages(type, collection, max);
+  }
+
 }
@@ -1,105 +1,417 @@
 package edu.kit.tm.ptp;
 
-import java.util.Hashtable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Extends ListenerContainer to allow to save queued messages of
  * previously registered types.
- * 
+ *
+ * <p>Every type has an own lock-free queue. A queue may be bounded, the OverflowPolicy of the
+ * queue decides what happens to received messages if it's full. Adding a message never waits
+ * for the queue. Messages held back by the BLOCK policy aren't bounded by the container itself,
+ * {@link #messageConsumed(Identifier, int)} has to be used to stop receiving from their sources.
+ *
  * @author Timon Hackenjos
  */
 
 public class MessageQueueContainer extends ListenerContainer {
-  private Map<Class<?>, Queue<Object>> queues = new Hashtable<Class<?>, Queue<Object>>();
-  
+  private static final Logger logger = Logger.getLogger(MessageQueueContainer.class.getName());
+  private final Map<Class<?>, TypeQueue> queues = new ConcurrentHashMap<Class<?>, TypeQueue>();
+
+  /**
+   * Queue of the messages of one type. The number of messages is tracked separately to bound
+   * the queue without locking it. Messages which are held back by the BLOCK policy wait in a
+   * separate list. Only adding and moving held messages synchronize.
+   */
+  private final class TypeQueue {
+    private final LinkedTransferQueue<Object> queue = new LinkedTransferQueue<Object>();
+    /** Upper bound of the number of messages in the queue. */
+    private final AtomicInteger size = new AtomicInteger(0);
+    /** Messages waiting for space in the queue in the order they have been received. */
+    private final Deque<Object> held = new ArrayDeque<Object>();
+    /** The number of held messages, read without holding the lock. */
+    private volatile int heldCount = 0;
+    private final Object lock = new Object();
+    private volatile int capacity = -1;
+    private volatile OverflowPolicy policy = OverflowPolicy.DROP_NEWEST;
+    private volatile boolean closed = false;
+
+    /**
+     * Adds a message to the queue.
+     *
+     * @return False if the message has been dropped.
+     */
+    private boolean offer(Object message) {
+      int limit = capacity;
+
+      if (limit == -1 && heldCount == 0) {
+        size.incrementAndGet();
+        queue.add(message);
+        return true;
+      }
+
+      switch (policy) {
+        case DROP_OLDEST:
+          size.incrementAndGet();
+          queue.add(message);
+
+          if (size.get() > limit) {
+            consumed(removed(queue.poll()));
+          }
+          return true;
+        case DROP_NEWEST:
+          if (size.incrementAndGet() > limit) {
+            size.decrementAndGet();
+            return false;
+          }
+
+          queue.add(message);
+          return true;
+        case BLOCK:
+        default:
+          synchronized (lock) {
+            if (closed) {
+              return false;
+            }
+
+            // Held messages go first to keep the order
+            if (heldCount == 0 && reserve()) {
+              queue.add(message);
+            } else {
+              held.add(message);
+              heldCount++;
+            }
+          }
+          return true;
+      }
+    }
+
+    /**
+     * Reserves space for another message if the queue isn't full.
+     */
+    private boolean reserve() {
+      while (true) {
+        int limit = capacity;
+        int current = size.get();
+
+        if (limit != -1 && current >= limit) {
+          return false;
+        }
+
+        if (size.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private Object removed(Object message) {
+      if (message != null) {
+        size.decrementAndGet();
+        moveHeld();
+      }
+
+      return message;
+    }
+
+    /**
+     * Moves held messages to the queue as long as it has space.
+     */
+    private void moveHeld() {
+      if (heldCount == 0) {
+        return;
+      }
+
+      synchronized (lock) {
+        while (heldCount > 0 && reserve()) {
+          queue.add(held.poll());
+          heldCount--;
+        }
+      }
+    }
+
+    private Object poll() {
+      return consumed(removed(queue.poll()));
+    }
+
+    private Object take(long timeout) throws InterruptedException {
+      return consumed(removed(queue.poll(timeout, TimeUnit.MILLISECONDS)));
+    }
+
+    /**
+     * Removes up to max messages from the queue.
+     *
+     * @param collection An empty collection to add the messages to.
+     */
+    private int drainTo(Collection<Object> collection, int max) {
+      int drained = queue.drainTo(collection, max);
+
+      for (Object message : collection) {
+        consumed(message);
+      }
+
+      if (drained > 0) {
+        size.addAndGet(-drained);
+        moveHeld();
+      }
+
+      return drained;
+    }
+
+    private void setCapacity(int capacity, OverflowPolicy policy) {
+      this.policy = policy;
+      this.capacity = capacity;
+      moveHeld();
+    }
+
+    private void close() {
+      synchronized (lock) {
+        closed = true;
+
+        for (Object message : held) {
+          consumed(message);
+        }
+
+        held.clear();
+        heldCount = 0;
+      }
+    }
+  }
+
+  /**
+   * Called once a message has been consumed. Messages which are passed to a queue are consumed
+   * when they are taken from the queue or dropped, other messages once their listener returned.
+   * Does nothing by default.
+   *
+   * @param source The source of the message.
+   * @param length The length of the received message in bytes.
+   */
+  protected void messageConsumed(Identifier source, int length) {
+  }
+
+  private Object consumed(Object message) {
+    if (message != null) {
+      QueuedMessage<?> queued = cast(message);
+      messageConsumed(queued.getSource(), queued.getLength());
+    }
+
+    return message;
+  }
+
+  /**
+   * Adds an unbounded queue for messages of Type type.
+   */
+  protected <T> void addMessageQueue(Class<T> type) {
+    addMessageQueue(type, -1, OverflowPolicy.DROP_NEWEST);
+  }
+
   /**
    * Adds a queue for messages of Type type.
+   *
+   * @param type The type of the messages.
+   * @param capacity The maximum number of messages in the queue or -1 for an unbounded queue.
+   * @param policy What to do with received messages if the queue is full.
    */
-  protected synchronized <T> void addMessageQueue(Class<T> type) {
+  protected synchronized <T> void addMessageQueue(Class<T> type, int capacity,
+      OverflowPolicy policy) {
     if (queues.get(type) != null) {
       throw new IllegalArgumentException();
     }
-     
-    queues.put(type, new ConcurrentLinkedQueue<Object>());
-    registerClasses.add(type);
+
+    TypeQueue queue = new TypeQueue();
+    setCapacity(queue, capacity, policy);
+    queues.put(type, queue);
+    registerType(type);
   }
-  
+
   /**
-   * Returns a message of the supplied type or null if the queue is empty.
+   * Changes the capacity and the OverflowPolicy of the queue of the type.
+   * Messages already in the queue are kept if the capacity shrinks.
    */
-  protected synchronized <T> QueuedMessage<T> pollMessage(Class<T> type) {
-    Queue<Object> queue = queues.get(type);
-    
+  protected <T> void setQueueCapacity(Class<T> type, int capacity, OverflowPolicy policy) {
+    setCapacity(getQueue(type), capacity, policy);
+  }
+
+  /**
+   * Returns true if a queue uses the BLOCK policy.
+   */
+  protected boolean hasBlockingQueue() {
+    for (TypeQueue queue : queues.values()) {
+      if (queue.policy == OverflowPolicy.BLOCK) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static void setCapacity(TypeQueue queue, int capacity, OverflowPolicy policy) {
+    if (capacity < -1 || capacity == 0 || policy == null) {
+      throw new IllegalArgumentException();
+    }
+
+    queue.setCapacity(capacity, policy);
+  }
+
+  private TypeQueue getQueue(Class<?> type) {
+    TypeQueue queue = queues.get(type);
+
     if (queue == null) {
       throw new IllegalArgumentException("Type hasn't been registered before.");
     }
-    
-    Object obj = queue.poll();
-    
-    if (obj == null) {
-      return null;
+
+    return queue;
+  }
+
+  /**
+   * Returns a message of the supplied type or null if the queue is empty.
+   */
+  protected <T> QueuedMessage<T> pollMessage(Class<T> type) {
+    return cast(getQueue(type).poll());
+  }
+
+  /**
+   * Waits for a message of the supplied type.
+   *
+   * @param timeout How long to wait in ms.
+   * @return The message or null if the timeout expired.
+   * @throws InterruptedException If the thread has been interrupted while waiting.
+   */
+  protected <T> QueuedMessage<T> takeMessage(Class<T> type, long timeout)
+      throws InterruptedException {
+    return cast(getQueue(type).take(timeout));
+  }
+
+  /**
+   * Removes up to max messages of the supplied type and adds them to the collection.
+   *
+   * @return The number of messages added.
+   */
+  protected <T> int drainMessages(Class<T> type, Collection<? super QueuedMessage<T>> collection,
+      int max) {
+    List<Object> drained = new ArrayList<Object>();
+    int count = getQueue(type).drainTo(drained, max);
+
+    for (Object obj : drained) {
+      QueuedMessage<T> message = cast(obj);
+      collection.add(message);
     }
-    
+
+    return count;
+  }
+
+  private static <T> QueuedMessage<T> cast(Object obj) {
     @SuppressWarnings("unchecked")
     QueuedMessage<T> objT = (QueuedMessage<T>) obj;
-    
+
     return objT;
   }
 
   /**
    * Returns true if the queue of the specified type contains a message.
    */
-  protected synchronized <T> boolean hasMessage(Class<T> type) {
-    Queue<Object> queue = queues.get(type);
-    
-    if (queue == null) {
-      throw new IllegalArgumentException("Type hasn't been registered before.");
-    }
-    
-    return queue.size() > 0;
+  protected <T> boolean hasMessage(Class<T> type) {
+    return !getQueue(type).queue.isEmpty();
   }
 
   /**
    * Adds a message to the corresponding queue by determining it's type
    * by comparing it's type to the registered types.
-   * 
+   *
    * @param message The message to add.
    * @param source The source of the message.
+   * @param length The length of the received message in bytes.
    */
-  protected synchronized void addMessageToQueue(Object message, Identifier source,
-                                                long receiveTime) {
-    addMessage(getType(message).cast(message), source, receiveTime);
+  protected void addMessageToQueue(Object message, Identifier source, long receiveTime,
+      int length) {
+    if (!addMessage(getType(message), message, source, receiveTime, length)) {
+      throw new IllegalArgumentException("Type of object hasn't been registered before");
+    }
   }
-  
+
   /**
    * Returns true if it exists a queue for the supplied message.
    */
-  protected synchronized boolean hasQueue(Object message) {
+  protected boolean hasQueue(Object message) {
     Class<?> type = getTypeOrNull(message);
     if (type == null) {
       return false;
     }
-    
+
     return queues.get(type) != null;
   }
 
   /**
    * Returns true if queuing has been enabled for the type.
    */
-  protected synchronized <T> boolean queueEnabled(Class<T> type) {
+  protected <T> boolean queueEnabled(Class<T> type) {
     return queues.get(type) != null;
   }
-  
-  private <T> void addMessage(T message, Identifier source, long receiveTime) {
-    Queue<Object> queue = queues.get(message.getClass());
-    
+
+  /**
+   * Passes a received message to the listener and the queue of its type.
+   * The type of the message is only looked up once.
+   *
+   * @param length The length of the received message in bytes.
+   * @return False if neither a listener nor a queue exists for the message. Otherwise
+   *         the consumption of the message is reported by {@link #messageConsumed}.
+   */
+  protected boolean dispatch(Object message, Identifier source, long receiveTime, int length) {
+    Class<?> type = getTypeOrNull(message);
+
+    if (type == null) {
+      return false;
+    }
+
+    boolean called = callListener(type, message, source);
+    boolean queued = addMessage(type, message, source, receiveTime, length);
+
+    if (called && !queued) {
+      messageConsumed(source, length);
+    }
+
+    return called || queued;
+  }
+
+  /**
+   * Drops the messages which are waiting for space in full queues.
+   */
+  protected void close() {
+    for (TypeQueue queue : queues.values()) {
+      queue.close();
+    }
+  }
+
+  private boolean addMessage(Class<?> type, Object message, Identifier source,
+      long receiveTime, int length) {
+    return enqueue(queues.get(type), type.cast(message), source, receiveTime, length);
+  }
+
+  private <T> boolean enqueue(TypeQueue queue, T message, Identifier source,
+      long receiveTime, int length) {
     if (queue == null) {
-      throw new IllegalArgumentException("Type of object hasn't been registered before");
+      return false;
     }
-    
-    queue.add(new QueuedMessage<T>(source, message, receiveTime));
+
+    if (!queue.offer(new QueuedMessage<T>(source, message, receiveTime, length))) {
+      messageConsumed(source, length);
+
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Dropped message of type " + message.getClass().getName()
+            + " from " + source + " because the queue is full");
+      }
+    }
+
+    return true;
   }
 }
@@ -0,0 +1,20 @@
+package edu.kit.tm.ptp;
+
+/**
+ * Decides what happens to a received message if the queue of its type is full.
+ *
+ * @author Timon Hackenjos
+ */
+public enum OverflowPolicy {
+  /** The oldest message in the queue is dropped to make room for the received one. */
+  DROP_OLDEST,
+  /** The received message is dropped. */
+  DROP_NEWEST,
+  /**
+   * The received message is held back until a message has been taken from the queue.
+   * No thread waits for the queue meanwhile. Held messages count as not consumed, so the
+   * ReceiveBufferLimit pauses reading from their sources and bounds the held messages.
+   * PTP refuses the policy if the ReceiveBufferLimit is disabled.
+   */
+  BLOCK
+}
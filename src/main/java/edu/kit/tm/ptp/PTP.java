@@ -4,13 +4,31 @@ import edu.kit.tm.ptp.auth.AuthenticatorFactory;
 import edu.kit.tm.ptp.auth.PublicKeyAuthenticatorFactory;
 import edu.kit.tm.ptp.connection.ConnectionManager;
 import edu.kit.tm.ptp.hiddenservice.HiddenServiceManager;
+import edu.kit.tm.ptp.metrics.Metrics;
 import edu.kit.tm.ptp.serialization.ByteArrayMessage;
 import edu.kit.tm.ptp.serialization.Serializer;
+import edu.kit.tm.ptp.serialization.StreamChunk;
 import edu.kit.tm.ptp.utility.Constants;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,17 +38,22 @@ import java.util.logging.Logger;
  * PTP. Before calling {@link #init() init()} only the following methods may be called:
  * {@link #setReceiveListener(ReceiveListener) setReceiveListener(ReceiveListener)},
  * {@link #setSendListener(SendListener) setSendListener(SendListener)},
+ * {@link #setBatchSendListener(BatchSendListener) setBatchSendListener(BatchSendListener)},
+ * {@link #setStreamListener(StreamListener) setStreamListener(StreamListener)},
  * {@link #setReceiveListener(Class, MessageReceivedListener) setReceiveListener(Class,
  * MessageReceivedListener)}, {@link #registerClass(Class) registerClass(Class)},
  * {@link #enableMessageQueue() enableMessageQueue()}, {@link #enableMessageQueue(Class)
  * enableMessageQueue(Class)}.
+ * Sending messages doesn't block on other threads using PTP. Received messages are deserialized
+ * and passed to the listeners on the threads of a dispatcher, messages of the same
+ * source are passed on in the order they have been received.
  *
  * @author Timon Hackenjos
  * @author Simeon Andreev
  *
  */
 public class PTP {
-  private final MessageQueueContainer messageTypes = new MessageQueueContainer();
+  private final MessageQueueContainer messageTypes = new PTPMessageQueueContainer();
   private final ConfigurationFileReader configReader;
   private final Serializer serializer;
   private final String hiddenServiceDirectoryName;
@@ -45,12 +68,20 @@ public class PTP {
   private Configuration config = null;
   /** The Tor process manager. */
   private TorManager tor;
-  private ReceiveListener receiveListener = null;
-  private SendListener sendListener = new SendListenerAdapter();
+  private volatile ReceiveListener receiveListener = null;
+  private volatile SendListener sendListener = new SendListenerAdapter();
+  private volatile BatchSendListener batchSendListener = null;
+  private volatile StreamListener streamListener = null;
+  /** Starts at a random id, the receiver drops chunks of streams it recently finished. */
+  private final AtomicLong streamId = new AtomicLong(ThreadLocalRandom.current().nextLong());
+  private StreamReassembler streamReassembler = null;
   private HiddenServiceManager hiddenServiceManager;
   private String workingDirectory;
   private int controlPort;
   private IsAliveManager isAliveManager = null;
+  private MessageDispatcher dispatcher = null;
+  /** Reads the streams which are sent. */
+  private ExecutorService streamExecutor = null;
 
   private volatile boolean initialized = false;
   private volatile boolean closed = false;
@@ -152,6 +183,7 @@ public class PTP {
     this.config = config;
     serializer.registerClass(byte[].class);
     serializer.registerClass(ByteArrayMessage.class);
+    serializer.registerClass(StreamChunk.class);
 
     clientThread = Thread.currentThread();
     messageTypes.addMessageQueue(byte[].class);
@@ -179,6 +211,11 @@ public class PTP {
       config = configReader.readFromFile();
     }
 
+    if (config.getReceiveBufferLimit() == -1 && messageTypes.hasBlockingQueue()) {
+      throw new IllegalStateException(
+          "The BLOCK policy requires a ReceiveBufferLimit to bound the held messages");
+    }
+
     // Create the logger after the configuration sets the logger properties file.
     logger = Logger.getLogger(PTP.class.getName());
 
@@ -208,6 +245,7 @@ public class PTP {
 
     connectionManager = new ConnectionManager(config.getHiddenServicePort(),
         new PTPReceiveListener(), new PTPSendListener(), config, ptpGroup, authFactory);
+    connectionManager.setReceiveBufferLimit(config.getReceiveBufferLimit());
 
     tor.addSOCKSProxyListener(new SOCKSProxyPortListener());
     tor.addSOCKSProxyListener(connectionManager);
@@ -219,28 +257,41 @@ public class PTP {
 
     config.setTorControlPort(tor.getTorControlPort());
 
+    // Needed as soon as messages are received
+    dispatcher = new MessageDispatcher(config.getDispatcherThreads(), ptpGroup);
+    streamExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(ptpGroup, runnable);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    isAliveManager = new IsAliveManager(this, config, null, connectionManager.getMetrics());
+    isAliveManager.start();
+    connectionManager.setPauseListener(isAliveManager);
+    streamReassembler = new PTPStreamReassembler(config);
+    streamReassembler.start();
+
     connectionManager.start();
     hiddenServicePort = connectionManager.startBindServer(hiddenServicePort);
     hiddenServiceManager =
         new HiddenServiceManager(config, hiddenServiceDirectoryName, hiddenServicePort, tor);
 
-    isAliveManager = new IsAliveManager(this, config);
-    isAliveManager.start();
-
     initialized = true;
   }
 
   /**
    * Returns true if PTP was initialized successfully.
    */
-  public synchronized boolean isInitialized() {
+  public boolean isInitialized() {
     return initialized;
   }
 
   /**
    * Returns the currently used API configuration.
    */
-  public synchronized Configuration getConfiguration() {
+  public Configuration getConfiguration() {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -305,7 +356,7 @@ public class PTP {
    * @param timeout How long to wait for a successful transmission.
    * @return Identifier of the message.
    */
-  public synchronized long sendMessage(byte[] data, Identifier destination, long timeout) {
+  public long sendMessage(byte[] data, Identifier destination, long timeout) {
     if (data == null || destination == null) {
       throw new IllegalArgumentException();
     }
@@ -320,7 +371,7 @@ public class PTP {
    * @param data The data to send.
    * @param destination The hidden service identifier of the destination.
    */
-  public synchronized long sendMessage(byte[] data, Identifier destination) {
+  public long sendMessage(byte[] data, Identifier destination) {
     if (data == null || destination == null) {
       throw new IllegalArgumentException();
     }
@@ -336,7 +387,7 @@ public class PTP {
    * @return Identifier of the message.
    * @see #enableMessageQueue(Class)
    */
-  public synchronized long sendMessage(Object message, Identifier destination) {
+  public long sendMessage(Object message, Identifier destination) {
     if (message == null || destination == null) {
       throw new IllegalArgumentException();
     }
@@ -353,7 +404,7 @@ public class PTP {
    * @return Identifier of the message.
    * @see #enableMessageQueue(Class)
    */
-  public synchronized long sendMessage(Object message, Identifier destination, long timeout) {
+  public long sendMessage(Object message, Identifier destination, long timeout) {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -366,11 +417,392 @@ public class PTP {
     return connectionManager.send(data, destination, timeout);
   }
 
+  /**
+   * Send a byte array or an object of a previously registered class to the supplied destination.
+   * The message is sent ahead of waiting messages of a lower priority.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @param priority The priority of the message.
+   * @return Identifier of the message.
+   */
+  public long sendMessage(Object message, Identifier destination, long timeout,
+      Priority priority) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destination == null || priority == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return connectionManager.send(serialize(message), destination, timeout, priority);
+  }
+
+  /**
+   * Send a byte array or an object of a previously registered class to the supplied destination.
+   * Messages with the same ordering key are received in the order they have been sent even
+   * if several connections are opened to the destination. Messages without a key may
+   * overtake each other in that case.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @param orderingKey The key of the messages whose order has to be kept.
+   * @return Identifier of the message.
+   * @see Configuration#getChannelsPerDestination()
+   */
+  public long sendMessage(Object message, Identifier destination, long timeout,
+      Object orderingKey) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destination == null || orderingKey == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return connectionManager.sendOrdered(serialize(message), destination, timeout, orderingKey);
+  }
+
+  /**
+   * Sends a message to the supplied destination and returns a future for the result.
+   * The SendListener isn't informed about the message. The future isn't completed
+   * if PTP exits before the result is known.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destination The hidden service identifier of the destination.
+   * @return A future which is completed with the result on a thread of the dispatcher.
+   */
+  public CompletableFuture<SendResult> sendMessageAsync(Object message, Identifier destination) {
+    return sendMessageAsync(message, destination, -1);
+  }
+
+  /**
+   * Sends a message to the supplied destination and returns a future for the result.
+   * The SendListener isn't informed about the message.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @return A future which is completed with the result on a thread of the dispatcher.
+   */
+  public CompletableFuture<SendResult> sendMessageAsync(Object message, Identifier destination,
+      long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    FutureSendListener listener = new FutureSendListener();
+    connectionManager.send(serialize(message), destination, timeout, listener);
+
+    return listener.future;
+  }
+
+  /**
+   * Sends the content of a stream to the supplied destination.
+   *
+   * @see #sendStream(InputStream, Identifier, long)
+   */
+  public CompletableFuture<SendResult> sendStream(InputStream input, Identifier destination) {
+    return sendStream(input, destination, -1);
+  }
+
+  /**
+   * Sends the content of a stream to the supplied destination in chunks of at most
+   * {@link Configuration#getStreamChunkSize()} bytes. Only a few chunks are read ahead of
+   * the sending. The chunks are sent with {@link Priority#LOW}, other messages to the
+   * destination overtake waiting chunks.
+   * The stream is read and closed on a separate thread, a slow stream doesn't hold up
+   * other messages from and to the destination.
+   * The SendListener isn't informed about the chunks.
+   *
+   * @param input The stream to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission of every chunk.
+   * @return A future which is completed with the id of the stream and the result once the
+   *         last chunk has been sent or a chunk couldn't be sent. Completes exceptionally
+   *         if reading the stream fails.
+   * @see #setStreamListener(StreamListener)
+   */
+  public CompletableFuture<SendResult> sendStream(InputStream input, Identifier destination,
+      long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (input == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    StreamSender sender = new StreamSender(streamId.getAndIncrement(), input, destination,
+        timeout, config.getStreamChunkSize());
+    sender.schedule();
+
+    return sender.future;
+  }
+
+  /**
+   * Sends the content of a channel to the supplied destination.
+   *
+   * @see #sendStream(InputStream, Identifier, long)
+   */
+  public CompletableFuture<SendResult> sendStream(ReadableByteChannel input,
+      Identifier destination, long timeout) {
+    if (input == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return sendStream(Channels.newInputStream(input), destination, timeout);
+  }
+
+  /**
+   * Opens and authenticates a connection to the destination ahead of sending messages
+   * to move the connection setup off the path of the first message.
+   *
+   * @param destination The hidden service identifier of the destination.
+   * @return A future which is completed with true once the connection is authenticated.
+   */
+  public CompletableFuture<Boolean> connect(Identifier destination) {
+    return connect(destination, -1);
+  }
+
+  /**
+   * Opens and authenticates a connection to the destination ahead of sending messages
+   * to move the connection setup off the path of the first message.
+   *
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for the connection.
+   * @return A future which is completed with true once the connection is authenticated
+   *         and with false if the timeout expires. It's completed on a thread of the dispatcher.
+   */
+  public CompletableFuture<Boolean> connect(final Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    connectionManager.connect(destination, timeout).thenAccept(new Consumer<Boolean>() {
+      @Override
+      public void accept(final Boolean connected) {
+        // Keep dependent actions off the thread of the ConnectionManager
+        dispatcher.dispatch(destination, new Runnable() {
+          @Override
+          public void run() {
+            result.complete(connected);
+          }
+        });
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   * Opens and authenticates connections to all destinations.
+   *
+   * @param destinations The hidden service identifiers of the destinations.
+   * @return A future which is completed with true once all connections are authenticated.
+   * @see #connect(Identifier)
+   */
+  public CompletableFuture<Boolean> connectAll(Collection<Identifier> destinations) {
+    return connectAll(destinations, -1);
+  }
+
+  /**
+   * Opens and authenticates connections to all destinations.
+   *
+   * @param destinations The hidden service identifiers of the destinations.
+   * @param timeout How long to wait for the connections.
+   * @return A future which is completed with true once all connections are authenticated
+   *         and with false if the timeout expires for at least one destination.
+   * @see #connect(Identifier, long)
+   */
+  public CompletableFuture<Boolean> connectAll(Collection<Identifier> destinations,
+      long timeout) {
+    if (destinations == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final List<CompletableFuture<Boolean>> futures = new ArrayList<>(destinations.size());
+
+    for (Identifier destination : destinations) {
+      futures.add(connect(destination, timeout));
+    }
+
+    CompletableFuture<?>[] array = futures.toArray(new CompletableFuture<?>[futures.size()]);
+
+    return CompletableFuture.allOf(array).thenApply(new Function<Void, Boolean>() {
+      @Override
+      public Boolean apply(Void ignored) {
+        for (CompletableFuture<Boolean> future : futures) {
+          if (!future.join()) {
+            return false;
+          }
+        }
+
+        return true;
+      }
+    });
+  }
+
+  /**
+   * Keeps a connection to the destination open and reconnects if it's closed.
+   * Additionally the most recently used destinations are kept warm if
+   * WarmConnections is configured.
+   *
+   * @param destination The hidden service identifier of the destination.
+   * @param keepWarm False to stop keeping the connection open.
+   */
+  public void keepWarm(Identifier destination, boolean keepWarm) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    connectionManager.keepWarm(destination, keepWarm);
+  }
+
+  /**
+   * Sends several messages to the supplied destination in the order of the collection.
+   * The messages are handed to the connection at once. If a BatchSendListener is set it's
+   * informed once about the results of all messages, otherwise the SendListener is informed
+   * about every message.
+   *
+   * @param messages Byte arrays or objects of previously registered classes to send.
+   * @param destination The hidden service identifier of the destination.
+   * @return Identifiers of the messages in the order of the collection.
+   * @see #setBatchSendListener(BatchSendListener)
+   */
+  public long[] sendMessages(Collection<?> messages, Identifier destination) {
+    return sendMessages(messages, destination, -1);
+  }
+
+  /**
+   * Sends several messages to the supplied destination in the order of the collection.
+   * The messages are handed to the connection at once. If a BatchSendListener is set it's
+   * informed once about the results of all messages, otherwise the SendListener is informed
+   * about every message.
+   *
+   * @param messages Byte arrays or objects of previously registered classes to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission of every message.
+   * @return Identifiers of the messages in the order of the collection.
+   * @see #setBatchSendListener(BatchSendListener)
+   */
+  public long[] sendMessages(Collection<?> messages, Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (messages == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    byte[][] data = new byte[messages.size()][];
+    Identifier[] destinations = new Identifier[data.length];
+    int i = 0;
+
+    for (Object message : messages) {
+      data[i] = serialize(message);
+      destinations[i] = destination;
+      i++;
+    }
+
+    return send(data, destinations, timeout, destination);
+  }
+
+  /**
+   * Sends a message to several destinations. The message is serialized once.
+   * If a BatchSendListener is set it's informed once about the results for all destinations,
+   * otherwise the SendListener is informed about every destination.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destinations The hidden service identifiers of the destinations.
+   * @return Identifiers of the messages in the order of the destinations.
+   * @see #setBatchSendListener(BatchSendListener)
+   */
+  public long[] sendMessage(Object message, Collection<Identifier> destinations) {
+    return sendMessage(message, destinations, -1);
+  }
+
+  /**
+   * Sends a message to several destinations. The message is serialized once.
+   * If a BatchSendListener is set it's informed once about the results for all destinations,
+   * otherwise the SendListener is informed about every destination.
+   *
+   * @param message A byte array or an object of a previously registered class to send.
+   * @param destinations The hidden service identifiers of the destinations.
+   * @param timeout How long to wait for a successful transmission to every destination.
+   * @return Identifiers of the messages in the order of the destinations.
+   * @see #setBatchSendListener(BatchSendListener)
+   */
+  public long[] sendMessage(Object message, Collection<Identifier> destinations, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destinations == null) {
+      throw new IllegalArgumentException();
+    }
+
+    Identifier[] identifiers = destinations.toArray(new Identifier[destinations.size()]);
+    byte[][] data = new byte[identifiers.length][];
+
+    for (Identifier identifier : identifiers) {
+      if (identifier == null) {
+        throw new IllegalArgumentException();
+      }
+    }
+
+    // The connections only read the data, all messages share the same bytes
+    Arrays.fill(data, serialize(message));
+
+    return send(data, identifiers, timeout, null);
+  }
+
+  private byte[] serialize(Object message) {
+    if (message == null) {
+      throw new IllegalArgumentException();
+    }
+
+    if (message instanceof byte[]) {
+      return serializer.serialize(new ByteArrayMessage((byte[]) message));
+    }
+
+    return serializer.serialize(message);
+  }
+
+  private long[] send(byte[][] data, Identifier[] destinations, long timeout,
+      Identifier dispatchKey) {
+    BatchSendListener listener = batchSendListener;
+    SendListener batch = null;
+
+    if (listener != null && data.length > 0) {
+      batch = new Batch(listener, data.length, dispatchKey);
+    }
+
+    return connectionManager.send(data, destinations, timeout, batch);
+  }
+
   /**
    * Register class to be able to send and receive instances of the class. Registering a class
    * several times has no effect.
    */
-  public synchronized <T> void registerClass(Class<T> type) {
+  public <T> void registerClass(Class<T> type) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -384,8 +816,7 @@ public class PTP {
    * @param listener Listener to be informed about received objects.
    * @see #registerClass(Class)
    */
-  public synchronized <T> void setReceiveListener(Class<T> type,
-                                                  MessageReceivedListener<T> listener) {
+  public <T> void setReceiveListener(Class<T> type, MessageReceivedListener<T> listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -402,7 +833,7 @@ public class PTP {
    * 
    * @param listener The listener to inform.
    */
-  public synchronized void setReceiveListener(ReceiveListener listener) {
+  public void setReceiveListener(ReceiveListener listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -417,7 +848,7 @@ public class PTP {
    * @param type The type of objects to queue.
    * @see #setReceiveListener(Class, MessageReceivedListener)
    */
-  public synchronized <T> void enableMessageQueue(Class<T> type) {
+  public <T> void enableMessageQueue(Class<T> type) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -428,11 +859,33 @@ public class PTP {
     messageTypes.addMessageQueue(type);
   }
 
+  /**
+   * Enables queueing of objects of a previously registered type using a bounded queue.
+   *
+   * @param type The type of objects to queue.
+   * @param capacity The maximum number of objects in the queue or -1 for an unbounded queue.
+   * @param policy What to do with received objects if the queue is full. BLOCK requires a
+   *        ReceiveBufferLimit.
+   * @see #enableMessageQueue(Class)
+   */
+  public <T> void enableMessageQueue(Class<T> type, int capacity, OverflowPolicy policy) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    checkPolicy(policy);
+
+    if (!serializer.isRegistered(type)) {
+      throw new IllegalArgumentException("Class type hasn't been registered before");
+    }
+    messageTypes.addMessageQueue(type, capacity, policy);
+  }
+
   /**
    * Enables queueing of byte[] messages. Objects can be received using {@link #getMessageQueue()
    * getMessageQueue()}
    */
-  public synchronized void enableMessageQueue() {
+  public void enableMessageQueue() {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -440,12 +893,45 @@ public class PTP {
     this.queueMessages = true;
   }
 
+  /**
+   * Enables queueing of byte[] messages using a bounded queue.
+   *
+   * @param capacity The maximum number of messages in the queue or -1 for an unbounded queue.
+   * @param policy What to do with received messages if the queue is full. BLOCK requires a
+   *        ReceiveBufferLimit.
+   * @see #enableMessageQueue()
+   */
+  public void enableMessageQueue(int capacity, OverflowPolicy policy) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    checkPolicy(policy);
+
+    messageTypes.setQueueCapacity(byte[].class, capacity, policy);
+    this.queueMessages = true;
+  }
+
+  /**
+   * Rejects the BLOCK policy if the configuration disables the ReceiveBufferLimit. Held messages
+   * are bounded by pausing the sources only. Checked again by init() if PTP isn't initialized.
+   */
+  private void checkPolicy(OverflowPolicy policy) {
+    Configuration configuration = config;
+
+    if (policy == OverflowPolicy.BLOCK && configuration != null
+        && configuration.getReceiveBufferLimit() == -1) {
+      throw new IllegalArgumentException(
+          "The BLOCK policy requires a ReceiveBufferLimit to bound the held messages");
+    }
+  }
+
   /**
    * Returns a IMessageQueue to poll received messages of the supplied type from.
    *
    * @see #enableMessageQueue(Class)
    */
-  public synchronized <T> IMessageQueue<T> getMessageQueue(Class<T> type) {
+  public <T> IMessageQueue<T> getMessageQueue(Class<T> type) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -464,7 +950,7 @@ public class PTP {
   /**
    * Returns a IMessageQueue to poll received byte[] messages from.
    */
-  public synchronized IMessageQueue<byte[]> getMessageQueue() {
+  public IMessageQueue<byte[]> getMessageQueue() {
     return getMessageQueue(byte[].class);
   }
 
@@ -473,7 +959,7 @@ public class PTP {
    * 
    * @param listener The lister to inform.
    */
-  public synchronized void setSendListener(SendListener listener) {
+  public void setSendListener(SendListener listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -481,10 +967,39 @@ public class PTP {
     this.sendListener = listener;
   }
 
+  /**
+   * Sets the listener to be informed about messages sent using
+   * {@link #sendMessages(Collection, Identifier)} or {@link #sendMessage(Object, Collection)}.
+   * Only batches sent afterwards report to the listener.
+   * 
+   * @param listener The lister to inform or null to inform the SendListener about every message.
+   */
+  public void setBatchSendListener(BatchSendListener listener) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.batchSendListener = listener;
+  }
+
+  /**
+   * Sets the listener for the chunks of received streams.
+   *
+   * @param listener The listener to inform.
+   * @see #sendStream(InputStream, Identifier, long)
+   */
+  public void setStreamListener(StreamListener listener) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.streamListener = listener;
+  }
+
   /**
    * Returns the local port on which the local hidden service is listening.
    */
-  public synchronized int getLocalPort() {
+  public int getLocalPort() {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -492,6 +1007,20 @@ public class PTP {
     return hiddenServicePort;
   }
 
+  /**
+   * Returns the metrics of PTP. The metrics may be read from any thread and can be
+   * exported over JMX.
+   *
+   * @see Metrics#registerMBean(String)
+   */
+  public Metrics getMetrics() {
+    if (!initialized) {
+      throw new IllegalStateException();
+    }
+
+    return connectionManager.getMetrics();
+  }
+
   /**
    * Delete the currently used hidden service directory. The method is only allowed to be called
    * after {@link #exit() exit} has been called.
@@ -518,14 +1047,24 @@ public class PTP {
       return;
     }
 
+    if (streamExecutor != null) {
+      // Interrupt threads waiting for a stream
+      streamExecutor.shutdownNow();
+    }
+
     if (connectionManager != null) {
       connectionManager.stop();
+      connectionManager.getMetrics().unregisterMBean();
     }
 
     if (isAliveManager != null) {
       isAliveManager.stop();
     }
 
+    if (streamReassembler != null) {
+      streamReassembler.stop();
+    }
+
     // Close the Tor process manager.
     if (tor != null) {
       tor.stopTor();
@@ -535,6 +1074,13 @@ public class PTP {
       hiddenServiceManager.close();
     }
 
+    // Drop messages waiting for space in a full queue
+    messageTypes.close();
+
+    if (dispatcher != null) {
+      dispatcher.stop();
+    }
+
     closed = true;
   }
 
@@ -560,75 +1106,416 @@ public class PTP {
     tor.closeCircuits(destination);
   }
   
-  protected synchronized void sendIsAlive(Identifier destination, long timeout) {
-    connectionManager.send(new byte[0], destination, timeout, false);
+  protected void sendIsAlive(Identifier destination, long timeout) {
+    // IsAlive messages overtake waiting messages to keep the connection from expiring
+    connectionManager.send(new byte[0], destination, timeout, false, Priority.HIGH);
   }
 
   private class PTPReceiveListener implements ReceiveListener {
     @Override
-    public void messageReceived(byte[] data, Identifier source) {
-      synchronized (PTP.this) {
-        Object obj;
-        boolean isAliveMsg = data.length == 0;
-        try {
-          isAliveManager.messageReceived(source, isAliveMsg);
+    public void messageReceived(final byte[] data, final Identifier source) {
+      boolean isAliveMsg = data.length == 0;
+      isAliveManager.messageReceived(source, isAliveMsg);
+
+      if (isAliveMsg) {
+        return;
+      }
+
+      dispatcher.dispatch(source, new Runnable() {
+        @Override
+        public void run() {
+          boolean reported = false;
+
+          try {
+            reported = dispatchMessage(data, source);
+          } finally {
+            if (!reported) {
+              connectionManager.messageConsumed(source, data.length);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  private class PTPMessageQueueContainer extends MessageQueueContainer {
+    @Override
+    protected void messageConsumed(Identifier source, int length) {
+      connectionManager.messageConsumed(source, length);
+    }
+  }
+
+  private class PTPStreamReassembler extends StreamReassembler {
+    private PTPStreamReassembler(Configuration config) {
+      super(config);
+    }
+
+    @Override
+    protected void messageConsumed(Identifier source, int length) {
+      connectionManager.messageConsumed(source, length);
+    }
+
+    @Override
+    protected void streamExpired(final Identifier source, final long stream) {
+      dispatcher.dispatch(source, new Runnable() {
+        @Override
+        public void run() {
+          StreamListener listener = streamListener;
+
+          if (listener != null) {
+            listener.streamAborted(source, stream);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Deserializes a received message and passes it to the listeners and queues.
+   * Called by the threads of the dispatcher.
+   *
+   * @return True if the consumption of the message is reported by the MessageQueueContainer
+   *         or the StreamReassembler.
+   */
+  private boolean dispatchMessage(byte[] data, Identifier source) {
+    Object obj;
+
+    try {
+      obj = serializer.deserialize(data);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Error occurred while deserializing data: " + e.getMessage());
+      return false;
+    }
+
+    if (obj instanceof ByteArrayMessage) {
+      ByteArrayMessage message = (ByteArrayMessage) obj;
+      ReceiveListener listener = receiveListener;
+
+      if (listener != null) {
+        listener.messageReceived(message.getData(), source);
+      }
 
-          if (isAliveMsg) {
+      if (queueMessages) {
+        messageTypes.addMessageToQueue(message.getData(), source, System.currentTimeMillis(),
+            data.length);
+        return true;
+      }
+
+      if (listener == null) {
+        logger.log(Level.WARNING,
+            "Dropping received message because no receive listener ist set.");
+      }
+    } else if (obj instanceof StreamChunk) {
+      // Chunks are reported as consumed once they leave the reassembler
+      streamReassembler.add(source, (StreamChunk) obj, data.length, streamListener);
+      return true;
+    } else if (messageTypes.dispatch(obj, source, System.currentTimeMillis(), data.length)) {
+      return true;
+    } else {
+      logger.log(Level.WARNING,
+          "Received message of unregistered type with length " + data.length);
+    }
+
+    return false;
+  }
+
+  /**
+   * Informs the IsAliveManager about sent messages before the result is handled.
+   * Results arrive on the thread of the ConnectionManager.
+   */
+  private abstract class AbstractSendListener implements SendListener {
+    @Override
+    public final void messageSent(long id, Identifier destination, State state) {
+      // PTP doesn't allow to send messages before initialization is finished
+      if (!initialized) {
+        throw new IllegalStateException();
+      }
+
+      if (state == State.SUCCESS) {
+        isAliveManager.messageSent(destination);
+      }
+
+      handleResult(id, destination, state);
+    }
+
+    protected abstract void handleResult(long id, Identifier destination, State state);
+  }
+
+  private class PTPSendListener extends AbstractSendListener {
+    @Override
+    protected void handleResult(final long id, final Identifier destination,
+        final State state) {
+      final SendListener listener = sendListener;
+
+      dispatcher.dispatch(destination, new Runnable() {
+        @Override
+        public void run() {
+          listener.messageSent(id, destination, state);
+        }
+      });
+    }
+  }
+
+  /**
+   * Collects the results of the messages of a batch on the thread of the ConnectionManager.
+   */
+  private class Batch extends AbstractSendListener {
+    private final BatchSendListener listener;
+    private final Identifier dispatchKey;
+    private final long[] ids;
+    private final Identifier[] destinations;
+    private final State[] states;
+    private int count = 0;
+
+    private Batch(BatchSendListener listener, int size, Identifier dispatchKey) {
+      this.listener = listener;
+      this.dispatchKey = dispatchKey;
+      this.ids = new long[size];
+      this.destinations = new Identifier[size];
+      this.states = new State[size];
+    }
+
+    @Override
+    protected void handleResult(long id, Identifier destination, State state) {
+      ids[count] = id;
+      destinations[count] = destination;
+      states[count] = state;
+      count++;
+
+      if (count < ids.length) {
+        return;
+      }
+
+      dispatcher.dispatch(dispatchKey, new Runnable() {
+        @Override
+        public void run() {
+          listener.messagesSent(ids, destinations, states);
+        }
+      });
+    }
+  }
+
+  /**
+   * Completes a future with the result of a single message.
+   * The attempt carries the listener, no lookup of the message id is necessary.
+   */
+  private class FutureSendListener extends AbstractSendListener {
+    private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+
+    @Override
+    protected void handleResult(long id, Identifier destination, State state) {
+      final SendResult result = new SendResult(id, destination, state);
+
+      // Keep dependent actions off the thread of the ConnectionManager
+      dispatcher.dispatch(destination, new Runnable() {
+        @Override
+        public void run() {
+          future.complete(result);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads a stream and sends it in chunks. Reading the next chunk is triggered by
+   * the result of a previous chunk to keep the number of chunks in flight bounded.
+   * Runs on the threads of the stream executor, one at a time. Results arrive on the thread
+   * of the ConnectionManager, the future is completed on the thread of the dispatcher.
+   */
+  private class StreamSender extends AbstractSendListener implements Runnable {
+    /** The maximum number of chunks which are sent at the same time. */
+    private static final int window = 4;
+
+    private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+    private final long stream;
+    private final InputStream input;
+    private final Identifier destination;
+    private final long timeout;
+    private final int chunkSize;
+    /** Only accessed by the thread running the sender. */
+    private long offset = 0;
+    private long sequence = 0;
+    private boolean completed = false;
+    private int inFlight = 0;
+    private boolean lastSent = false;
+    private boolean readFailed = false;
+    private SendResult result = null;
+    /** True while the sender is submitted to the stream executor. */
+    private boolean running = false;
+    /** True if the sender has to run again to handle further results. */
+    private boolean rerun = false;
+
+    private StreamSender(long stream, InputStream input, Identifier destination, long timeout,
+        int chunkSize) {
+      this.stream = stream;
+      this.input = input;
+      this.destination = destination;
+      this.timeout = timeout;
+      this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs the sender on the stream executor unless it's already running.
+     */
+    private void schedule() {
+      synchronized (this) {
+        if (running) {
+          rerun = true;
+          return;
+        }
+
+        running = true;
+      }
+
+      try {
+        streamExecutor.execute(this);
+      } catch (RejectedExecutionException e) {
+        logger.log(Level.INFO, "Discarding stream " + stream + " because PTP has been stopped");
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        step();
+
+        synchronized (this) {
+          if (!rerun) {
+            running = false;
             return;
           }
 
-          obj = serializer.deserialize(data);
+          rerun = false;
+        }
+      }
+    }
 
-          if (obj instanceof ByteArrayMessage) {
-            ByteArrayMessage message = (ByteArrayMessage) obj;
+    private void step() {
+      SendResult finished;
 
-            if (receiveListener != null) {
-              receiveListener.messageReceived(message.getData(), source);
-            }
+      synchronized (this) {
+        finished = result;
+      }
 
-            if (queueMessages) {
-              messageTypes.addMessageToQueue(message.getData(), source, System.currentTimeMillis());
-            }
+      if (finished == null) {
+        sendChunks();
+      } else if (!completed) {
+        completed = true;
 
-            if (receiveListener == null && !queueMessages) {
-              logger.log(Level.WARNING,
-                  "Dropping received message because no receive listener ist set.");
-            }
+        if (!finished.isSuccess()) {
+          sendAbort();
+        }
+
+        close();
+        complete(finished, null);
+      }
+    }
+
+    /**
+     * Completes the future on the thread of the dispatcher.
+     */
+    private void complete(final SendResult finished, final IOException exception) {
+      dispatcher.dispatch(destination, new Runnable() {
+        @Override
+        public void run() {
+          if (exception != null) {
+            future.completeExceptionally(exception);
           } else {
-            if (messageTypes.hasListener(obj)) {
-              messageTypes.callReceiveListener(obj, source);
-            }
-            if (messageTypes.hasQueue(obj)) {
-              messageTypes.addMessageToQueue(obj, source, System.currentTimeMillis());
-            }
+            future.complete(finished);
+          }
+        }
+      });
+    }
 
-            if (!messageTypes.hasListener(obj) && !messageTypes.hasQueue(obj)) {
-              logger.log(Level.WARNING,
-                  "Received message of unregistered type with length " + data.length);
-            }
+    private void sendChunks() {
+      while (true) {
+        synchronized (this) {
+          if (result != null || readFailed || lastSent || inFlight >= window) {
+            return;
           }
+        }
+
+        byte[] data;
+        boolean last;
+
+        try {
+          byte[] buffer = new byte[chunkSize];
+          int length = 0;
+          int read = 0;
+
+          while (length < chunkSize
+              && (read = input.read(buffer, length, chunkSize - length)) != -1) {
+            length += read;
+          }
+
+          last = read == -1;
+          data = length == chunkSize ? buffer : Arrays.copyOf(buffer, length);
         } catch (IOException e) {
-          logger.log(Level.WARNING, "Error occurred while deserializing data: " + e.getMessage());
+          logger.log(Level.WARNING, "Failed to read stream " + stream + ": " + e.getMessage());
+
+          synchronized (this) {
+            readFailed = true;
+          }
+
+          sendAbort();
+          close();
+          complete(null, e);
+          return;
         }
+
+        synchronized (this) {
+          inFlight++;
+          lastSent = last;
+        }
+
+        sendChunk(new StreamChunk(stream, sequence, offset, data, last, false), timeout, this);
+        offset += data.length;
+        sequence++;
+      }
+    }
+
+    /**
+     * Lets the receiver know the stream won't be complete. Uses the IsAlive timeout instead of
+     * the timeout of the stream, the chunk which just timed out would leave the abort no time.
+     */
+    private void sendAbort() {
+      sendChunk(new StreamChunk(stream, sequence, offset, new byte[0], true, true),
+          config.getIsAliveTimeout(), new SendListenerAdapter());
+    }
+
+    private void sendChunk(StreamChunk chunk, long chunkTimeout, SendListener listener) {
+      // Keeps the chunks on one connection if several are open. The receiver
+      // reorders chunks which are resent on another connection.
+      connectionManager.sendOrdered(serializer.serialize(chunk), destination, chunkTimeout,
+          Long.valueOf(stream), Priority.LOW, listener);
+    }
+
+    private void close() {
+      try {
+        input.close();
+      } catch (IOException e) {
+        logger.log(Level.INFO, "Failed to close stream " + stream + ": " + e.getMessage());
       }
     }
-  }
 
-  private class PTPSendListener implements SendListener {
     @Override
-    public void messageSent(long id, Identifier destination, State state) {
-      synchronized (PTP.this) {
-        // PTP doesn't allow to send messages before initialization is finished
-        if (!initialized) {
-          throw new IllegalStateException();
-        }
+    protected void handleResult(long id, Identifier destination, State state) {
+      synchronized (this) {
+        inFlight--;
 
-        if (state == State.SUCCESS) {
-          isAliveManager.messageSent(destination);
+        if (result != null || readFailed) {
+          return;
         }
 
-        sendListener.messageSent(id, destination, state);
+        if (state != State.SUCCESS) {
+          result = new SendResult(stream, destination, state);
+        } else if (lastSent && inFlight == 0) {
+          result = new SendResult(stream, destination, State.SUCCESS);
+        }
       }
+
+      // Send further chunks or complete the future
+      schedule();
     }
   }
 
@@ -0,0 +1,16 @@
+package edu.kit.tm.ptp;
+
+/**
+ * The priority of a message. Messages of a higher priority are sent ahead of waiting
+ * messages of a lower priority. A message which is partially written isn't interrupted.
+ *
+ * @author Timon Hackenjos
+ */
+public enum Priority {
+  /** Control messages like IsAlive messages. */
+  HIGH,
+  /** The default priority of messages. */
+  NORMAL,
+  /** Bulk data like the chunks of streams. */
+  LOW
+}
@@ -12,6 +12,8 @@ public final class QueuedMessage<T> {
   private Identifier source = null;
   private T data = null;
   private long receiveTime = -1;
+  /** The length of the received message in bytes. */
+  private int length = 0;
 
   protected QueuedMessage(Identifier source, T data) {
     this.source = source;
@@ -22,6 +24,11 @@ public final class QueuedMessage<T> {
     this(source, data);
     this.receiveTime = receiveTime;
   }
+
+  protected QueuedMessage(Identifier source, T data, long receiveTime, int length) {
+    this(source, data, receiveTime);
+    this.length = length;
+  }
   
   public QueuedMessage() {    
   }
@@ -37,4 +44,8 @@ public final class QueuedMessage<T> {
   public long getReceiveTime() {
     return receiveTime;
   }
+
+  int getLength() {
+    return length;
+  }
 }
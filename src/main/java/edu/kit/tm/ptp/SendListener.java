@@ -18,6 +18,7 @@ public interface SendListener {
    * <li>{@link #SUCCESS}</li>
    * <li>{@link #TIMEOUT}</li>
    * <li>{@link #INVALID_DESTINATION}</li>
+   * <li>{@link #QUEUE_FULL}</li>
    *
    * @author Simeon Andreev
    * @author Timon Hackenjos
@@ -29,7 +30,9 @@ public interface SendListener {
     /** The attempt to send the message timed out. */
     TIMEOUT, 
     /** The destination is invalid. */
-    INVALID_DESTINATION
+    INVALID_DESTINATION,
+    /** The message has been rejected because too many bytes are waiting to be sent. */
+    QUEUE_FULL
   }
 
   /**
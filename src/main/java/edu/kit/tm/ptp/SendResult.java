@@ -0,0 +1,50 @@
+package edu.kit.tm.ptp;
+
+/**
+ * The result of an attempt to send a message.
+ *
+ * @author Timon Hackenjos
+ * @see PTP#sendMessageAsync(Object, Identifier)
+ */
+public class SendResult {
+  private final long id;
+  private final Identifier destination;
+  private final SendListener.State state;
+
+  /**
+   * Constructs a new SendResult.
+   *
+   * @param id The id of the message.
+   * @param destination The destination of the message.
+   * @param state If the sending succeeded and why.
+   */
+  public SendResult(long id, Identifier destination, SendListener.State state) {
+    this.id = id;
+    this.destination = destination;
+    this.state = state;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Identifier getDestination() {
+    return destination;
+  }
+
+  public SendListener.State getState() {
+    return state;
+  }
+
+  /**
+   * Returns true if the message has been sent successfully.
+   */
+  public boolean isSuccess() {
+    return state == SendListener.State.SUCCESS;
+  }
+
+  @Override
+  public String toString() {
+    return "SendResult [id=" + id + ", destination=" + destination + ", state=" + state + "]";
+  }
+}
@@ -0,0 +1,31 @@
+package edu.kit.tm.ptp;
+
+/**
+ * Interface for subscribers to received streams.
+ * The chunks of a stream are passed to the listener in the order they have been sent.
+ *
+ * @author Timon Hackenjos
+ */
+public interface StreamListener {
+  /**
+   * Indicates that a chunk of a stream was received.
+   *
+   * @param source The hidden service identifier of the source of the stream.
+   * @param stream The id the source assigned to the stream.
+   * @param offset The position of the chunk in the stream. Allows to detect chunks which
+   *        couldn't be sent.
+   * @param data The bytes of the chunk.
+   * @param last True if the stream ends with the chunk.
+   */
+  void chunkReceived(Identifier source, long stream, long offset, byte[] data, boolean last);
+
+  /**
+   * Indicates that the source stopped sending the stream before its end. Also called if no
+   * chunk of the stream arrived for {@link Configuration#getStreamIdleTimeout()} or too many
+   * of its chunks arrived out of order.
+   *
+   * @param source The hidden service identifier of the source of the stream.
+   * @param stream The id the source assigned to the stream.
+   */
+  void streamAborted(Identifier source, long stream);
+}
@@ -0,0 +1,342 @@
+package edu.kit.tm.ptp;
+
+import edu.kit.tm.ptp.connection.ExpireListener;
+import edu.kit.tm.ptp.connection.ITimerManager;
+import edu.kit.tm.ptp.serialization.StreamChunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Puts the received chunks of streams back into the order they have been sent in.
+ * Chunks can overtake each other if the connection they were sent on is closed
+ * and they are resent on another connection.
+ *
+ * <p>The bytes of chunks waiting for their predecessors are limited per stream and per source.
+ * A stream exceeding a limit or without new chunks for the idle timeout is aborted and its
+ * waiting chunks are dropped. The ids of finished and aborted streams are remembered for the
+ * idle timeout to drop chunks which arrive late. A chunk is reported as consumed once it has
+ * been passed to the StreamListener or dropped.
+ *
+ * @author Timon Hackenjos
+ */
+public class StreamReassembler implements ExpireListener {
+  private static final int TIMERCLASS = 0;
+  /** The maximum number of finished streams remembered per source. */
+  private static final int finishedLimit = 1024;
+  private static final Logger logger = Logger.getLogger(StreamReassembler.class.getName());
+
+  private final int streamLimit;
+  private final int sourceLimit;
+  private final int idleTimeout;
+  private final ITimerManager timerManager;
+  /** Received streams by source. */
+  private final Map<Identifier, Source> sources = new HashMap<>();
+
+  private static class Source {
+    /** Streams by id, the least recently active first. */
+    private final Map<Long, PendingStream> streams = new LinkedHashMap<>(16, 0.75f, true);
+    /** The time in milliseconds finished streams ended at by id, the oldest first. */
+    @SuppressWarnings("serial")
+    private final Map<Long, Long> finished = new LinkedHashMap<Long, Long>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+        return size() > finishedLimit;
+      }
+    };
+    /** Bytes of the waiting chunks of all streams. */
+    private long buffered = 0;
+  }
+
+  private static class PendingStream {
+    /** The sequence number of the next chunk to pass on. */
+    private long next = 0;
+    /** Chunks which arrived before their predecessors. */
+    private final TreeMap<Long, ReceivedChunk> waiting = new TreeMap<>();
+    /** Bytes of the waiting chunks. */
+    private long buffered = 0;
+    private long lastActivity;
+  }
+
+  /**
+   * A chunk and the length of the message it has been received in.
+   */
+  private static class ReceivedChunk {
+    private final StreamChunk chunk;
+    private final int length;
+
+    private ReceivedChunk(StreamChunk chunk, int length) {
+      this.chunk = chunk;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Constructs a new StreamReassembler using the stream limits and the timer settings of the
+   * configuration.
+   */
+  public StreamReassembler(Configuration config) {
+    streamLimit = config.getStreamBufferLimit();
+    sourceLimit = config.getStreamBufferLimitPerSource();
+    idleTimeout = config.getStreamIdleTimeout();
+    timerManager = config.getTimerImplementation()
+        .create(this, config.getTimerUpdateInterval(), null);
+  }
+
+  public void start() {
+    timerManager.start();
+  }
+
+  /**
+   * Stops expiring streams and drops all waiting chunks.
+   */
+  public void stop() {
+    timerManager.stop();
+
+    synchronized (this) {
+      sources.clear();
+    }
+  }
+
+  /**
+   * Adds a received chunk and passes the chunks which are ready to the listener in the order
+   * they have been sent. An abort chunk is always passed on immediately after the chunks which
+   * were sent before it and arrived, possibly leaving gaps.
+   * Has to be called by the thread responsible for the source.
+   *
+   * @param source The source of the chunk.
+   * @param chunk The received chunk.
+   * @param length The length of the message the chunk has been received in.
+   * @param listener The listener to pass the chunks to or null to drop them.
+   */
+  public void add(Identifier source, StreamChunk chunk, int length, StreamListener listener) {
+    List<ReceivedChunk> ready = new ArrayList<>();
+    List<ReceivedChunk> dropped = new ArrayList<>();
+
+    synchronized (this) {
+      add(source, new ReceivedChunk(chunk, length), ready, dropped);
+    }
+
+    for (ReceivedChunk received : dropped) {
+      messageConsumed(source, received.length);
+    }
+
+    int passed = 0;
+
+    try {
+      for (ReceivedChunk received : ready) {
+        StreamChunk next = received.chunk;
+
+        if (listener == null) {
+          logger.log(Level.WARNING,
+              "Dropping received chunk because no stream listener is set.");
+        } else if (next.isAborted()) {
+          listener.streamAborted(source, next.getStream());
+        } else {
+          listener.chunkReceived(source, next.getStream(), next.getOffset(), next.getData(),
+              next.isLast());
+        }
+
+        passed++;
+        messageConsumed(source, received.length);
+      }
+    } finally {
+      // Don't hold back the source if the listener failed
+      for (int i = passed; i < ready.size(); i++) {
+        messageConsumed(source, ready.get(i).length);
+      }
+    }
+  }
+
+  private void add(Identifier source, ReceivedChunk received, List<ReceivedChunk> ready,
+      List<ReceivedChunk> dropped) {
+    StreamChunk chunk = received.chunk;
+    long now = System.currentTimeMillis();
+    Source state = sources.get(source);
+
+    if (state == null) {
+      state = new Source();
+      sources.put(source, state);
+      timerManager.setTimerIfNoneExists(source, idleTimeout, TIMERCLASS);
+    }
+
+    if (state.finished.containsKey(chunk.getStream())) {
+      // A late chunk of a stream which has already been passed on completely
+      dropped.add(received);
+      return;
+    }
+
+    PendingStream stream = state.streams.get(chunk.getStream());
+
+    if (stream == null) {
+      stream = new PendingStream();
+      state.streams.put(chunk.getStream(), stream);
+    }
+
+    stream.lastActivity = now;
+
+    if (chunk.isAborted()) {
+      // Chunks which haven't arrived yet won't be sent any more
+      ready.addAll(stream.waiting.headMap(chunk.getSequence()).values());
+      dropped.addAll(stream.waiting.tailMap(chunk.getSequence()).values());
+      ready.add(received);
+      finish(state, chunk.getStream(), stream, now);
+    } else if (chunk.getSequence() < stream.next
+        || stream.waiting.containsKey(chunk.getSequence())) {
+      // A chunk which has been resent after it arrived
+      dropped.add(received);
+    } else if (chunk.getSequence() == stream.next) {
+      ready.add(received);
+      stream.next++;
+
+      while (!chunk.isLast() && !stream.waiting.isEmpty()
+          && stream.waiting.firstKey() == stream.next) {
+        ReceivedChunk first = stream.waiting.pollFirstEntry().getValue();
+        stream.buffered -= first.length;
+        state.buffered -= first.length;
+        ready.add(first);
+        stream.next++;
+        chunk = first.chunk;
+      }
+
+      if (chunk.isLast()) {
+        finish(state, chunk.getStream(), stream, now);
+        dropped.addAll(stream.waiting.values());
+      }
+    } else if ((streamLimit != -1 && stream.buffered + received.length > streamLimit)
+        || (sourceLimit != -1 && state.buffered + received.length > sourceLimit)) {
+      logger.log(Level.WARNING, "Aborting stream " + chunk.getStream() + " from " + source
+          + " because too many of its chunks arrived out of order");
+      dropped.addAll(stream.waiting.values());
+      dropped.add(received);
+      ready.add(new ReceivedChunk(abort(chunk.getStream()), 0));
+      finish(state, chunk.getStream(), stream, now);
+    } else {
+      stream.waiting.put(chunk.getSequence(), received);
+      stream.buffered += received.length;
+      state.buffered += received.length;
+    }
+  }
+
+  /**
+   * Forgets a stream and remembers its id to drop late chunks.
+   */
+  private void finish(Source state, long id, PendingStream stream, long now) {
+    state.streams.remove(id);
+    state.buffered -= stream.buffered;
+    state.finished.put(id, now);
+  }
+
+  private static StreamChunk abort(long stream) {
+    return new StreamChunk(stream, -1, -1, new byte[0], true, true);
+  }
+
+  @Override
+  public void expired(Identifier identifier, int timerClass) {
+    expire(identifier, System.currentTimeMillis());
+  }
+
+  /**
+   * Aborts the streams of the source without new chunks for the idle timeout and forgets
+   * the ids of streams which finished before it.
+   *
+   * @param source The source whose streams to check.
+   * @param now The current time in milliseconds.
+   */
+  void expire(Identifier source, long now) {
+    List<Long> aborted = new ArrayList<>();
+    List<ReceivedChunk> dropped = new ArrayList<>();
+
+    synchronized (this) {
+      Source state = sources.get(source);
+
+      if (state == null) {
+        return;
+      }
+
+      long next = -1;
+      Iterator<Map.Entry<Long, PendingStream>> streams = state.streams.entrySet().iterator();
+
+      while (streams.hasNext()) {
+        Map.Entry<Long, PendingStream> entry = streams.next();
+        PendingStream stream = entry.getValue();
+
+        if (stream.lastActivity + idleTimeout > now) {
+          next = stream.lastActivity + idleTimeout;
+          break;
+        }
+
+        streams.remove();
+        state.buffered -= stream.buffered;
+        state.finished.put(entry.getKey(), now);
+        dropped.addAll(stream.waiting.values());
+        aborted.add(entry.getKey());
+      }
+
+      Iterator<Long> finished = state.finished.values().iterator();
+
+      while (finished.hasNext()) {
+        long end = finished.next() + idleTimeout;
+
+        if (end > now) {
+          next = next == -1 ? end : Math.min(next, end);
+          break;
+        }
+
+        finished.remove();
+      }
+
+      if (next == -1) {
+        sources.remove(source);
+      } else {
+        timerManager.setTimer(source, (int) Math.max(1, next - now), TIMERCLASS);
+      }
+    }
+
+    for (ReceivedChunk received : dropped) {
+      messageConsumed(source, received.length);
+    }
+
+    for (long stream : aborted) {
+      logger.log(Level.INFO, "Aborting idle stream " + stream + " from " + source);
+      streamExpired(source, stream);
+    }
+  }
+
+  /**
+   * Returns the bytes of the chunks from the source which wait for their predecessors.
+   */
+  synchronized long getBuffered(Identifier source) {
+    Source state = sources.get(source);
+
+    return state == null ? 0 : state.buffered;
+  }
+
+  /**
+   * Called once a received chunk has been passed to the StreamListener or dropped.
+   *
+   * @param source The source of the chunk.
+   * @param length The length of the message the chunk has been received in.
+   */
+  protected void messageConsumed(Identifier source, int length) {
+
+  }
+
+  /**
+   * Called by the thread of the timer manager after an idle stream has been aborted.
+   * The StreamListener should be informed on the thread responsible for the source.
+   *
+   * @param source The source of the stream.
+   * @param stream The id the source assigned to the stream.
+   */
+  protected void streamExpired(Identifier source, long stream) {
+
+  }
+}
@@ -0,0 +1,216 @@
+package edu.kit.tm.ptp.auth;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the results of authentications. Public keys which have been seen before are mapped
+ * to their decoded form and their hidden service identifier to skip decoding and hashing
+ * them again. If resumption tickets are enabled a peer which authenticated itself successfully
+ * receives a random ticket which allows it to authenticate a single further connection
+ * without a signature. Entries expire after a timeout and the number of entries is bounded.
+ *
+ * @author Timon Hackenjos
+ */
+public class AuthenticationCache {
+  private static final int TICKET_LENGTH = 16;
+  /** How long decoded public keys are kept in ms. */
+  private static final long KEY_TIMEOUT = 10 * 60 * 1000;
+  private static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * A decoded public key and the hidden service identifier calculated from it.
+   */
+  public static final class VerifiedKey {
+    private final PublicKey publicKey;
+    private final Identifier identifier;
+
+    private VerifiedKey(PublicKey publicKey, Identifier identifier) {
+      this.publicKey = publicKey;
+      this.identifier = identifier;
+    }
+
+    public PublicKey getPublicKey() {
+      return publicKey;
+    }
+
+    public Identifier getIdentifier() {
+      return identifier;
+    }
+  }
+
+  /** The local and the remote end of an authentication. */
+  private static final class Peers {
+    private final Identifier own;
+    private final Identifier other;
+
+    private Peers(Identifier own, Identifier other) {
+      this.own = own;
+      this.other = other;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Peers)) {
+        return false;
+      }
+
+      Peers peers = (Peers) obj;
+      return own.equals(peers.own) && other.equals(peers.other);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * own.hashCode() + other.hashCode();
+    }
+  }
+
+  /** A cached value and the time it expires at. */
+  private static final class Timed<V> {
+    private final V value;
+    private final long expires;
+
+    private Timed(V value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  /** A map dropping expired entries and the least recently used entry if it's full. */
+  private static final class ExpiringMap<K, V> {
+    private final LinkedHashMap<K, Timed<V>> map;
+
+    @SuppressWarnings("serial")
+    private ExpiringMap(final int capacity) {
+      map = new LinkedHashMap<K, Timed<V>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    private void put(K key, V value, long timeout) {
+      map.put(key, new Timed<V>(value, System.currentTimeMillis() + timeout));
+    }
+
+    private V get(K key, boolean remove) {
+      Timed<V> entry = remove ? map.remove(key) : map.get(key);
+
+      if (entry == null) {
+        return null;
+      }
+
+      if (entry.expires <= System.currentTimeMillis()) {
+        map.remove(key);
+        return null;
+      }
+
+      return entry.value;
+    }
+  }
+
+  private final long ticketLifetime;
+  private final SecureRandom random = new SecureRandom();
+  private final ExpiringMap<ByteBuffer, VerifiedKey> keys;
+  /** Tickets issued to peers. */
+  private final ExpiringMap<ByteBuffer, Peers> issuedTickets;
+  /** Tickets received from destinations. */
+  private final ExpiringMap<Peers, byte[]> receivedTickets;
+
+  /**
+   * Constructs a new AuthenticationCache.
+   *
+   * @param ticketLifetime How long resumption tickets are valid in ms, 0 disables them.
+   */
+  public AuthenticationCache(long ticketLifetime) {
+    this(ticketLifetime, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a new AuthenticationCache.
+   *
+   * @param ticketLifetime How long resumption tickets are valid in ms, 0 disables them.
+   * @param capacity The maximum number of public keys and tickets of each kind to keep.
+   */
+  public AuthenticationCache(long ticketLifetime, int capacity) {
+    if (ticketLifetime < 0 || capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.ticketLifetime = ticketLifetime;
+    this.keys = new ExpiringMap<>(capacity);
+    this.issuedTickets = new ExpiringMap<>(capacity);
+    this.receivedTickets = new ExpiringMap<>(capacity);
+  }
+
+  /**
+   * Returns true if resumption tickets are enabled.
+   */
+  public boolean ticketsEnabled() {
+    return ticketLifetime > 0;
+  }
+
+  /**
+   * Returns the decoded form of an encoded public key or null if it isn't cached.
+   */
+  public synchronized VerifiedKey getKey(byte[] encoded) {
+    return keys.get(ByteBuffer.wrap(encoded), false);
+  }
+
+  /**
+   * Caches a decoded public key and the hidden service identifier calculated from it.
+   */
+  public synchronized VerifiedKey putKey(byte[] encoded, PublicKey publicKey,
+      Identifier identifier) {
+    VerifiedKey key = new VerifiedKey(publicKey, identifier);
+    keys.put(ByteBuffer.wrap(encoded.clone()), key, KEY_TIMEOUT);
+    return key;
+  }
+
+  /**
+   * Issues a ticket to a peer which has been authenticated.
+   *
+   * @param own The identifier of the local end.
+   * @param peer The identifier of the authenticated peer.
+   * @return The ticket to send to the peer.
+   */
+  public synchronized byte[] issueTicket(Identifier own, Identifier peer) {
+    byte[] ticket = new byte[TICKET_LENGTH];
+    random.nextBytes(ticket);
+    issuedTickets.put(ByteBuffer.wrap(ticket.clone()), new Peers(own, peer), ticketLifetime);
+    return ticket;
+  }
+
+  /**
+   * Checks a ticket presented by a peer. A ticket can only be used once.
+   *
+   * @param ticket The ticket presented by the peer.
+   * @param own The identifier of the local end.
+   * @param peer The identifier the peer claims.
+   * @return True if the ticket has been issued to the peer by the local end and is still valid.
+   */
+  public synchronized boolean redeemTicket(byte[] ticket, Identifier own, Identifier peer) {
+    Peers peers = issuedTickets.get(ByteBuffer.wrap(ticket), true);
+    return peers != null && peers.equals(new Peers(own, peer));
+  }
+
+  /**
+   * Keeps a ticket received from a destination for the next connection to it.
+   */
+  public synchronized void storeTicket(Identifier own, Identifier destination, byte[] ticket) {
+    receivedTickets.put(new Peers(own, destination), ticket, ticketLifetime);
+  }
+
+  /**
+   * Returns and removes the ticket received from a destination or null if there is none.
+   */
+  public synchronized byte[] takeTicket(Identifier own, Identifier destination) {
+    return receivedTickets.get(new Peers(own, destination), true);
+  }
+}
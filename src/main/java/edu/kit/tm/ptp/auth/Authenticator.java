@@ -12,8 +12,17 @@ import edu.kit.tm.ptp.channels.MessageChannel;
  */
 
 public abstract class Authenticator implements ChannelMessageListener {
+  /** Capability to receive compressed messages. */
+  public static final int COMPRESSION = 0x1;
+  /** Capability to authenticate using resumption tickets. */
+  public static final int RESUMPTION = 0x2;
+
   protected AuthenticationListener authListener;
   protected MessageChannel channel;
+  /** The capabilities of the local end. */
+  protected int ownCapabilities = 0;
+  /** The capabilities supported by both ends. */
+  protected int capabilities = 0;
 
   /**
    * Constructs a new Authenticator.
@@ -42,4 +51,20 @@ public abstract class Authenticator implements ChannelMessageListener {
    * @param other Expected identifier of the remote end.
    */
   public abstract void authenticate(Identifier own, Identifier other);
+
+  /**
+   * Sets the capabilities to announce to the remote end. Has to be called before the
+   * authentication is started.
+   */
+  public void setCapabilities(int capabilities) {
+    this.ownCapabilities = capabilities;
+  }
+
+  /**
+   * Returns the capabilities supported by both ends. Only valid after a successful
+   * authentication.
+   */
+  public int getCapabilities() {
+    return capabilities;
+  }
 }
@@ -6,12 +6,14 @@ import edu.kit.tm.ptp.serialization.Serializer;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Dummy implementation of an Authenticator. Just sends over the own Identifier and trusts the
- * Identifer presented by the remote end.
+ * Identifer presented by the remote end. Capabilities are sent in a CapabilityMessage after the
+ * AuthenticationMessage, which is ignored by peers without capabilities.
  * 
  * @author Timon Hackenjos
  *
@@ -45,6 +47,7 @@ public class DummyAuthenticator extends Authenticator {
       serializer = new Serializer();
       serializer.registerClass(Identifier.class);
       serializer.registerClass(AuthenticationMessage.class);
+      serializer.registerClass(CapabilityMessage.class);
     }
   }
 
@@ -60,6 +63,18 @@ public class DummyAuthenticator extends Authenticator {
     }
   }
 
+  public static class CapabilityMessage {
+    private int capabilities;
+
+    public CapabilityMessage() {
+      this.capabilities = 0;
+    }
+
+    public CapabilityMessage(int capabilities) {
+      this.capabilities = capabilities;
+    }
+  }
+
 
   @Override
   public void messageSent(long id, MessageChannel destination) {
@@ -76,8 +91,8 @@ public class DummyAuthenticator extends Authenticator {
   }
 
   @Override
-  @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "MessageChannel uses"
-            + "a new buffer for each message and doesn't change old buffers.")
+  @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "MessageChannel copies"
+            + " each message into a new array and doesn't change old arrays.")
   public void messageReceived(byte[] data, MessageChannel source) {
     if (!channel.equals(source)) {
       logger.log(Level.WARNING, "Received message from wrong channel");
@@ -94,12 +109,17 @@ public class DummyAuthenticator extends Authenticator {
 
   private void finishAuth() {
     try {
-      Object message = serializer.deserialize(response);
+      List<Object> messages = serializer.deserializeAll(response);
 
-      if (!(message instanceof AuthenticationMessage)) {
+      if (!(messages.get(0) instanceof AuthenticationMessage)) {
         authListener.authenticationFailed(channel);
       } else {
-        AuthenticationMessage authMessage = (AuthenticationMessage) message;
+        AuthenticationMessage authMessage = (AuthenticationMessage) messages.get(0);
+
+        if (messages.size() > 1 && messages.get(1) instanceof CapabilityMessage) {
+          capabilities = ownCapabilities & ((CapabilityMessage) messages.get(1)).capabilities;
+        }
+
         authListener.authenticationSuccess(channel, authMessage.source);
       }
     } catch (IOException e) {
@@ -112,7 +132,14 @@ public class DummyAuthenticator extends Authenticator {
   @Override
   public void authenticate(Identifier own) {
     AuthenticationMessage message = new AuthenticationMessage(own);
-    byte[] data = serializer.serialize(message);
+    byte[] data;
+
+    if (ownCapabilities == 0) {
+      data = serializer.serialize(message);
+    } else {
+      data = serializer.serializeAll(message, new CapabilityMessage(ownCapabilities));
+    }
+
     channel.addMessage(data, 0);
   }
 
@@ -15,6 +15,10 @@ import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,7 +26,14 @@ import java.util.logging.Logger;
  * Authenticator using an RSA signature. The initiator of the authentication sends an
  * AuthenticationMessage to the target. The target checks the validity of the AuthenticationMessage
  * and responds with a AUTHENTICATION_SUCCESS_MESSAGE in that case. Otherwise the channel will be
- * closed.
+ * closed. An initiator with capabilities appends an AuthenticationExtension to the
+ * AuthenticationMessage, which peers without capabilities ignore. Only then the target adds the
+ * capabilities supported by both ends to the AUTHENTICATION_SUCCESS_MESSAGE.
+ * If both ends support resumption the target adds a ticket to the AUTHENTICATION_SUCCESS_MESSAGE.
+ * The initiator may present the ticket instead of a signature once when connecting again.
+ * Decoded public keys and tickets are kept in an AuthenticationCache.
+ * Signing and verifying may be run by a worker executor. The authentication continues on the
+ * thread of the callback executor afterwards.
  * 
  * @author Timon Hackenjos
  *
@@ -36,6 +47,9 @@ public class PublicKeyAuthenticator extends Authenticator {
   private static final long TIMESTAMP_INTERVALL = 180 * 1000; // in ms
 
   private final CryptHelper cryptHelper;
+  private final AuthenticationCache cache;
+  private final Executor worker;
+  private final Executor callback;
   private static Serializer serializer = null;
   private boolean initiator;
   private boolean messageSent = false;
@@ -43,8 +57,44 @@ public class PublicKeyAuthenticator extends Authenticator {
 
   public PublicKeyAuthenticator(AuthenticationListener listener, MessageChannel channel,
       CryptHelper cryptHelper) {
+    this(listener, channel, cryptHelper, new AuthenticationCache(0));
+  }
+
+  /**
+   * Constructs a new PublicKeyAuthenticator.
+   *
+   * @param listener The listener to inform about the authentication.
+   * @param channel The channel to authenticate.
+   * @param cryptHelper The CryptHelper holding the own keys.
+   * @param cache The cache shared by the authenticators of a ConnectionManager.
+   */
+  public PublicKeyAuthenticator(AuthenticationListener listener, MessageChannel channel,
+      CryptHelper cryptHelper, AuthenticationCache cache) {
+    this(listener, channel, cryptHelper, cache, null, null);
+  }
+
+  /**
+   * Constructs a new PublicKeyAuthenticator which signs and verifies using a worker.
+   *
+   * @param listener The listener to inform about the authentication.
+   * @param channel The channel to authenticate.
+   * @param cryptHelper The CryptHelper holding the own keys.
+   * @param cache The cache shared by the authenticators of a ConnectionManager.
+   * @param worker The executor to sign and verify with or null to do it on the calling thread.
+   * @param callback The executor to continue the authentication with after the worker finished.
+   */
+  public PublicKeyAuthenticator(AuthenticationListener listener, MessageChannel channel,
+      CryptHelper cryptHelper, AuthenticationCache cache, Executor worker, Executor callback) {
     super(listener, channel);
+
+    if (worker != null && callback == null) {
+      throw new IllegalArgumentException();
+    }
+
     this.cryptHelper = cryptHelper;
+    this.cache = cache;
+    this.worker = worker;
+    this.callback = callback;
 
     initSerializer();
   }
@@ -55,6 +105,7 @@ public class PublicKeyAuthenticator extends Authenticator {
       serializer.registerClass(Identifier.class);
       serializer.registerClass(byte[].class);
       serializer.registerClass(AuthenticationMessage.class);
+      serializer.registerClass(AuthenticationExtension.class);
     }
   }
 
@@ -102,6 +153,34 @@ public class PublicKeyAuthenticator extends Authenticator {
     }
   }
 
+  /**
+   * Serialized after an AuthenticationMessage by initiators with capabilities.
+   * Kept apart from the AuthenticationMessage so peers without capabilities are still able
+   * to read it.
+   *
+   * @author Timon Hackenjos
+   *
+   */
+  public static class AuthenticationExtension {
+    /** The capabilities of the sender. */
+    public int capabilities;
+    /** A resumption ticket replacing the public key and the signature or null. */
+    public byte[] ticket;
+
+    public AuthenticationExtension() {
+      capabilities = 0;
+      ticket = null;
+    }
+
+    @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+        justification = "AuthenticationExtension is just a simple container."
+            + " Avoid to copy data several times.")
+    public AuthenticationExtension(int capabilities, byte[] ticket) {
+      this.capabilities = capabilities;
+      this.ticket = ticket;
+    }
+  }
+
   @Override
   public void messageSent(long id, MessageChannel destination) {
     assert id == 0;
@@ -124,7 +203,14 @@ public class PublicKeyAuthenticator extends Authenticator {
     assert channel.equals(source);
 
     if (initiator) {
-      if (data.length == 1 && data[0] == AUTHENTICATION_SUCCESS_MESSAGE) {
+      if (data.length >= 1 && data[0] == AUTHENTICATION_SUCCESS_MESSAGE) {
+        // The target only sends capabilities if we announced ours
+        capabilities = data.length > 1 ? ownCapabilities & data[1] : 0;
+
+        if ((capabilities & RESUMPTION) != 0 && data.length > 2) {
+          cache.storeTicket(own, other, Arrays.copyOfRange(data, 2, data.length));
+        }
+
         if (messageSent) {
           authSuccess();
         } else {
@@ -134,29 +220,85 @@ public class PublicKeyAuthenticator extends Authenticator {
         authFailed();
       }
     } else {
-      AuthenticationMessage authMessage;
+      List<Object> objects;
 
       // deserialize received message
       try {
-        authMessage = deserialize(data);
+        objects = serializer.deserializeAll(data);
       } catch (IOException e) {
         logger.log(Level.INFO, "Unable to deserialize received authentication message");
         authFailed();
         return;
       }
 
-      // check if the authentication message is valid
-      if (authMessage == null || !authenticationMessageValid(authMessage)) {
+      if (!(objects.get(0) instanceof AuthenticationMessage) || objects.size() > 2
+          || (objects.size() == 2 && !(objects.get(1) instanceof AuthenticationExtension))) {
+        logger.log(Level.INFO, "Received invalid message");
         authFailed();
         return;
       }
 
-      // now we know the identifier of the initiator
-      other = authMessage.source;
+      AuthenticationMessage authMessage = (AuthenticationMessage) objects.get(0);
+      // Initiators without capabilities don't send an extension
+      AuthenticationExtension extension =
+          objects.size() == 2 ? (AuthenticationExtension) objects.get(1) : null;
+
+      if (extension != null && extension.ticket != null) {
+        respond(authMessage, extension, ticketValid(authMessage, extension.ticket));
+      } else if (worker == null) {
+        respond(authMessage, extension, authenticationMessageValid(authMessage));
+      } else {
+        verifyConcurrently(authMessage, extension);
+      }
+    }
+  }
+
+  private void verifyConcurrently(final AuthenticationMessage authMessage,
+      final AuthenticationExtension extension) {
+    runOnWorker(new Runnable() {
+      @Override
+      public void run() {
+        final boolean valid = authenticationMessageValid(authMessage);
+
+        callback.execute(new Runnable() {
+          @Override
+          public void run() {
+            respond(authMessage, extension, valid);
+          }
+        });
+      }
+    });
+  }
+
+  private void respond(AuthenticationMessage authMessage, AuthenticationExtension extension,
+      boolean valid) {
+    // check if the authentication message is valid
+    if (!valid) {
+      authFailed();
+      return;
+    }
+
+    // now we know the identifier of the initiator
+    other = authMessage.source;
 
+    if (extension == null) {
       // respond with message to signal successfull authentication
       channel.addMessage(new byte[] {AUTHENTICATION_SUCCESS_MESSAGE}, 0);
+      return;
     }
+
+    capabilities = ownCapabilities & extension.capabilities;
+
+    // respond with message to signal successfull authentication
+    byte[] response = new byte[] {AUTHENTICATION_SUCCESS_MESSAGE, (byte) capabilities};
+
+    if ((capabilities & RESUMPTION) != 0) {
+      byte[] ticket = cache.issueTicket(own, other);
+      response = Arrays.copyOf(response, response.length + ticket.length);
+      System.arraycopy(ticket, 0, response, 2, ticket.length);
+    }
+
+    channel.addMessage(response, 0);
   }
 
   @Override
@@ -180,11 +322,50 @@ public class PublicKeyAuthenticator extends Authenticator {
     this.other = other;
     this.initiator = true;
 
+    // A ticket can only be used once, a failed attempt falls back to a signature
+    byte[] ticket = (ownCapabilities & RESUMPTION) != 0 ? cache.takeTicket(own, other) : null;
+
+    if (ticket != null) {
+      AuthenticationMessage message =
+          new AuthenticationMessage(own, other, null, System.currentTimeMillis(), null);
+      sendAuthMessage(message, new AuthenticationExtension(ownCapabilities, ticket));
+      return;
+    }
+
     // We initiated the authentication process and therefore send an authentication message
+    if (worker == null) {
+      sendAuthMessage(signAuthenticationMessage());
+    } else {
+      runOnWorker(new Runnable() {
+        @Override
+        public void run() {
+          final AuthenticationMessage message = signAuthenticationMessage();
+
+          callback.execute(new Runnable() {
+            @Override
+            public void run() {
+              sendAuthMessage(message);
+            }
+          });
+        }
+      });
+    }
+  }
+
+  private AuthenticationMessage signAuthenticationMessage() {
     try {
-      sendAuthMessage(createAuthenticationMessage());
+      return createAuthenticationMessage();
     } catch (GeneralSecurityException | UnsupportedEncodingException e) {
       logger.log(Level.WARNING, "Failed to sign authentication message");
+      return null;
+    }
+  }
+
+  private void runOnWorker(Runnable task) {
+    try {
+      worker.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.log(Level.INFO, "Authentication worker has been stopped");
       authFailed();
     }
   }
@@ -198,19 +379,51 @@ public class PublicKeyAuthenticator extends Authenticator {
   }
 
   private void sendAuthMessage(AuthenticationMessage message) {
-    byte[] data = serializer.serialize(message);
+    if (message == null) {
+      authFailed();
+      return;
+    }
+
+    if (ownCapabilities == 0) {
+      // Same message as sent by peers without capabilities
+      channel.addMessage(serializer.serialize(message), 0);
+    } else {
+      sendAuthMessage(message, new AuthenticationExtension(ownCapabilities, null));
+    }
+  }
+
+  private void sendAuthMessage(AuthenticationMessage message,
+      AuthenticationExtension extension) {
+    byte[] data = serializer.serializeAll(message, extension);
     channel.addMessage(data, 0);
   }
 
-  private AuthenticationMessage deserialize(byte[] data) throws IOException {
-    Object message = serializer.deserialize(data);
+  /**
+   * Checks if the resumption ticket of the authentication message has been issued
+   * to its source and is still valid.
+   *
+   * @param message The message to check.
+   * @param ticket The ticket sent along with the message.
+   * @return True if the ticket is valid.
+   */
+  protected boolean ticketValid(AuthenticationMessage message, byte[] ticket) {
+    if ((ownCapabilities & RESUMPTION) == 0) {
+      logger.log(Level.WARNING, "Received resumption ticket while resumption is disabled");
+      return false;
+    }
 
-    if (!(message instanceof AuthenticationMessage)) {
-      logger.log(Level.INFO, "Received invalid message");
-      return null;
-    } else {
-      return (AuthenticationMessage) message;
+    if (message.source == null || !own.equals(message.destination)
+        || (other != null && !other.equals(message.source))) {
+      logger.log(Level.WARNING, "Received resumption ticket with wrong identifiers");
+      return false;
     }
+
+    if (!cache.redeemTicket(ticket, own, message.source)) {
+      logger.log(Level.WARNING, "Received invalid or expired resumption ticket");
+      return false;
+    }
+
+    return true;
   }
 
   /**
@@ -257,16 +470,28 @@ public class PublicKeyAuthenticator extends Authenticator {
     }
 
     try {
-      PublicKey pubKey = cryptHelper.decodePublicKey(message.pubKey);
-      Identifier pubKeyIdentifier = cryptHelper.calculateHiddenServiceIdentifier(pubKey);
+      AuthenticationCache.VerifiedKey key = cache.getKey(message.pubKey);
+
+      if (key == null) {
+        PublicKey pubKey = cryptHelper.decodePublicKey(message.pubKey);
+        Identifier pubKeyIdentifier = cryptHelper.calculateHiddenServiceIdentifier(pubKey);
+
+        if (pubKeyIdentifier == null) {
+          logger.log(Level.WARNING, "Failed to calculate identifier of public key");
+          return false;
+        }
+
+        key = cache.putKey(message.pubKey, pubKey, pubKeyIdentifier);
+      }
 
-      if (pubKeyIdentifier == null || !message.source.equals(pubKeyIdentifier)) {
+      if (!message.source.equals(key.getIdentifier())) {
         logger.log(Level.WARNING,
             "Identifier and public key of authentication message do not match");
         return false;
       }
 
-      return cryptHelper.verifySignature(getBytes(message), message.signature, pubKey);
+      return cryptHelper.verifySignature(getBytes(message), message.signature,
+          key.getPublicKey());
 
     } catch (InvalidKeySpecException e) {
       logger.log(Level.WARNING, "Failed to read public key in authentication message");
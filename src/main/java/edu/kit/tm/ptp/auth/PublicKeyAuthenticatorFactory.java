@@ -14,6 +14,8 @@ public class PublicKeyAuthenticatorFactory extends AuthenticatorFactory {
   @Override
   public Authenticator createInstance(ConnectionManager manager, AuthenticationListener listener,
       MessageChannel channel) {
-    return new PublicKeyAuthenticator(listener, channel, manager.getCryptHelper());
+    return new PublicKeyAuthenticator(listener, channel, manager.getCryptHelper(),
+        manager.getAuthenticationCache(), manager.getAuthenticationExecutor(),
+        manager.getEventExecutor());
   }
 }
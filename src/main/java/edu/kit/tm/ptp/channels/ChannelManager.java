@@ -1,33 +1,36 @@
 package edu.kit.tm.ptp.channels;
 
+import edu.kit.tm.ptp.metrics.Metrics;
+
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Coordinates reading from and writing to several MessageChannels.
+ * The channels are distributed among a configurable number of selector threads.
+ * All operations of a channel are handled by the same thread.
  *
  * @see MessageChannel
  * @author Timon Hackenjos
  */
 
-public class ChannelManager implements Runnable {
+public class ChannelManager {
   private static final Logger logger = Logger.getLogger(ChannelManager.class.getName());
   private final ChannelListener listener;
-  private final Thread thread;
-  private final Queue<ChannelEvent> eventQueue = new ConcurrentLinkedQueue<>();
-
-  private Selector selector = null;
+  private final ReceiveBufferPool bufferPool = new ReceiveBufferPool();
+  private final Metrics metrics;
+  private final SelectorLoop[] loops;
+  private final SelectorAssignment assignment;
+  /** The loop each registered channel is assigned to. */
+  private final Map<SelectableChannel, SelectorLoop> assignments = new ConcurrentHashMap<>();
 
   /**
    * Initializes a new ChannelManager.
@@ -44,122 +47,69 @@ public class ChannelManager implements Runnable {
    * @param listener The ChannelListener to inform about changed channels and messages.
    */
   public ChannelManager(ChannelListener listener, ThreadGroup group) {
-    if (listener == null) {
-      throw new NullPointerException();
-    }
-
-    this.listener = listener;
-    thread = new Thread(group, this);
-    selector = null;
+    this(listener, group, 1, SelectorAssignment.HASH);
   }
 
   /**
-   * Starts a thread to handle reading an writing.
+   * Initializes a new ChannelManager.
+   *
+   * @param listener The ChannelListener to inform about changed channels and messages.
+   * @param group The ThreadGroup to start threads in or null.
+   * @param selectorThreads The number of threads to handle the channels.
+   * @param assignment The strategy to assign channels to threads.
    */
-  public void start() throws IOException {
-    selector = Selector.open();
-    thread.start();
+  public ChannelManager(ChannelListener listener, ThreadGroup group, int selectorThreads,
+      SelectorAssignment assignment) {
+    this(listener, group, selectorThreads, assignment, new Metrics());
   }
 
   /**
-   * Stops a previously started thread. Does nothing if the thread has been stopped before.
+   * Initializes a new ChannelManager.
+   *
+   * @param listener The ChannelListener to inform about changed channels and messages.
+   * @param group The ThreadGroup to start threads in or null.
+   * @param selectorThreads The number of threads to handle the channels.
+   * @param assignment The strategy to assign channels to threads.
+   * @param metrics The metrics to record to.
    */
-  public void stop() {
-    thread.interrupt();
-    try {
-      // Does nothing if thread isn't running
-      thread.join();
-    } catch (InterruptedException e) {
-      logger.log(Level.WARNING, "Failed to wait for thread to stop: " + e.getMessage());
+  public ChannelManager(ChannelListener listener, ThreadGroup group, int selectorThreads,
+      SelectorAssignment assignment, Metrics metrics) {
+    if (listener == null || assignment == null || metrics == null) {
+      throw new NullPointerException();
     }
 
-    try {
-      closeChannels();
-    } catch (IOException e) {
-      logger.log(Level.WARNING, "Failed to close selector: " + e.getMessage());
+    if (selectorThreads < 1) {
+      throw new IllegalArgumentException();
     }
-  }
-
-
-
-  @Override
-  public void run() {
-    int readyChannels = 0;
-    long timeout = 100;
-    ChannelEvent event;
 
-    while (!thread.isInterrupted()) {
-
-      while ((event = eventQueue.poll()) != null) {
-        event.process(selector);
-      }
-
-      try {
-        readyChannels = selector.select(timeout);
-      } catch (IOException e) {
-        logger.log(Level.WARNING, "Error occurred during selection operation: " + e.getMessage());
-        thread.interrupt();
-        continue;
-      }
-
-      if (readyChannels == 0) {
-        continue;
-      }
-
-      Set<SelectionKey> selectedKeys = selector.selectedKeys();
-      Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
-
-      while (keyIterator.hasNext()) {
-        SelectionKey key = keyIterator.next();
-
-        if (key.isValid() && key.isAcceptable()) {
-          ServerSocketChannel server = (ServerSocketChannel) key.attachment();
-          try {
-            SocketChannel client = server.accept();
-            client.configureBlocking(false);
-            MessageChannel channel = new MessageChannel(client, this);
-            listener.channelOpened(channel);
-          } catch (IOException e) {
-            logger.log(Level.WARNING,
-                "Caught exception while accepting connection: " + e.getMessage());
-          }
-
-        } else {
-          MessageChannel channel = (MessageChannel) key.attachment();
-
-          if (key.isValid() && key.isConnectable()) {
-            try {
-              // unregister channel
-              key.interestOps(0);
-
-              if (channel.getChannel().finishConnect()) {
-                listener.channelOpened(channel);
-              } else {
-                key.cancel();
-                listener.channelClosed(channel);
-              }
-            } catch (IOException ioe) {
-              logger.log(Level.WARNING,
-                  "Caught exception while handling connectable channel: " + ioe.getMessage());
-              key.cancel();
-              listener.channelClosed(channel);
-            }
-          }
-
-          if (key.isValid() && key.isReadable()) {
-            channel.read();
-          }
+    this.listener = listener;
+    this.assignment = assignment;
+    this.metrics = metrics;
+    this.loops = new SelectorLoop[selectorThreads];
 
-          if (key.isValid() && key.isWritable()) {
-            channel.write();
-          }
-        }
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new SelectorLoop(this, group);
+    }
+  }
 
-        keyIterator.remove();
-      }
+  /**
+   * Starts the threads to handle reading an writing.
+   */
+  public void start() throws IOException {
+    for (SelectorLoop loop : loops) {
+      loop.start();
+    }
+  }
 
+  /**
+   * Stops previously started threads. Does nothing if the threads have been stopped before.
+   */
+  public void stop() {
+    for (SelectorLoop loop : loops) {
+      loop.stop();
     }
 
+    assignments.clear();
   }
 
   /**
@@ -172,7 +122,7 @@ public class ChannelManager implements Runnable {
    */
   public void addServerSocket(ServerSocketChannel server) throws IOException {
     server.configureBlocking(false);
-    eventQueue.add(new ChannelEventRegister(SelectionKey.OP_ACCEPT, server, server));
+    assign(server).addEvent(new ChannelEventRegister(SelectionKey.OP_ACCEPT, server, server));
   }
 
   /**
@@ -186,26 +136,37 @@ public class ChannelManager implements Runnable {
    */
   public MessageChannel connect(SocketChannel socket) throws IOException {
     socket.configureBlocking(false);
+    // Don't delay small messages like IsAlive messages
+    socket.socket().setTcpNoDelay(true);
     MessageChannel channel = new MessageChannel(socket, this);
-    eventQueue.add(new ChannelEventRegister(SelectionKey.OP_CONNECT, socket, channel));
+    assign(socket).addEvent(new ChannelEventRegister(SelectionKey.OP_CONNECT, socket, channel));
     return channel;
   }
 
   /**
    * Adds MessageChannel to the manager. Reading and writing needs to be enabled separately.
+   * A MessageChannel wrapping an already added SocketChannel replaces the previous one.
    * 
    * @param channel The MessageChannel.
    * @throws ClosedChannelException If the channel is closed.
    */
   public void addChannel(MessageChannel channel) throws ClosedChannelException {
-    eventQueue.add(new ChannelEventRegister(0, channel.getChannel(), channel));
+    assign(channel.getChannel())
+        .addEvent(new ChannelEventRegister(0, channel.getChannel(), channel));
   }
 
   /**
    * Stops to read from and write messages to the supplied MessageChannel.
    */
   public void removeChannel(MessageChannel channel) {
-    eventQueue.add(new ChannelEventRemove(channel));
+    SelectorLoop loop = assignments.remove(channel.getChannel());
+
+    if (loop == null) {
+      return;
+    }
+
+    loop.getChannels().decrementAndGet();
+    loop.addEvent(new ChannelEventRemove(channel));
   }
 
   /**
@@ -215,6 +176,30 @@ public class ChannelManager implements Runnable {
     return listener;
   }
 
+  /**
+   * Records that a channel compressed a message.
+   *
+   * @param length The length of the message.
+   * @param compressedLength The length of the compressed message.
+   */
+  void messageCompressed(int length, int compressedLength) {
+    metrics.messageCompressed(length, compressedLength);
+  }
+
+  /**
+   * Returns the metrics the channels record to.
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the pool of buffers used by the channels to receive messages.
+   */
+  public ReceiveBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /**
    * Tells the ChannelManager if the supplied channel has data to write.
    */
@@ -230,30 +215,58 @@ public class ChannelManager implements Runnable {
   }
 
   private void setInterestOps(MessageChannel channel, boolean enable, int operation) {
-    eventQueue.add(new ChannelEventSetInterestOps(channel, enable, operation));
+    SelectorLoop loop = assignments.get(channel.getChannel());
+
+    if (loop == null) {
+      // Can happen for incoming connections
+      logger.log(Level.INFO, "Unregistered channel tries to register operation.");
+      return;
+    }
+
+    loop.addEvent(new ChannelEventSetInterestOps(channel, enable, operation));
   }
 
-  private void closeChannels() throws IOException {
-    if (selector != null) {
-      // Close all connections
-      for (SelectionKey key : selector.keys()) {
-        SelectableChannel channel = key.channel();
-        try {
-          if (channel instanceof SocketChannel) {
-            logger.log(Level.INFO, "Closing SocketChannel");
-            ((SocketChannel) channel).close();
-          }
+  /**
+   * Returns the loop the channel is assigned to. Assigns the channel to a loop
+   * if it isn't assigned yet.
+   */
+  private SelectorLoop assign(SelectableChannel channel) {
+    SelectorLoop loop = assignments.get(channel);
+
+    if (loop != null) {
+      return loop;
+    }
+
+    loop = choose(channel);
+    SelectorLoop previous = assignments.putIfAbsent(channel, loop);
+
+    if (previous != null) {
+      return previous;
+    }
+
+    loop.getChannels().incrementAndGet();
+    return loop;
+  }
+
+  private SelectorLoop choose(SelectableChannel channel) {
+    if (loops.length == 1) {
+      return loops[0];
+    }
+
+    switch (assignment) {
+      case LEAST_LOADED:
+        SelectorLoop least = loops[0];
 
-          if (channel instanceof ServerSocketChannel) {
-            logger.log(Level.INFO, "Closing ServerSocketChannel");
-            ((ServerSocketChannel) channel).close();
+        for (SelectorLoop loop : loops) {
+          if (loop.getChannels().get() < least.getChannels().get()) {
+            least = loop;
           }
-        } catch (IOException ioe) {
-          logger.log(Level.INFO, "Failed to close channel");
         }
-      }
 
-      selector.close();
+        return least;
+      case HASH:
+      default:
+        return loops[(System.identityHashCode(channel) & Integer.MAX_VALUE) % loops.length];
     }
   }
 }
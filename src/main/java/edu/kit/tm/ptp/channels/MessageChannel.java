@@ -1,45 +1,114 @@
 package edu.kit.tm.ptp.channels;
 
+import edu.kit.tm.ptp.Priority;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Reads and writes messages to a SocketChannel.
  * A message is always prepended by it's length.
+ * Messages to send are kept in a bounded queue per priority and several of them
+ * are written at once using a gathering write. Messages of a higher priority are
+ * written first, a partially written message is always completed before.
+ * If compression is enabled messages above a threshold are deflated. A compressed message is
+ * marked by a flag in it's length and starts with the length of the original message.
  *
  * @author Timon Hackenjos
  */
 
 public class MessageChannel {
 
+  /**
+   * LENGTH: Messages are read into a pooled buffer.
+   * DATA: A message too large for a pooled buffer is read into a dedicated buffer.
+   */
   private enum State {
-    IDLE, LENGTH, DATA, CLOSED
+    LENGTH, DATA, CLOSED
   }
 
-  private static final Logger logger = Logger.getLogger(MessageChannel.class.getName());
-  private static final int bufferLength = 1024;
-  private static final int maxBufferLength = 1024 * 1024 * 100; // 100MB
+  /**
+   * A message waiting to be written. Consists of the length of the message
+   * and the message itself.
+   */
+  private static final class Frame {
+    private final long id;
+    private final int lane;
+    private final ByteBuffer length;
+    private final ByteBuffer data;
+
+    private Frame(long id, int lane, byte[] data, boolean compressed) {
+      this.id = id;
+      this.lane = lane;
+      this.length = ByteBuffer.allocate(lenLength);
+      this.length.putInt(compressed ? data.length | compressedFlag : data.length);
+      this.length.flip();
+      this.data = ByteBuffer.wrap(data);
+    }
+
+    private boolean written() {
+      return !length.hasRemaining() && !data.hasRemaining();
+    }
 
-  private final ByteBuffer sendLengthBuffer;
-  private final ByteBuffer receiveLengthBuffer;
-  private final int lenLength = 4;
+    private boolean started() {
+      return length.position() > 0;
+    }
+  }
 
-  private ByteBuffer sendBuffer;
-  private ByteBuffer receiveBuffer;
+  private static final Logger logger = Logger.getLogger(MessageChannel.class.getName());
+  private static final int maxBufferLength = 1024 * 1024 * 100; // 100MB
+  private static final int lenLength = 4;
+  /** Bit of the length marking a compressed message. */
+  private static final int compressedFlag = 0x40000000;
+  /** The maximum number of messages of a priority waiting to be written. */
+  private static final int maxQueuedMessages = 64;
+  /** The maximum number of messages handed to a single gathering write. */
+  private static final int maxGatheredMessages = 16;
+
+  /** The messages waiting to be written, one queue per priority. */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final ArrayDeque<Frame>[] lanes = new ArrayDeque[Priority.values().length];
+  /** A message which has been written partially or null. */
+  private Frame partial = null;
+  private int queued = 0;
+  private final ByteBuffer[] writeBuffers = new ByteBuffer[2 * maxGatheredMessages];
+  private final Frame[] gathered = new Frame[maxGatheredMessages];
+
+  /** Pooled buffer holding incomplete messages, null if no data is buffered. */
+  private ByteBuffer receiveBuffer = null;
+  /** Dedicated buffer for a message which doesn't fit into a pooled buffer. */
+  private ByteBuffer largeBuffer = null;
   private State readState = State.LENGTH;
-  private State writeState = State.IDLE;
-  private int readLength;
-  private long currentId;
+  /** True if the message in the dedicated buffer is compressed. */
+  private boolean largeCompressed = false;
+  private boolean closed = false;
+  /** True if no further messages are accepted and the output is shut down once written. */
+  private boolean shutdown = false;
+  private boolean outputShut = false;
+  /** The ids of the messages which hadn't been written when the channel was closed. */
+  private Set<Long> unwritten = null;
+  /** Minimum length of messages to compress, -1 if compression is disabled. */
+  private int compressionThreshold = -1;
+  private Deflater deflater = null;
+  private Inflater inflater = null;
 
   protected final SocketChannel channel;
   protected final ChannelChangeListener changeListener;
   protected final ChannelMessageListener messageListener;
   protected final ChannelManager manager;
+  protected final ReceiveBufferPool bufferPool;
 
   /**
    * Initializes a new MessageChannel.
@@ -57,69 +126,69 @@ public class MessageChannel {
     this.manager = manager;
     this.changeListener = manager.getChannelListener();
     this.messageListener = manager.getChannelListener();
-    
-    // Initialize buffers
-    receiveBuffer = ByteBuffer.allocate(bufferLength);
-    sendLengthBuffer = ByteBuffer.allocate(lenLength);
-    receiveLengthBuffer = ByteBuffer.allocate(lenLength);
+    this.bufferPool = manager.getBufferPool();
+
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ArrayDeque<>();
+    }
   }
 
   /**
    * Reads data from the channel.
+   * Reads into a pooled buffer and informs the ChannelListener about every
+   * complete message in the buffer. Messages which don't fit into a pooled buffer
+   * are read into a dedicated buffer.
    * Possibly needs to be called several times to read a whole message.
-   * Informs the ChannelListener when a whole message has been read.
    */
   public synchronized void read() {
     try {
-      int read;
       switch (readState) {
         case LENGTH:
+          if (receiveBuffer == null) {
+            receiveBuffer = bufferPool.acquire();
+          }
 
-          read = channel.read(receiveLengthBuffer);
-
-          if (read == -1) {
+          if (channel.read(receiveBuffer) == -1) {
             logger.log(Level.INFO, "Reading reached end of stream");
             closeChannel();
             return;
           }
 
-          if (!receiveLengthBuffer.hasRemaining()) {
-            receiveLengthBuffer.flip();
-            readLength = receiveLengthBuffer.getInt();
-            receiveLengthBuffer.clear();
-            
-            if (readLength > maxBufferLength) {
-              logger.log(Level.WARNING, "Read length exceeded maximum buffer size");
-              closeChannel();
-              return;
-            }
-            
-            if (readLength == 0) {
-              messageListener.messageReceived(new byte[0], this);
-              return;
-            }
-            
-            receiveBuffer = ByteBuffer.allocate(readLength);
-            readState = State.DATA;
+          receiveBuffer.flip();
+          readMessages();
+
+          if (readState == State.CLOSED) {
+            return;
+          }
+
+          if (receiveBuffer.hasRemaining()) {
+            receiveBuffer.compact();
+          } else {
+            // Don't hold a buffer while no message is incomplete
+            bufferPool.release(receiveBuffer);
+            receiveBuffer = null;
           }
 
           break;
         case DATA:
-          read = channel.read(receiveBuffer);
-
-          if (read == -1) {
+          if (channel.read(largeBuffer) == -1) {
             logger.log(Level.INFO, "Reading reached end of stream");
             closeChannel();
             return;
           }
 
-          if (!receiveBuffer.hasRemaining()) {
-            byte[] data = receiveBuffer.array();
-
-            messageListener.messageReceived(data, this);
+          if (!largeBuffer.hasRemaining()) {
+            ByteBuffer message = largeBuffer;
+            largeBuffer = null;
             readState = State.LENGTH;
 
-            receiveBuffer.clear();
+            message.flip();
+
+            if (largeCompressed) {
+              deliver(message.array());
+            } else {
+              messageListener.messageReceived(message.array(), this);
+            }
           }
           break;
         default:
@@ -133,86 +202,447 @@ public class MessageChannel {
   }
 
   /**
-   * Closes the channel.
+   * Passes all complete messages in the receive buffer to the listener.
+   * Leaves the buffer positioned at the first incomplete message.
+   */
+  private void readMessages() {
+    while (receiveBuffer.remaining() >= lenLength) {
+      int position = receiveBuffer.position();
+      int header = receiveBuffer.getInt(position);
+      boolean compressed = (header & compressedFlag) != 0;
+      int length = header & ~compressedFlag;
+
+      if (header < 0 || length > maxBufferLength) {
+        logger.log(Level.WARNING, "Read length exceeded maximum buffer size");
+        closeChannel();
+        return;
+      }
+
+      if (lenLength + length > receiveBuffer.capacity()) {
+        // Message doesn't fit into the buffer, copy what we got to a dedicated buffer
+        receiveBuffer.position(position + lenLength);
+        largeBuffer = ByteBuffer.allocate(length);
+        largeBuffer.put(receiveBuffer);
+        largeCompressed = compressed;
+        readState = State.DATA;
+        return;
+      }
+
+      if (receiveBuffer.remaining() < lenLength + length) {
+        // Wait for the rest of the message
+        return;
+      }
+
+      int end = position + lenLength + length;
+
+      receiveBuffer.position(position + lenLength);
+
+      // The listener hands messages to other threads, copy them out of the pooled buffer
+      byte[] data = new byte[length];
+      receiveBuffer.get(data);
+
+      if (compressed) {
+        deliver(data);
+      } else {
+        messageListener.messageReceived(data, this);
+      }
+
+      if (readState == State.CLOSED) {
+        // The listener closed the channel
+        return;
+      }
+
+      receiveBuffer.position(end);
+    }
+  }
+
+  /**
+   * Decompresses a message and passes it to the listener.
+   * Closes the channel if the message is invalid.
+   */
+  private void deliver(byte[] compressed) {
+    byte[] data = decompress(compressed);
+
+    if (data == null) {
+      logger.log(Level.WARNING, "Received invalid compressed message");
+      closeChannel();
+      return;
+    }
+
+    messageListener.messageReceived(data, this);
+  }
+
+  private byte[] decompress(byte[] compressed) {
+    if (compressed.length < lenLength) {
+      return null;
+    }
+
+    int length = ByteBuffer.wrap(compressed).getInt();
+
+    if (length < 0 || length > maxBufferLength) {
+      return null;
+    }
+
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+
+    inflater.reset();
+    inflater.setInput(compressed, lenLength, compressed.length - lenLength);
+
+    byte[] data = new byte[length];
+    int read = 0;
+
+    try {
+      while (read < length) {
+        int inflated = inflater.inflate(data, read, length - read);
+
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput()
+            || inflater.needsDictionary())) {
+          return null;
+        }
+
+        read += inflated;
+      }
+    } catch (DataFormatException e) {
+      return null;
+    }
+
+    return data;
+  }
+
+  /**
+   * Compresses a message. Returns null if the message doesn't get smaller.
+   */
+  private byte[] compress(byte[] data) {
+    if (deflater == null) {
+      deflater = new Deflater();
+    }
+
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+
+    byte[] compressed = new byte[data.length];
+    ByteBuffer.wrap(compressed).putInt(data.length);
+    int length = lenLength;
+
+    while (!deflater.finished() && length < compressed.length) {
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+
+    if (!deflater.finished()) {
+      return null;
+    }
+
+    return Arrays.copyOf(compressed, length);
+  }
+
+  /**
+   * Closes the channel and informs the ChannelListener.
    */
   protected synchronized void closeChannel() {
+    close();
+    changeListener.channelClosed(this);
+  }
+
+  /**
+   * Closes the channel without informing the ChannelListener.
+   * Messages which haven't been written completely are dropped.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+
     readState = State.CLOSED;
-    writeState = State.CLOSED;
+    closed = true;
+    unwritten = new HashSet<>();
+
+    if (partial != null) {
+      unwritten.add(partial.id);
+      partial = null;
+    }
+
+    queued = 0;
+
+    for (ArrayDeque<Frame> lane : lanes) {
+      for (Frame frame : lane) {
+        unwritten.add(frame.id);
+      }
+
+      lane.clear();
+    }
+
+    largeBuffer = null;
+
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+
+    if (receiveBuffer != null) {
+      bufferPool.release(receiveBuffer);
+      receiveBuffer = null;
+    }
 
     try {
       channel.close();
     } catch (IOException e) {
       logger.log(Level.INFO, "Failed to close channel " + e.getMessage());
     }
+  }
 
-    changeListener.channelClosed(this);
+  /**
+   * Stops accepting messages and shuts the output down once the waiting messages have been
+   * written. The channel keeps reading until the remote end closes the connection, which
+   * happens after it read all messages. The ChannelListener is informed then.
+   */
+  public synchronized void shutdown() {
+    if (closed || shutdown) {
+      return;
+    }
+
+    shutdown = true;
+
+    if (queued == 0) {
+      shutdownOutput();
+    }
+  }
+
+  private void shutdownOutput() {
+    if (outputShut) {
+      return;
+    }
+
+    outputShut = true;
+
+    try {
+      channel.shutdownOutput();
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Failed to shut down output " + e.getMessage());
+      closeChannel();
+    }
   }
 
   /**
-   * Writes a previously added Message to the channel.
-   * Needs possibly to be called several times to write a whole message.
-   * Informs the ChannelListener when a whole message has been written.
+   * Returns the ids of the messages which hadn't been written completely when the channel
+   * was closed. All other messages have been reported to the ChannelListener as sent.
+   */
+  public synchronized Set<Long> getUnwritten() {
+    if (!closed) {
+      throw new IllegalStateException("Channel hasn't been closed");
+    }
+
+    return Collections.unmodifiableSet(unwritten);
+  }
+
+  /**
+   * Writes previously added messages to the channel.
+   * Writes as many queued messages as possible with a single gathering write.
+   * Needs possibly to be called several times to write all messages.
+   * Informs the ChannelListener about every message that has been written completely.
    */
   public synchronized void write() {
-    try {
-      switch (writeState) {
-        case LENGTH:
+    if (closed) {
+      return;
+    }
 
-          channel.write(sendLengthBuffer);
+    if (queued == 0) {
+      manager.registerWrite(this, false);
 
-          if (!sendLengthBuffer.hasRemaining()) {
-            sendLengthBuffer.clear();
-            writeState = State.DATA;
-          }
-          break;
-        case DATA:
-          channel.write(sendBuffer);
+      if (shutdown) {
+        shutdownOutput();
+      }
+      return;
+    }
 
-          if (!sendBuffer.hasRemaining()) {
-            messageListener.messageSent(currentId, this);
-            writeState = State.IDLE;
-          }
-          break;
-        case IDLE:
-          manager.registerWrite(this, false);
-          break;
-        default:
-          break;
+    int frames = 0;
+
+    if (partial != null) {
+      gathered[frames++] = partial;
+      partial = null;
+    }
 
+    for (ArrayDeque<Frame> lane : lanes) {
+      while (frames < gathered.length && !lane.isEmpty()) {
+        gathered[frames++] = lane.poll();
       }
+    }
+
+    for (int i = 0; i < frames; i++) {
+      writeBuffers[2 * i] = gathered[i].length;
+      writeBuffers[2 * i + 1] = gathered[i].data;
+    }
+
+    try {
+      channel.write(writeBuffers, 0, 2 * frames);
     } catch (IOException ioe) {
       logger.log(Level.WARNING, "Caught exception while writing: " + ioe.getMessage());
+
+      // Put the messages back to report them as unwritten
+      for (int i = frames - 1; i >= 0; i--) {
+        lanes[gathered[i].lane].addFirst(gathered[i]);
+      }
+
+      Arrays.fill(gathered, 0, frames, null);
       closeChannel();
+      return;
+    } finally {
+      // Don't keep references to sent messages
+      Arrays.fill(writeBuffers, 0, 2 * frames, null);
+    }
+
+    int written = 0;
+
+    while (written < frames && gathered[written].written()) {
+      queued--;
+      messageListener.messageSent(gathered[written].id, this);
+      written++;
     }
+
+    if (written < frames && gathered[written].started()) {
+      // Complete the message before writing any other one
+      partial = gathered[written];
+      written++;
+    }
+
+    // Put back messages which haven't been started, a message of a higher priority may overtake
+    for (int i = frames - 1; i >= written; i--) {
+      lanes[gathered[i].lane].addFirst(gathered[i]);
+    }
+
+    Arrays.fill(gathered, 0, frames, null);
+
+    if (queued == 0) {
+      manager.registerWrite(this, false);
+
+      if (shutdown) {
+        shutdownOutput();
+      }
+    }
+  }
+
+  /**
+   * Adds a message of normal priority to write to the MessageChannel.
+   *
+   * @see #addMessage(byte[], long, Priority)
+   */
+  public boolean addMessage(byte[] data, long id) {
+    return addMessage(data, id, Priority.NORMAL);
   }
 
   /**
    * Adds a message to write to the MessageChannel.
-   * A MessageChannel can only have one message to write at a time.
-   * It's only allowed to call the method again, when the
-   * ChannelListener is informed, that the last message was
-   * sent successfully.
+   * Messages of the same priority are written in the order they have been added.
+   * The ChannelListener is informed about every message
+   * which has been sent successfully.
    * 
    * @param data The bytes to send.
    * @param id The id to use when informing the ChannelListener about a sent message.
-   * @return True if the channel was idle and the message has been added successfully.
+   * @param priority The priority of the message.
+   * @return True if the message has been added successfully. False if the channel is
+   *         closed or shut down or too many messages of the priority are waiting to be written.
    */
-  public synchronized boolean addMessage(byte[] data, long id) {
-    if (writeState != State.IDLE) {
-      logger.log(Level.INFO, "MessageChannel is busy. Can't add message " + id + ".");
+  public synchronized boolean addMessage(byte[] data, long id, Priority priority) {
+    if (closed || shutdown) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "MessageChannel is closed. Can't add message " + id + ".");
+      }
+
+      return false;
+    }
+
+    ArrayDeque<Frame> lane = lanes[priority.ordinal()];
+
+    if (lane.size() >= maxQueuedMessages) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "MessageChannel is busy. Can't add message " + id + ".");
+      }
+
       return false;
     }
 
-    sendLengthBuffer.putInt(data.length);
-    sendLengthBuffer.flip();
-    sendBuffer = ByteBuffer.wrap(data);
+    boolean compressed = false;
+
+    if (compressionThreshold != -1 && data.length >= compressionThreshold
+        && data.length > lenLength) {
+      byte[] deflated = compress(data);
+
+      if (deflated != null) {
+        manager.messageCompressed(data.length, deflated.length);
+        data = deflated;
+        compressed = true;
+      }
+    }
+
+    lane.add(new Frame(id, priority.ordinal(), data, compressed));
+    queued++;
+
+    if (queued == 1) {
+      manager.registerWrite(this, true);
+    }
 
-    currentId = id;
-    writeState = State.LENGTH;
-    manager.registerWrite(this, true);
     return true;
   }
 
+  /**
+   * Removes a message which hasn't been started to be written.
+   * The ChannelListener isn't informed about removed messages.
+   *
+   * @param id The id the message has been added with.
+   * @param priority The priority the message has been added with.
+   * @return True if the message has been removed. False if it is being written or
+   *         has been written already.
+   */
+  public synchronized boolean removeMessage(long id, Priority priority) {
+    if (closed) {
+      return false;
+    }
+
+    Iterator<Frame> it = lanes[priority.ordinal()].iterator();
+
+    while (it.hasNext()) {
+      if (it.next().id == id) {
+        it.remove();
+        queued--;
+
+        if (queued == 0) {
+          manager.registerWrite(this, false);
+
+          if (shutdown) {
+            shutdownOutput();
+          }
+        }
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Enables compression of messages to write. The remote end has to support compressed messages.
+   *
+   * @param threshold Minimum length of messages to compress, -1 disables compression.
+   */
+  public synchronized void setCompressionThreshold(int threshold) {
+    this.compressionThreshold = threshold;
+  }
+
+  /**
+   * Returns true if no messages are waiting to be written.
+   */
+  public synchronized boolean isIdle() {
+    return queued == 0;
+  }
+
   public SocketChannel getChannel() {
     return channel;
   }
@@ -0,0 +1,83 @@
+package edu.kit.tm.ptp.channels;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers used by MessageChannels to receive messages.
+ * A channel only holds a buffer while it has received an incomplete message,
+ * idle channels return their buffer to the pool.
+ *
+ * @author Timon Hackenjos
+ */
+public class ReceiveBufferPool {
+  /** The default size of a pooled buffer. */
+  public static final int DEFAULT_BUFFER_LENGTH = 64 * 1024;
+  /** The default maximum number of buffers kept in the pool. */
+  public static final int DEFAULT_MAX_POOLED = 32;
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger(0);
+  private final int bufferLength;
+  private final int maxPooled;
+
+  public ReceiveBufferPool() {
+    this(DEFAULT_BUFFER_LENGTH, DEFAULT_MAX_POOLED);
+  }
+
+  /**
+   * Constructs a new ReceiveBufferPool.
+   *
+   * @param bufferLength The size of the buffers in bytes.
+   * @param maxPooled The maximum number of unused buffers to keep.
+   */
+  public ReceiveBufferPool(int bufferLength, int maxPooled) {
+    if (bufferLength <= 0 || maxPooled < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.bufferLength = bufferLength;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Returns an empty buffer. Allocates a new buffer if the pool is empty.
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(bufferLength);
+    }
+
+    pooled.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer mustn't be used afterwards.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.capacity() != bufferLength) {
+      throw new IllegalArgumentException();
+    }
+
+    if (pooled.incrementAndGet() > maxPooled) {
+      // Let the garbage collector free the buffer
+      pooled.decrementAndGet();
+      return;
+    }
+
+    buffer.clear();
+    buffers.add(buffer);
+  }
+
+  /**
+   * Returns the size of the buffers in bytes.
+   */
+  public int getBufferLength() {
+    return bufferLength;
+  }
+}
@@ -1,5 +1,6 @@
 package edu.kit.tm.ptp.channels;
 
+import edu.kit.tm.ptp.Priority;
 import edu.kit.tm.ptp.utility.Constants;
 
 import java.io.IOException;
@@ -39,22 +40,35 @@ public class SOCKSChannel extends MessageChannel {
    * @param host The host to connect to.
    * @param port The port to connect to.
    */
-  public synchronized void connectThroughSOCKS(String host, int port) {
+  public void connectThroughSOCKS(String host, int port) {
+    connectThroughSOCKS(host, port, "");
+  }
+
+  /**
+   * Opens a connection through a SOCKS proxy using the supplied user id.
+   * 
+   * @param host The host to connect to.
+   * @param port The port to connect to.
+   * @param userId The user id to send to the proxy.
+   */
+  public synchronized void connectThroughSOCKS(String host, int port, String userId) {
     if (connected) {
       logger.log(Level.SEVERE, "A connection through the proxy has already been established.");
       throw new IllegalStateException();
     }
     byte[] hostBytes;
+    byte[] userIdBytes;
     
     try {
       hostBytes = host.getBytes(Constants.charset);
+      userIdBytes = userId.getBytes(Constants.charset);
     } catch (UnsupportedEncodingException e) {
       logger.log(Level.WARNING, "Failed to encode host string using " + Constants.charset);
       closeChannel();
       return;
     }
 
-    socksWriteBuffer = ByteBuffer.allocate(hostBytes.length + 10);
+    socksWriteBuffer = ByteBuffer.allocate(hostBytes.length + userIdBytes.length + 10);
 
     // ByteBuffers use Big Endian by Default
     // SOCKS4a
@@ -62,6 +76,7 @@ public class SOCKSChannel extends MessageChannel {
     socksWriteBuffer.put((byte) 0x01);
     socksWriteBuffer.putShort((short) port);
     socksWriteBuffer.putInt(0x01);
+    socksWriteBuffer.put(userIdBytes);
     socksWriteBuffer.put((byte) 0x00);
     socksWriteBuffer.put(hostBytes);
     socksWriteBuffer.put((byte) 0x00);
@@ -132,12 +147,12 @@ public class SOCKSChannel extends MessageChannel {
    * It's not allowed to call this method while it establishes a connection through the SOCKS proxy.
    */
   @Override
-  public synchronized boolean addMessage(byte[] data, long id) {
+  public synchronized boolean addMessage(byte[] data, long id, Priority priority) {
     if (!connected) {
       logger.log(Level.WARNING, "Tried to add message to an unconnected SOCKSChannel.");
       return false;
     }
 
-    return super.addMessage(data, id);
+    return super.addMessage(data, id, priority);
   }
 }
@@ -0,0 +1,13 @@
+package edu.kit.tm.ptp.channels;
+
+/**
+ * Strategies to assign channels to the selector threads of a ChannelManager.
+ *
+ * @author Timon Hackenjos
+ */
+public enum SelectorAssignment {
+  /** Chooses a selector thread by the hash code of the channel. */
+  HASH,
+  /** Chooses the selector thread currently serving the fewest channels. */
+  LEAST_LOADED
+}
@@ -0,0 +1,204 @@
+package edu.kit.tm.ptp.channels;
+
+import edu.kit.tm.ptp.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A selector and the thread reading from and writing to the channels registered at it.
+ * Each channel is served by a single SelectorLoop which preserves the order of the
+ * calls to the ChannelListener per channel.
+ *
+ * @author Timon Hackenjos
+ */
+class SelectorLoop implements Runnable {
+  private static final Logger logger = Logger.getLogger(SelectorLoop.class.getName());
+  private final ChannelManager manager;
+  private final ChannelListener listener;
+  private final Metrics metrics;
+  private final Thread thread;
+  private final Queue<ChannelEvent> eventQueue = new ConcurrentLinkedQueue<>();
+  /** The number of channels assigned to this loop. */
+  private final AtomicInteger channels = new AtomicInteger(0);
+
+  private volatile Selector selector = null;
+
+  SelectorLoop(ChannelManager manager, ThreadGroup group) {
+    this.manager = manager;
+    this.listener = manager.getChannelListener();
+    this.metrics = manager.getMetrics();
+    this.thread = new Thread(group, this);
+  }
+
+  void start() throws IOException {
+    selector = Selector.open();
+    thread.start();
+  }
+
+  /**
+   * Stops the thread and closes all registered channels.
+   */
+  void stop() {
+    thread.interrupt();
+    try {
+      // Does nothing if thread isn't running
+      thread.join();
+    } catch (InterruptedException e) {
+      logger.log(Level.WARNING, "Failed to wait for thread to stop: " + e.getMessage());
+    }
+
+    try {
+      closeChannels();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close selector: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Processes the event. Events submitted by other threads are queued
+   * and the selector is woken up to process them at once.
+   */
+  void addEvent(ChannelEvent event) {
+    if (Thread.currentThread() == thread) {
+      event.process(selector);
+      return;
+    }
+
+    eventQueue.add(event);
+
+    Selector current = selector;
+
+    if (current != null) {
+      current.wakeup();
+    }
+  }
+
+  AtomicInteger getChannels() {
+    return channels;
+  }
+
+  @Override
+  public void run() {
+    int readyChannels = 0;
+    ChannelEvent event;
+
+    while (!thread.isInterrupted()) {
+
+      while ((event = eventQueue.poll()) != null) {
+        event.process(selector);
+      }
+
+      try {
+        readyChannels = selector.select();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Error occurred during selection operation: " + e.getMessage());
+        thread.interrupt();
+        continue;
+      }
+
+      if (readyChannels == 0) {
+        continue;
+      }
+
+      long start = System.nanoTime();
+      Set<SelectionKey> selectedKeys = selector.selectedKeys();
+      Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+      while (keyIterator.hasNext()) {
+        SelectionKey key = keyIterator.next();
+
+        if (key.isValid() && key.isAcceptable()) {
+          ServerSocketChannel server = (ServerSocketChannel) key.attachment();
+          try {
+            SocketChannel client = server.accept();
+
+            if (client != null) {
+              client.configureBlocking(false);
+              client.socket().setTcpNoDelay(true);
+              MessageChannel channel = new MessageChannel(client, manager);
+              listener.channelOpened(channel);
+            }
+          } catch (IOException e) {
+            logger.log(Level.WARNING,
+                "Caught exception while accepting connection: " + e.getMessage());
+          }
+
+        } else {
+          MessageChannel channel = (MessageChannel) key.attachment();
+
+          if (key.isValid() && key.isConnectable()
+              && !channel.getChannel().isConnectionPending()) {
+            // The registration was faster than the call to connect()
+            logger.log(Level.FINE, "Channel is connectable before connecting");
+          } else if (key.isValid() && key.isConnectable()) {
+            try {
+              // unregister channel
+              key.interestOps(0);
+
+              if (channel.getChannel().finishConnect()) {
+                listener.channelOpened(channel);
+              } else {
+                key.cancel();
+                listener.channelClosed(channel);
+              }
+            } catch (IOException ioe) {
+              logger.log(Level.WARNING,
+                  "Caught exception while handling connectable channel: " + ioe.getMessage());
+              key.cancel();
+              listener.channelClosed(channel);
+            }
+          }
+
+          if (key.isValid() && key.isReadable()) {
+            channel.read();
+          }
+
+          if (key.isValid() && key.isWritable()) {
+            channel.write();
+          }
+        }
+
+        keyIterator.remove();
+      }
+
+      metrics.selected((System.nanoTime() - start) / 1000);
+    }
+
+  }
+
+  private void closeChannels() throws IOException {
+    if (selector != null) {
+      // Close all connections
+      for (SelectionKey key : selector.keys()) {
+        SelectableChannel channel = key.channel();
+        try {
+          if (channel instanceof SocketChannel) {
+            logger.log(Level.INFO, "Closing SocketChannel");
+            ((SocketChannel) channel).close();
+          }
+
+          if (channel instanceof ServerSocketChannel) {
+            logger.log(Level.INFO, "Closing ServerSocketChannel");
+            ((ServerSocketChannel) channel).close();
+          }
+        } catch (IOException ioe) {
+          logger.log(Level.INFO, "Failed to close channel");
+        }
+      }
+
+      selector.close();
+    }
+  }
+}
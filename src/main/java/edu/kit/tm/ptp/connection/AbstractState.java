@@ -3,7 +3,7 @@ package edu.kit.tm.ptp.connection;
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
-import java.io.IOException;
+import java.util.Set;
 import java.util.logging.Level;
 
 /**
@@ -57,6 +57,12 @@ public abstract class AbstractState {
     return false;
   }
 
+  /**
+   * Opens a new connection to the identifier if necessary.
+   */
+  public void connect(Identifier identifier) {
+  }
+
   /**
    * Closes a channel and removes it from the configuration.
    * 
@@ -66,28 +72,53 @@ public abstract class AbstractState {
     ConnectionManager manager = context.getConnectionManager();
 
     manager.channelManager.removeChannel(channel);
-
-    try {
-      channel.getChannel().close();
-    } catch (IOException e) {
-      manager.logger.log(Level.INFO, "Error while trying to close channel");
-    }
+    channel.close();
 
     Identifier identifier = manager.channelMap.get(channel);
 
     if (identifier != null) {
-      for (MessageAttempt attempt : manager.dispatchedMessages.values()) {
-        if (channel.equals(attempt.getDispatchedChannel())) {
+      Set<Long> unwritten = channel.getUnwritten();
+
+      for (MessageAttempt attempt : manager.dispatchedMessages.removeChannel(channel)) {
+        if (unwritten.contains(attempt.getId()) && !attempt.isTimedOut()) {
+          // Park the message again to send it over another connection
           attempt.setDispatchedChannel(null);
-          manager.eventQueue.add(new EventSendMessage(manager, attempt));
-          manager.semaphore.release();
+          manager.pendingMessages.add(attempt);
+        } else {
+          // Written before the channel has been closed, the notification comes too late,
+          // or already reported as timed out
+          manager.messageWritten(attempt);
         }
       }
       
+      ChannelPool pool = manager.pools.get(identifier);
+
+      if (pool != null) {
+        pool.closed(channel);
+
+        if (pool.isEmpty()) {
+          manager.pools.remove(identifier);
+          manager.sourceClosed(identifier);
+        }
+      }
+
       MessageChannel registeredChannel = manager.identifierMap.get(identifier);
 
       if (registeredChannel != null && registeredChannel.equals(channel)) {
-        manager.identifierMap.remove(identifier);
+        MessageChannel next = pool != null ? pool.first() : null;
+
+        if (next != null) {
+          // Another connection to the destination takes over
+          manager.identifierMap.put(identifier, next);
+        } else {
+          manager.identifierMap.remove(identifier);
+        }
+      }
+
+      if (manager.pendingMessages.hasMessages(identifier)
+          || manager.warmConnections.isWanted(identifier)) {
+        // Try to open a new connection for the parked messages or to keep the destination warm
+        manager.pendingMessages.scheduleRetry(identifier, System.currentTimeMillis());
       }
     }
 
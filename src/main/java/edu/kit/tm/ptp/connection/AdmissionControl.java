@@ -0,0 +1,152 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the payload bytes of messages which have been handed to the ConnectionManager but
+ * haven't been sent yet, in total and per destination. Messages are admitted by the threads
+ * sending them and released by the thread of the ConnectionManager. Thread-safe without locking.
+ *
+ * @author Timon Hackenjos
+ */
+public class AdmissionControl {
+  /** Marks a per-destination counter which has dropped to 0 and is removed from the map. */
+  private static final long RETIRED = Long.MIN_VALUE;
+
+  private final long maxBytes;
+  private final long maxBytesPerDestination;
+  private final AtomicLong bytes = new AtomicLong(0);
+  private final Map<Identifier, AtomicLong> destinations = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a new AdmissionControl.
+   *
+   * @param maxBytes The maximum number of pending bytes or -1 for no limit.
+   * @param maxBytesPerDestination The maximum number of pending bytes to a single destination
+   *        or -1 for no limit.
+   */
+  public AdmissionControl(long maxBytes, long maxBytesPerDestination) {
+    if (maxBytes < -1 || maxBytesPerDestination < -1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxBytes = maxBytes;
+    this.maxBytesPerDestination = maxBytesPerDestination;
+  }
+
+  /**
+   * Reserves room for a message if it fits within the limits.
+   *
+   * @return False if the message exceeds one of the limits.
+   */
+  public boolean admit(Identifier destination, int length) {
+    if (!reserve(bytes, maxBytes, length)) {
+      return false;
+    }
+
+    while (true) {
+      AtomicLong pending = getBytes(destination);
+      long current = pending.get();
+
+      if (current == RETIRED) {
+        // Help the releasing thread to remove the counter and use a new one
+        destinations.remove(destination, pending);
+        continue;
+      }
+
+      if (maxBytesPerDestination != -1 && current + length > maxBytesPerDestination) {
+        bytes.addAndGet(-length);
+        retire(destination, pending);
+        return false;
+      }
+
+      if (pending.compareAndSet(current, current + length)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases the room of an admitted message which has been sent or dropped.
+   */
+  public void release(Identifier destination, int length) {
+    bytes.addAndGet(-length);
+    AtomicLong pending = destinations.get(destination);
+
+    if (pending != null && pending.addAndGet(-length) == 0) {
+      retire(destination, pending);
+    }
+  }
+
+  /**
+   * Returns the payload bytes of all pending messages.
+   */
+  public long getPendingBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Returns the payload bytes of the pending messages to the destination.
+   */
+  public long getPendingBytes(Identifier destination) {
+    AtomicLong pending = destinations.get(destination);
+
+    if (pending == null) {
+      return 0;
+    }
+
+    long current = pending.get();
+    return current == RETIRED ? 0 : current;
+  }
+
+  /**
+   * Returns the number of destinations with a counter.
+   */
+  int getDestinationCount() {
+    return destinations.size();
+  }
+
+  private static boolean reserve(AtomicLong counter, long max, int length) {
+    if (max == -1) {
+      counter.addAndGet(length);
+      return true;
+    }
+
+    while (true) {
+      long current = counter.get();
+
+      if (current + length > max) {
+        return false;
+      }
+
+      if (counter.compareAndSet(current, current + length)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes the counter of a destination if no bytes are pending. A counter is marked before
+   * removing it so that no thread reserves room in a counter which isn't in the map anymore.
+   */
+  private void retire(Identifier destination, AtomicLong pending) {
+    if (pending.compareAndSet(0, RETIRED)) {
+      destinations.remove(destination, pending);
+    }
+  }
+
+  private AtomicLong getBytes(Identifier destination) {
+    AtomicLong pending = destinations.get(destination);
+
+    if (pending == null) {
+      AtomicLong previous = destinations.putIfAbsent(destination, new AtomicLong(0));
+      pending = previous != null ? previous : destinations.get(destination);
+    }
+
+    return pending;
+  }
+}
@@ -0,0 +1,211 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The channels to a single destination. Messages are spread over the authenticated channels.
+ * An ordering key is bound to the channel its first message has been added to until the
+ * channel is closed, so changes of the pool don't reorder messages with the same key.
+ * Only the least recently used keys without unwritten messages are forgotten if too many
+ * keys are bound. Only accessed by the thread of the ConnectionManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class ChannelPool {
+  private static final int maxKeys = 1024;
+
+  /** The authenticated channels, the oldest first. */
+  private final List<MessageChannel> authenticated = new ArrayList<>();
+  /** Additional channels which are being opened. */
+  private final Set<MessageChannel> connecting = new HashSet<>();
+
+  /** The channels ordering keys are bound to, the least recently used key first. */
+  private final Map<Object, Binding> keys = new LinkedHashMap<Object, Binding>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Binding> eldest) {
+      return size() > maxKeys && eldest.getValue().messages == 0;
+    }
+  };
+  private int next = 0;
+
+  /** The channel of an ordering key and the number of its unwritten messages. */
+  private static final class Binding {
+    private final MessageChannel channel;
+    private int messages = 0;
+
+    private Binding(MessageChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * Adds a channel which is being opened.
+   */
+  public void addConnecting(MessageChannel channel) {
+    connecting.add(channel);
+  }
+
+  /**
+   * Replaces a channel which is being opened, e.g. by a channel connecting through SOCKS.
+   */
+  public void replaceConnecting(MessageChannel channel, MessageChannel replacement) {
+    if (connecting.remove(channel)) {
+      connecting.add(replacement);
+    }
+  }
+
+  /**
+   * Adds an authenticated channel.
+   */
+  public void authenticated(MessageChannel channel) {
+    connecting.remove(channel);
+
+    if (!authenticated.contains(channel)) {
+      authenticated.add(channel);
+    }
+  }
+
+  /**
+   * Removes a channel which shouldn't be used for new messages.
+   * Ordering keys stay bound to the channel until it has been closed.
+   */
+  public void remove(MessageChannel channel) {
+    connecting.remove(channel);
+    authenticated.remove(channel);
+  }
+
+  /**
+   * Removes a closed channel and releases the ordering keys bound to it.
+   * The unwritten messages of the channel have to be parked again before.
+   */
+  public void closed(MessageChannel channel) {
+    remove(channel);
+
+    Iterator<Binding> it = keys.values().iterator();
+
+    while (it.hasNext()) {
+      if (it.next().channel.equals(channel)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Informs about a message which has been written completely or has been taken back
+   * from its channel.
+   */
+  public void messageFinished(MessageAttempt attempt) {
+    Object key = attempt.getOrderingKey();
+
+    if (key == null) {
+      return;
+    }
+
+    Binding binding = keys.get(key);
+
+    if (binding != null && binding.channel.equals(attempt.getDispatchedChannel())) {
+      binding.messages--;
+    }
+  }
+
+  /**
+   * Returns the authenticated channels.
+   */
+  public List<MessageChannel> getAuthenticated() {
+    return Collections.unmodifiableList(authenticated);
+  }
+
+  public boolean contains(MessageChannel channel) {
+    return authenticated.contains(channel) || connecting.contains(channel);
+  }
+
+  /**
+   * Returns the number of authenticated channels.
+   */
+  public int size() {
+    return authenticated.size();
+  }
+
+  /**
+   * Returns the number of channels which are being opened.
+   */
+  public int connecting() {
+    return connecting.size();
+  }
+
+  public boolean isEmpty() {
+    return authenticated.isEmpty() && connecting.isEmpty() && keys.isEmpty();
+  }
+
+  /**
+   * Returns the oldest authenticated channel, a channel which is being opened
+   * or null if the pool is empty.
+   */
+  public MessageChannel first() {
+    if (!authenticated.isEmpty()) {
+      return authenticated.get(0);
+    }
+
+    return connecting.isEmpty() ? null : connecting.iterator().next();
+  }
+
+  /**
+   * Adds the message of the attempt to one of the authenticated channels.
+   * Messages are added to the next channel with room for the message. Messages with an
+   * ordering key are added to the channel the key is bound to, if any.
+   *
+   * @return The channel the message has been added to or null if there was no room.
+   */
+  public MessageChannel addMessage(MessageAttempt attempt) {
+    int size = authenticated.size();
+
+    if (size == 0) {
+      return null;
+    }
+
+    Object key = attempt.getOrderingKey();
+    Binding binding = key != null ? keys.get(key) : null;
+
+    if (binding != null) {
+      // Wait for the messages on a removed channel to be parked again
+      if (!authenticated.contains(binding.channel) || !add(binding.channel, attempt)) {
+        return null;
+      }
+
+      binding.messages++;
+      return binding.channel;
+    }
+
+    for (int i = 0; i < size; i++) {
+      MessageChannel channel = authenticated.get(next % size);
+      next = (next + 1) % size;
+
+      if (add(channel, attempt)) {
+        if (key != null) {
+          binding = new Binding(channel);
+          binding.messages++;
+          keys.put(key, binding);
+        }
+
+        return channel;
+      }
+    }
+
+    return null;
+  }
+
+  private static boolean add(MessageChannel channel, MessageAttempt attempt) {
+    return channel.addMessage(attempt.getData(), attempt.getId(), attempt.getPriority());
+  }
+}
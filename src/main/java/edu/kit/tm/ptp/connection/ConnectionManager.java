@@ -2,9 +2,11 @@ package edu.kit.tm.ptp.connection;
 
 import edu.kit.tm.ptp.Configuration;
 import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.Priority;
 import edu.kit.tm.ptp.ReceiveListener;
 import edu.kit.tm.ptp.SendListener;
 import edu.kit.tm.ptp.TorManager;
+import edu.kit.tm.ptp.auth.AuthenticationCache;
 import edu.kit.tm.ptp.auth.AuthenticationListener;
 import edu.kit.tm.ptp.auth.AuthenticatorFactory;
 import edu.kit.tm.ptp.auth.PublicKeyAuthenticatorFactory;
@@ -12,7 +14,7 @@ import edu.kit.tm.ptp.channels.ChannelListener;
 import edu.kit.tm.ptp.channels.ChannelManager;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.kit.tm.ptp.crypt.CryptHelper;
-import edu.kit.tm.ptp.thread.Waker;
+import edu.kit.tm.ptp.metrics.Metrics;
 import edu.kit.tm.ptp.utility.Constants;
 
 import java.io.File;
@@ -22,12 +24,23 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,34 +52,74 @@ import java.util.logging.Logger;
  */
 public class ConnectionManager implements Runnable, ChannelListener, AuthenticationListener,
     TorManager.SOCKSProxyListener {
+  /** Marks a counter of unconsumed bytes which dropped to 0 and is removed from the map. */
+  private static final long RETIRED = Long.MIN_VALUE;
+
   private final Thread thread;
   private final AtomicLong messageId = new AtomicLong(0);
-  private final int sendMessageRetryInterval;
 
   protected final Semaphore semaphore = new Semaphore(0);
-  private final Waker waker;
 
   protected final int hsPort;
   protected final SendListener sendListener;
   protected final ReceiveListener receiveListener;
   protected final Logger logger = Logger.getLogger(ConnectionManager.class.getName());
   protected final int connectRetryInterval;
+  protected final int channelsPerDestination;
+  protected final int compressionThreshold;
 
   protected final ChannelManager channelManager;
   protected final AuthenticatorFactory authFactory;
+  protected final AuthenticationCache authCache;
+  /** Limits the bytes of the messages waiting to be sent. */
+  protected final AdmissionControl admission;
+  /** Signs and verifies authentication messages or null to do it on the own thread. */
+  private final ExecutorService authExecutor;
+  /** Runs tasks on the own thread. */
+  private final Executor eventExecutor = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      addEvent(new EventExecute(ConnectionManager.this, task));
+    }
+  };
   protected final CryptHelper cryptHelper = new CryptHelper();
+  protected final Metrics metrics = new Metrics();
 
   protected final Map<Identifier, MessageChannel> identifierMap = new HashMap<>();
   protected final Map<MessageChannel, Identifier> channelMap = new HashMap<>();
   protected final Map<MessageChannel, Context> channelContexts = new HashMap<>();
+  /** The channels messages to a destination are spread over. */
+  protected final Map<Identifier, ChannelPool> pools = new HashMap<>();
   protected final Map<Identifier, Long> lastTry = new HashMap<>();
   /** Messages which have already been dispatched to a channel. */
-  protected final Map<Long, MessageAttempt> dispatchedMessages = new HashMap<>();
+  protected final DispatchedMessages dispatchedMessages = new DispatchedMessages();
+  /** Messages which are waiting for a channel to become available. */
+  protected final PendingMessages pendingMessages = new PendingMessages();
+  protected final WarmConnections warmConnections;
   protected final Queue<Event> eventQueue = new ConcurrentLinkedQueue<>();
+  /**
+   * Bytes of received messages per source which haven't been consumed yet. Sources whose
+   * messages have all been consumed have no entry.
+   */
+  private final Map<Identifier, AtomicLong> unconsumedBytes = new ConcurrentHashMap<>();
+  /** Sources whose channels aren't read from until their messages have been consumed. */
+  protected final Set<Identifier> pausedSources =
+      Collections.newSetFromMap(new ConcurrentHashMap<Identifier, Boolean>());
+  /** Paused sources for which an EventResumeReading has been queued. */
+  private final Set<Identifier> resumingSources =
+      Collections.newSetFromMap(new ConcurrentHashMap<Identifier, Boolean>());
+  private volatile int receiveBufferLimit = -1;
+  private volatile PauseListener pauseListener = null;
 
   protected String socksHost = null;
   protected int socksPort = -1;
   protected Identifier localIdentifier = null;
+  protected volatile Transport transport;
+  /** The identifier and port announced to the transport. */
+  private Identifier transportIdentifier = null;
+  private int transportPort = -1;
+  /** Used to isolate the circuits of the connections to a destination. */
+  private long isolationId = 0;
 
   /**
    * Construct a new ConnectionManager.
@@ -110,27 +163,71 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
    * to create authenticator objects.
    */
   public ConnectionManager(int hsPort, ReceiveListener receiveListener, SendListener sendListener,
-                           Configuration config, ThreadGroup group, AuthenticatorFactory authFactory) {
+                           Configuration config, final ThreadGroup group,
+                           AuthenticatorFactory authFactory) {
     if (receiveListener == null || sendListener == null || authFactory == null) {
       throw new IllegalArgumentException();
     }
 
+    int authenticationThreads;
+
     this.hsPort = hsPort;
     this.receiveListener = receiveListener;
     this.sendListener = sendListener;
     this.authFactory = authFactory;
-    this.channelManager = new ChannelManager(this, group);
-    this.waker = new Waker(semaphore, group);
     this.thread = new Thread(group, this);
 
     if (config == null) {
       this.connectRetryInterval = Configuration.DEFAULT_CONNECTRETRYINTERVAL;
-      this.sendMessageRetryInterval = Configuration.DEFAULT_MESSAGESENDRETRYINTERVAL;
+      this.channelsPerDestination = Configuration.DEFAULT_CHANNELSPERDESTINATION;
+      this.compressionThreshold = Configuration.DEFAULT_COMPRESSIONTHRESHOLD;
+      this.authCache = new AuthenticationCache(Configuration.DEFAULT_RESUMPTIONTICKETLIFETIME);
+      this.admission = new AdmissionControl(Configuration.DEFAULT_MAXPENDINGBYTES,
+          Configuration.DEFAULT_MAXPENDINGBYTESPERDESTINATION);
+      authenticationThreads = Configuration.DEFAULT_AUTHENTICATIONTHREADS;
+      this.warmConnections = new WarmConnections(Configuration.DEFAULT_WARMCONNECTIONS);
+      this.channelManager = new ChannelManager(this, group,
+          Configuration.DEFAULT_SELECTORTHREADS, Configuration.DEFAULT_SELECTORASSIGNMENT, metrics);
+      this.transport = Configuration.DEFAULT_TRANSPORT.create();
     } else {
       this.connectRetryInterval = config.getConnectRetryInterval();
-      this.sendMessageRetryInterval = config.getMessageSendRetryInterval();
+      this.channelsPerDestination = config.getChannelsPerDestination();
+      this.compressionThreshold = config.getCompressionThreshold();
+      this.authCache = new AuthenticationCache(config.getResumptionTicketLifetime());
+      this.admission = new AdmissionControl(config.getMaxPendingBytes(),
+          config.getMaxPendingBytesPerDestination());
+      authenticationThreads = config.getAuthenticationThreads();
+      this.warmConnections = new WarmConnections(config.getWarmConnections());
+      this.channelManager = new ChannelManager(this, group, config.getSelectorThreads(),
+          config.getSelectorAssignment(), metrics);
+      this.transport = config.getTransport().create();
+    }
+
+    if (authenticationThreads > 0) {
+      this.authExecutor = Executors.newFixedThreadPool(authenticationThreads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(group, runnable);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      this.authExecutor = null;
     }
   }
+
+  /**
+   * Sets the transport used to reach other PTP instances.
+   * Has to be called before the bind server is started.
+   */
+  public void setTransport(Transport transport) {
+    if (transport == null) {
+      throw new NullPointerException();
+    }
+
+    this.transport = transport;
+  }
   
   @Override
   public void updateSOCKSProxy(String socksHost, int socksProxyPort) {
@@ -138,8 +235,7 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
       throw new IllegalArgumentException();
     }
 
-    eventQueue.add(new EventUpdateSOCKS(this, socksHost, socksProxyPort));
-    semaphore.release();
+    addEvent(new EventUpdateSOCKS(this, socksHost, socksProxyPort));
   }
 
   /**
@@ -155,7 +251,6 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     logger.log(Level.INFO, "Starting ConnectionManager");
     thread.start();
     channelManager.start();
-    waker.start();
     logger.log(Level.INFO, "ConnectionManager started");
   }
 
@@ -177,13 +272,19 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
       logger.log(Level.WARNING, "Failed to wait for thread to stop: " + e.getMessage());
     }
 
+    if (authExecutor != null) {
+      authExecutor.shutdown();
+    }
+
     logger.log(Level.INFO, "Stopping channel manager");
 
     channelManager.stop();
 
-    logger.log(Level.INFO, "Stopping waker");
-
-    waker.stop();
+    synchronized (this) {
+      if (transportIdentifier != null && transportPort != -1) {
+        transport.unregister(transportIdentifier, transportPort);
+      }
+    }
 
     logger.log(Level.INFO, "ConnectionManager stopped");
   }
@@ -204,9 +305,36 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
 
     logger.log(Level.INFO, "Started bind server on port " + server.socket().getLocalPort());
 
+    registerAtTransport(null, server.socket().getLocalPort());
+
     return server.socket().getLocalPort();
   }
 
+  /**
+   * Announces the local identifier and the port of the bind server to the transport
+   * once both are known.
+   *
+   * @param identifier The identifier of the local hidden service or null if unchanged.
+   * @param port The port of the bind server or -1 if unchanged.
+   */
+  protected synchronized void registerAtTransport(Identifier identifier, int port) {
+    if (identifier != null) {
+      if (transportIdentifier != null && transportPort != -1) {
+        transport.unregister(transportIdentifier, transportPort);
+      }
+
+      transportIdentifier = identifier;
+    }
+
+    if (port != -1) {
+      transportPort = port;
+    }
+
+    if (transportIdentifier != null && transportPort != -1) {
+      transport.register(transportIdentifier, transportPort);
+    }
+  }
+
   /**
    * Sends a message to the specified destination.
    * 
@@ -220,20 +348,170 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   }
 
   public long send(byte[] data, Identifier destination, long timeout, boolean informSendListener) {
+    return send(data, destination, timeout, informSendListener, Priority.NORMAL);
+  }
+
+  /**
+   * Sends a message of the supplied priority to the specified destination.
+   *
+   * @param data The bytes to send.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @param priority The priority of the message.
+   * @return Identifier for the message.
+   */
+  public long send(byte[] data, Identifier destination, long timeout, Priority priority) {
+    return send(data, destination, timeout, true, priority);
+  }
+
+  public long send(byte[] data, Identifier destination, long timeout, boolean informSendListener,
+      Priority priority) {
+    if (priority == null) {
+      throw new NullPointerException();
+    }
+
+    return send(data, destination, timeout, informSendListener, null, null, priority);
+  }
+
+  /**
+   * Sends a message to the specified destination and informs the supplied listener
+   * about the result instead of the listener of the ConnectionManager.
+   *
+   * @param data The bytes to send.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @param listener The listener to inform about the result.
+   * @return Identifier for the message.
+   */
+  public long send(byte[] data, Identifier destination, long timeout, SendListener listener) {
+    if (listener == null) {
+      throw new NullPointerException();
+    }
+
+    return send(data, destination, timeout, true, listener, null, Priority.NORMAL);
+  }
+
+  /**
+   * Sends a message to the specified destination. Messages with the same ordering key
+   * are sent over the same connection and arrive in the order they have been sent
+   * if several connections are opened to the destination.
+   *
+   * @param data The bytes to send.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @param orderingKey The key of the messages whose order has to be kept.
+   * @return Identifier for the message.
+   */
+  public long sendOrdered(byte[] data, Identifier destination, long timeout,
+      Object orderingKey) {
+    if (orderingKey == null) {
+      throw new NullPointerException();
+    }
+
+    return send(data, destination, timeout, true, null, orderingKey, Priority.NORMAL);
+  }
+
+  /**
+   * Sends a message with an ordering key and a priority and informs the supplied listener
+   * about the result instead of the listener of the ConnectionManager.
+   *
+   * @see #sendOrdered(byte[], Identifier, long, Object)
+   */
+  public long sendOrdered(byte[] data, Identifier destination, long timeout,
+      Object orderingKey, Priority priority, SendListener listener) {
+    if (orderingKey == null || priority == null || listener == null) {
+      throw new NullPointerException();
+    }
+
+    return send(data, destination, timeout, true, listener, orderingKey, priority);
+  }
+
+  private long send(byte[] data, Identifier destination, long timeout, boolean informSendListener,
+      SendListener listener, Object orderingKey, Priority priority) {
     long id = messageId.getAndIncrement();
     MessageAttempt attempt = new MessageAttempt(id, System.currentTimeMillis(), data, timeout,
         destination, informSendListener);
+    attempt.setSendListener(listener);
+    attempt.setOrderingKey(orderingKey);
+    attempt.setPriority(priority);
 
-    eventQueue.add(new EventSendMessage(this, attempt));
+    if (!admit(attempt)) {
+      addEvent(new EventReportResult(this, SendListener.State.QUEUE_FULL, attempt));
+      return id;
+    }
 
-    logger.log(Level.INFO, "Assigned id " + id + " to message attempt for identifier " + destination
-        + " with size " + data.length + " bytes");
+    metrics.messagesQueued(1);
+    addEvent(new EventSendMessage(this, attempt));
 
-    semaphore.release();
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Assigned id " + id + " to message attempt for identifier "
+          + destination + " with size " + data.length + " bytes");
+    }
 
     return id;
   }
 
+  /**
+   * Sends several messages using a single event.
+   * The messages are sent in the supplied order. Entries of data may refer to the same array
+   * to send the same message to several destinations.
+   *
+   * @param data The bytes of the messages.
+   * @param destinations The destination of every message.
+   * @param timeout How long to wait for a successful sending of every message.
+   * @param listener The listener to inform about the results or null to inform the
+   *        listener of the ConnectionManager.
+   * @return Identifiers for the messages in the supplied order.
+   */
+  public long[] send(byte[][] data, Identifier[] destinations, long timeout,
+      SendListener listener) {
+    if (data.length != destinations.length) {
+      throw new IllegalArgumentException("Number of messages and destinations differ");
+    }
+
+    long[] ids = new long[data.length];
+
+    if (data.length == 0) {
+      return ids;
+    }
+
+    long firstId = messageId.getAndAdd(data.length);
+    long timestamp = System.currentTimeMillis();
+    List<MessageAttempt> admitted = new ArrayList<>(data.length);
+    List<MessageAttempt> rejected = new ArrayList<>();
+
+    for (int i = 0; i < data.length; i++) {
+      ids[i] = firstId + i;
+      MessageAttempt attempt =
+          new MessageAttempt(ids[i], timestamp, data[i], timeout, destinations[i], true);
+      attempt.setSendListener(listener);
+
+      if (admit(attempt)) {
+        admitted.add(attempt);
+      } else {
+        rejected.add(attempt);
+      }
+    }
+
+    if (!admitted.isEmpty()) {
+      metrics.messagesQueued(admitted.size());
+      addEvent(new EventSendMessage(this,
+          admitted.toArray(new MessageAttempt[admitted.size()])));
+    }
+
+    if (!rejected.isEmpty()) {
+      addEvent(new EventReportResult(this, SendListener.State.QUEUE_FULL,
+          rejected.toArray(new MessageAttempt[rejected.size()])));
+    }
+
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Assigned ids " + firstId + " to " + ids[ids.length - 1]
+          + " to a batch of " + data.length + " message attempts");
+    }
+
+    return ids;
+  }
+
 
   /**
    * Closes an open connection to the supplied identifier.
@@ -246,9 +524,7 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
       return;
     }
 
-    eventQueue.add(new EventConnectionClosed(this, channel));
-
-    semaphore.release();
+    addEvent(new EventConnectionClosed(this, channel));
   }
 
   /**
@@ -259,8 +535,7 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
       throw new IllegalArgumentException();
     }
 
-    eventQueue.add(new EventSetIdentity(this, privateKey, identifier));
-    semaphore.release();
+    addEvent(new EventSetIdentity(this, privateKey, identifier));
   }
 
   /**
@@ -271,36 +546,33 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
       throw new IllegalArgumentException("Identifier is invalid.");
     }
 
-    eventQueue.add(new EventSetIdentifier(this, localIdentifier));
-    semaphore.release();
+    addEvent(new EventSetIdentifier(this, localIdentifier));
   }
 
   @Override
   public void messageSent(long id, MessageChannel destination) {
-    logger.log(Level.INFO, "Message with id " + id + " sent successfully");
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Message with id " + id + " sent successfully");
+    }
 
-    eventQueue.add(new EventMessageSent(this, id, destination));
-    semaphore.release();
+    addEvent(new EventMessageSent(this, id, destination));
   }
 
   @Override
   public void messageReceived(byte[] data, MessageChannel source) {
     // data doesn't need to be copied because MessageChannels
-    // use a new buffer for each message
-    eventQueue.add(new EventMessageReceived(this, data, source));
-    semaphore.release();
+    // copy each message into a new array
+    addEvent(new EventMessageReceived(this, data, source));
   }
 
   @Override
   public void channelOpened(MessageChannel channel) {
-    eventQueue.add(new EventConnectionOpened(this, channel));
-    semaphore.release();
+    addEvent(new EventConnectionOpened(this, channel));
   }
 
   @Override
   public void channelClosed(MessageChannel channel) {
-    eventQueue.add(new EventConnectionClosed(this, channel));
-    semaphore.release();
+    addEvent(new EventConnectionClosed(this, channel));
   }
 
   @Override
@@ -323,61 +595,635 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     }    
   }
 
-  protected MessageChannel connect(Identifier destination) throws IOException {
+  /**
+   * Opens a connection to the destination.
+   *
+   * @param destination The identifier to connect to.
+   * @param address The address to connect to directly or null to connect to the SOCKS proxy.
+   */
+  protected MessageChannel connect(Identifier destination, InetSocketAddress address)
+      throws IOException {
     logger.log(Level.INFO, "Trying to connect to identifer " + destination);
 
     SocketChannel socket = SocketChannel.open();
     socket.configureBlocking(false);
-    socket.connect(new InetSocketAddress(socksHost, socksPort));
+    socket.connect(address != null ? address : new InetSocketAddress(socksHost, socksPort));
 
     MessageChannel channel = channelManager.connect(socket);
     return channel;
   }
 
+  /**
+   * Tries to dispatch the parked messages of the destination by priority and
+   * in the order they have been sent.
+   * Stops at the first message which can't be dispatched.
+   */
+  protected void sendPendingMessages(Identifier destination) {
+    MessageAttempt attempt;
+
+    while ((attempt = pendingMessages.peek(destination)) != null) {
+      if (!dispatch(attempt)) {
+        return;
+      }
+
+      pendingMessages.remove(attempt);
+    }
+  }
+
+  /**
+   * Tries to dispatch the parked messages of all destinations.
+   */
+  protected void sendPendingMessages() {
+    Set<Identifier> destinations = new HashSet<>(pendingMessages.getDestinations());
+
+    for (Identifier destination : destinations) {
+      sendPendingMessages(destination);
+    }
+  }
+
+  private boolean dispatch(MessageAttempt attempt) {
+    ChannelPool pool = pools.get(attempt.getDestination());
+    // Prefer an authenticated channel over a channel which is being opened
+    MessageChannel channel = pool != null && pool.size() > 0 ? pool.first()
+        : identifierMap.get(attempt.getDestination());
+    Context context = channelContexts.get(channel);
+
+    if (context == null) {
+      // No channel exists for the destination yet
+      context = new Context(this);
+    }
+
+    return context.sendMessage(attempt);
+  }
+
+  /**
+   * Opens and authenticates a connection to the destination ahead of sending messages.
+   * The future is completed on the thread of the ConnectionManager.
+   *
+   * @param destination The destination to connect to.
+   * @param timeout How long to wait for the connection or -1 to wait until a
+   *        connection has been established.
+   * @return A future which is completed with true once the connection is authenticated
+   *         and with false if the timeout expires or the ConnectionManager stops.
+   */
+  public CompletableFuture<Boolean> connect(Identifier destination, long timeout) {
+    if (destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    long deadline = timeout == -1 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+
+    addEvent(new EventConnect(this, destination, future, deadline));
+
+    return future;
+  }
+
+  /**
+   * Keeps a connection to the destination open, reconnecting if it's closed.
+   *
+   * @param destination The destination to stay connected to.
+   * @param keepWarm False to stop keeping a connection open.
+   */
+  public void keepWarm(Identifier destination, boolean keepWarm) {
+    if (destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    addEvent(new EventKeepWarm(this, destination, keepWarm));
+  }
+
+  /**
+   * Returns true if an authenticated connection to the destination exists.
+   */
+  protected boolean isConnected(Identifier destination) {
+    ChannelPool pool = pools.get(destination);
+    return pool != null && pool.size() > 0;
+  }
+
+  /**
+   * Closes an authenticated channel of a pool once the remote end read all messages written
+   * to it. No further messages are added to the channel. Ordering keys stay bound to it until
+   * it has been closed, so their messages aren't overtaken on another channel.
+   */
+  protected void shutdownChannel(Identifier destination, MessageChannel channel) {
+    ChannelPool pool = pools.get(destination);
+
+    if (pool != null) {
+      pool.remove(channel);
+    }
+
+    channel.shutdown();
+  }
+
+  /**
+   * Returns true if the remote end of the channel has been authenticated.
+   */
+  protected boolean isAuthenticated(MessageChannel channel) {
+    Context context = channelContexts.get(channel);
+    return context != null && context.isAuthenticated();
+  }
+
+  /**
+   * Returns the pool of channels to the destination. Creates the pool if necessary.
+   */
+  protected ChannelPool getPool(Identifier destination) {
+    ChannelPool pool = pools.get(destination);
+
+    if (pool == null) {
+      pool = new ChannelPool();
+      pools.put(destination, pool);
+    }
+
+    return pool;
+  }
+
+  /**
+   * Opens further connections to the destination until the configured number of
+   * connections is open or being opened.
+   */
+  protected void openAdditionalConnections(Identifier destination) {
+    ChannelPool pool = getPool(destination);
+
+    while (pool.size() + pool.connecting() < channelsPerDestination) {
+      InetSocketAddress address = transport.resolve(destination);
+
+      logger.log(Level.INFO, "Opening additional connection to destination " + destination);
+
+      try {
+        MessageChannel channel = connect(destination, address);
+        Context context = new Context(this);
+        context.setConnectTimestamp(System.currentTimeMillis());
+
+        pool.addConnecting(channel);
+        channelMap.put(channel, destination);
+        channelContexts.put(channel, context);
+
+        context.setState(address == null ? context.getConcreteConnect()
+            : context.getConcreteConnectSOCKS());
+      } catch (IOException e) {
+        logger.log(Level.WARNING,
+            "Error while trying to open an additional connection to " + destination, e);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the user id to supply to the SOCKS proxy. Tor doesn't share circuits between
+   * connections with different user ids, which keeps the connections to a destination
+   * from sharing a single circuit.
+   */
+  protected String nextSOCKSUserId() {
+    if (channelsPerDestination == 1) {
+      return "";
+    }
+
+    return "ptp" + isolationId++;
+  }
+
+  /**
+   * Opens a connection to the destination unless one is open or being opened.
+   */
+  protected void openConnection(Identifier destination) {
+    if (!identifierMap.containsKey(destination)) {
+      new Context(this).connect(destination);
+    }
+  }
+
+  /**
+   * Opens connections to all destinations which should be kept warm.
+   */
+  protected void openWantedConnections() {
+    for (Identifier destination : warmConnections.getWanted()) {
+      openConnection(destination);
+    }
+  }
+
+  /**
+   * Reserves room for the message within the limits of pending bytes.
+   * Returns false if the message has to be rejected.
+   */
+  private boolean admit(MessageAttempt attempt) {
+    int length = attempt.getData().length;
+
+    if (!admission.admit(attempt.getDestination(), length)) {
+      metrics.messageRejected();
+
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Rejected message with id " + attempt.getId() + " to "
+            + attempt.getDestination() + " because too many bytes are pending");
+      }
+      return false;
+    }
+
+    metrics.bytesPending(length);
+    return true;
+  }
+
+  /**
+   * Releases the room of an admitted message which has been sent or dropped
+   * and the channel its ordering key is bound to.
+   */
+  protected void messageFinished(MessageAttempt attempt) {
+    int length = attempt.getData().length;
+
+    admission.release(attempt.getDestination(), length);
+    metrics.bytesPending(-length);
+
+    ChannelPool pool = pools.get(attempt.getDestination());
+
+    if (pool != null) {
+      pool.messageFinished(attempt);
+    }
+  }
+
+  /**
+   * Reports a dispatched message which has been written completely as sent.
+   * A message which has already been reported as timed out is only released.
+   */
+  protected void messageWritten(MessageAttempt attempt) {
+    messageFinished(attempt);
+
+    if (attempt.isTimedOut()) {
+      return;
+    }
+
+    metrics.messageSent(attempt.getDestination(), attempt.getData().length);
+
+    if (attempt.isInformSendListener()) {
+      reportResult(attempt, SendListener.State.SUCCESS);
+    }
+
+    if (attempt.getTimeout() != -1
+        && attempt.getSendTimestamp() + attempt.getTimeout() < System.currentTimeMillis()) {
+      logger.log(Level.WARNING,
+          "Message with id " + attempt.getId() + " was sent even though the timer expired");
+    }
+  }
+
+  /**
+   * Returns the payload bytes of the messages which have been passed to send
+   * but haven't been sent or dropped yet.
+   */
+  public long getPendingBytes() {
+    return admission.getPendingBytes();
+  }
+
+  /**
+   * Returns the payload bytes of the messages to the destination which haven't been
+   * sent or dropped yet.
+   */
+  public long getPendingBytes(Identifier destination) {
+    return admission.getPendingBytes(destination);
+  }
+
+  /**
+   * Informs the listener of the attempt about the result of the attempt.
+   * Falls back to the listener of the ConnectionManager.
+   */
+  protected void reportResult(MessageAttempt attempt, SendListener.State state) {
+    SendListener listener = attempt.getSendListener();
+
+    if (listener == null) {
+      listener = sendListener;
+    }
+
+    listener.messageSent(attempt.getId(), attempt.getDestination(), state);
+  }
+
+  /**
+   * Returns the next point in time at which a message or connect request expires
+   * or a retry is due. Returns -1 if there is none.
+   */
+  private long nextDeadline() {
+    return earliest(earliest(pendingMessages.nextDeadline(), dispatchedMessages.nextDeadline()),
+        warmConnections.nextDeadline());
+  }
+
+  private static long earliest(long deadline, long other) {
+    if (deadline == -1 || other == -1) {
+      return Math.max(deadline, other);
+    }
+
+    return Math.min(deadline, other);
+  }
+
+  private void processDeadlines() {
+    long now = System.currentTimeMillis();
+
+    for (MessageAttempt attempt : pendingMessages.expire(now)) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Message with id " + attempt.getId() + " timed out");
+      }
+
+      metrics.messageTimedOut();
+      messageFinished(attempt);
+
+      if (attempt.isInformSendListener()) {
+        reportResult(attempt, SendListener.State.TIMEOUT);
+      }
+    }
+
+    for (MessageAttempt attempt : dispatchedMessages.expire(now)) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Dispatched message with id " + attempt.getId() + " timed out");
+      }
+
+      if (attempt.getDispatchedChannel().removeMessage(attempt.getId(),
+          attempt.getPriority())) {
+        dispatchedMessages.remove(attempt.getId());
+        messageFinished(attempt);
+      } else {
+        // A message which is being written can't be taken back, the rest of it is still
+        // written but it isn't reported again when it's sent
+        attempt.setTimedOut(true);
+      }
+
+      metrics.messageTimedOut();
+
+      if (attempt.isInformSendListener()) {
+        reportResult(attempt, SendListener.State.TIMEOUT);
+      }
+    }
+
+    Identifier destination;
+
+    while ((destination = pendingMessages.pollRetry(now)) != null) {
+      sendPendingMessages(destination);
+
+      if (warmConnections.isWanted(destination)) {
+        openConnection(destination);
+      }
+    }
+
+    warmConnections.expire(now);
+  }
+
   @Override
   public void run() {
     logger.log(Level.INFO, "ConnectionManager thread is running");
 
-    Iterator<Event> it;
     Event event;
-    long unprocessed;
 
     while (!thread.isInterrupted()) {
 
       try {
-        semaphore.acquire();
-        semaphore.drainPermits();
+        long deadline = nextDeadline();
 
-        it = eventQueue.iterator();
-        unprocessed = 0;
+        if (deadline == -1) {
+          semaphore.acquire();
+        } else {
+          // Wake up at the latest when the next message expires or a retry is due
+          long wait = deadline - System.currentTimeMillis();
 
-        while (it.hasNext()) {
-          event = it.next();
-
-          if (event.process()) {
-            it.remove();
-          } else {
-            unprocessed++;
+          if (wait > 0) {
+            semaphore.tryAcquire(wait, TimeUnit.MILLISECONDS);
           }
         }
 
-        // Only EventSendMessage returns false
-        // unprocessed = messages in queue
-        if (unprocessed > 0) {
-          logger.log(Level.INFO, unprocessed + " unsent message(s) in queue");
-          // Wake thread after some time
-          waker.wake(sendMessageRetryInterval);
+        semaphore.drainPermits();
+
+        while ((event = eventQueue.poll()) != null) {
+          metrics.eventProcessed();
+          event.process();
         }
 
+        processDeadlines();
+
       } catch (InterruptedException ie) {
         thread.interrupt();
       }
     }
 
+    // Nobody completes pending connect requests anymore
+    warmConnections.clear();
+
     logger.log(Level.INFO, "ConnectionManager thread finishes execution");
   }
 
   public CryptHelper getCryptHelper() {
     return cryptHelper;
   }
+
+  /**
+   * Returns the cache shared by the authenticators of the ConnectionManager.
+   */
+  public AuthenticationCache getAuthenticationCache() {
+    return authCache;
+  }
+
+  /**
+   * Returns the executor to sign and verify authentication messages with or null
+   * if authenticators should do it on the thread of the ConnectionManager.
+   */
+  public Executor getAuthenticationExecutor() {
+    return authExecutor;
+  }
+
+  /**
+   * Returns an executor running tasks on the thread of the ConnectionManager.
+   */
+  public Executor getEventExecutor() {
+    return eventExecutor;
+  }
+
+  /**
+   * Returns the metrics of the ConnectionManager and its channels.
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Limits the bytes of received messages from a single source which haven't been consumed.
+   * Reading from the connections of a source pauses if the limit is exceeded and resumes
+   * once half of the limit is available again. The sender is slowed down by the flow control
+   * of the connection in the meantime. If a limit is set the ReceiveListener has to call
+   * {@link #messageConsumed(Identifier, int)} for every received message.
+   * Has to be called before the ConnectionManager is started.
+   *
+   * @param limit The limit in bytes or -1 to read without a limit.
+   */
+  public void setReceiveBufferLimit(int limit) {
+    if (limit < -1 || limit == 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.receiveBufferLimit = limit;
+  }
+
+  /**
+   * Sets the listener to inform when reading from a source pauses and resumes.
+   * Has to be called before the ConnectionManager is started.
+   */
+  public void setPauseListener(PauseListener listener) {
+    this.pauseListener = listener;
+  }
+
+  /**
+   * Informs the ConnectionManager that a received message has been consumed.
+   * May be called by any thread.
+   *
+   * @param source The source of the message.
+   * @param length The length of the message.
+   */
+  public void messageConsumed(Identifier source, int length) {
+    int limit = receiveBufferLimit;
+
+    if (limit == -1) {
+      return;
+    }
+
+    AtomicLong bytes = unconsumedBytes.get(source);
+
+    if (bytes == null) {
+      return;
+    }
+
+    long unconsumed = bytes.addAndGet(-length);
+
+    if (unconsumed == 0 && bytes.compareAndSet(0, RETIRED)) {
+      // Keep counters only for sources with unconsumed messages
+      unconsumedBytes.remove(source, bytes);
+    }
+
+    // Only the first consumer below the low-water mark queues an event
+    if (unconsumed <= limit / 2 && pausedSources.contains(source)
+        && resumingSources.add(source)) {
+      addEvent(new EventResumeReading(this, source));
+    }
+  }
+
+  /**
+   * Accounts a received message which has been passed to the ReceiveListener and pauses
+   * reading from the source if the limit of unconsumed bytes has been exceeded.
+   */
+  protected void messageBuffered(Identifier source, int length) {
+    int limit = receiveBufferLimit;
+
+    if (limit == -1) {
+      return;
+    }
+
+    long unconsumed = addUnconsumedBytes(source, length);
+
+    if (unconsumed > limit && pausedSources.add(source)) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Pausing reading from " + source + " because " + unconsumed
+            + " bytes haven't been consumed");
+      }
+
+      metrics.readPaused();
+      setReading(source, false);
+      readingPaused(source);
+
+      // The messages might have been consumed in the meantime
+      resumeReading(source);
+    }
+  }
+
+  /**
+   * Resumes reading from a paused source if enough of its messages have been consumed.
+   */
+  protected void resumeReading(Identifier source) {
+    resumingSources.remove(source);
+
+    if (getUnconsumedBytes(source) <= receiveBufferLimit / 2
+        && pausedSources.remove(source)) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Resuming reading from " + source);
+      }
+
+      setReading(source, true);
+      readingResumed(source);
+    }
+  }
+
+  /**
+   * Informs the PauseListener that reading from a source has been paused.
+   */
+  protected void readingPaused(Identifier source) {
+    PauseListener listener = pauseListener;
+
+    if (listener != null) {
+      listener.readingPaused(source);
+    }
+  }
+
+  /**
+   * Called once the last connection to a source has been closed. A paused source stays paused
+   * so that new connections start paused until its messages have been consumed.
+   */
+  protected void sourceClosed(Identifier source) {
+    if (pausedSources.contains(source)) {
+      readingResumed(source);
+    }
+  }
+
+  private void readingResumed(Identifier source) {
+    PauseListener listener = pauseListener;
+
+    if (listener != null) {
+      listener.readingResumed(source);
+    }
+  }
+
+  private void setReading(Identifier source, boolean enable) {
+    ChannelPool pool = pools.get(source);
+
+    if (pool == null) {
+      return;
+    }
+
+    for (MessageChannel channel : pool.getAuthenticated()) {
+      channelManager.registerRead(channel, enable);
+    }
+  }
+
+  /**
+   * Returns the bytes of received messages from a source which haven't been consumed yet.
+   */
+  public long getUnconsumedBytes(Identifier source) {
+    AtomicLong bytes = unconsumedBytes.get(source);
+
+    if (bytes == null) {
+      return 0;
+    }
+
+    long unconsumed = bytes.get();
+    return unconsumed == RETIRED ? 0 : unconsumed;
+  }
+
+  private long addUnconsumedBytes(Identifier source, int length) {
+    while (true) {
+      AtomicLong bytes = unconsumedBytes.get(source);
+
+      if (bytes == null) {
+        unconsumedBytes.putIfAbsent(source, new AtomicLong(0));
+        continue;
+      }
+
+      long current = bytes.get();
+
+      if (current == RETIRED) {
+        // The counter dropped to 0 and is being removed, use a new one
+        unconsumedBytes.remove(source, bytes);
+        continue;
+      }
+
+      if (bytes.compareAndSet(current, current + length)) {
+        return current + length;
+      }
+    }
+  }
+
+  /**
+   * Queues an event to be processed by the thread of the ConnectionManager.
+   */
+  private void addEvent(Event event) {
+    metrics.eventQueued();
+    eventQueue.add(event);
+    semaphore.release();
+  }
 }
@@ -20,6 +20,10 @@ public class Context {
   private AbstractState concreteAuthenticated;
   private AbstractState concreteClosed;
   private ConnectionManager manager;
+  /** The time the connection was initiated or -1 for incoming connections. */
+  private long connectTimestamp = -1;
+  /** The time the authentication started or -1. */
+  private long authTimestamp = -1;
   
   /**
    * Contructs a new ChannelContext.
@@ -63,6 +67,17 @@ public class Context {
     return state.sendMessage(attempt);
   }
 
+  public void connect(Identifier identifier) {
+    state.connect(identifier);
+  }
+
+  /**
+   * Returns true if the connection has been authenticated.
+   */
+  public boolean isAuthenticated() {
+    return state == concreteAuthenticated;
+  }
+
   public void messageReceived(byte[] data, MessageChannel source) {
     state.messageReceived(data, source);
   }
@@ -74,6 +89,22 @@ public class Context {
   public ConnectionManager getConnectionManager() {
     return manager;
   }
+
+  public long getConnectTimestamp() {
+    return connectTimestamp;
+  }
+
+  public void setConnectTimestamp(long connectTimestamp) {
+    this.connectTimestamp = connectTimestamp;
+  }
+
+  public long getAuthTimestamp() {
+    return authTimestamp;
+  }
+
+  public void setAuthTimestamp(long authTimestamp) {
+    this.authTimestamp = authTimestamp;
+  }
   
   public AbstractState getConcreteInit() {
     return concreteInit;
@@ -0,0 +1,117 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Messages which have been handed to a channel but haven't been written completely yet.
+ * The messages are indexed by their id, by their channel and by their deadline to be able
+ * to expire them or to drop the messages of a closed channel without looking at every message.
+ * Not thread-safe, only used by the thread of the ConnectionManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class DispatchedMessages {
+  private final Map<Long, MessageAttempt> messages = new HashMap<>();
+  private final Map<MessageChannel, Map<Long, MessageAttempt>> channels = new HashMap<>();
+  private final NavigableSet<MessageAttempt> deadlines =
+      new TreeSet<>(new PendingMessages.DeadlineComparator());
+
+  /**
+   * Adds a message which has been handed to the channel returned by
+   * {@link MessageAttempt#getDispatchedChannel()}.
+   */
+  public void add(MessageAttempt attempt) {
+    messages.put(attempt.getId(), attempt);
+
+    Map<Long, MessageAttempt> dispatched = channels.get(attempt.getDispatchedChannel());
+
+    if (dispatched == null) {
+      dispatched = new LinkedHashMap<>();
+      channels.put(attempt.getDispatchedChannel(), dispatched);
+    }
+
+    dispatched.put(attempt.getId(), attempt);
+
+    if (attempt.getTimeout() != -1) {
+      deadlines.add(attempt);
+    }
+  }
+
+  /**
+   * Returns the message with the id or null if there is none.
+   */
+  public MessageAttempt get(long id) {
+    return messages.get(id);
+  }
+
+  /**
+   * Removes and returns the message with the id or null if there is none.
+   */
+  public MessageAttempt remove(long id) {
+    MessageAttempt attempt = messages.remove(id);
+
+    if (attempt != null) {
+      Map<Long, MessageAttempt> dispatched = channels.get(attempt.getDispatchedChannel());
+      dispatched.remove(id);
+
+      if (dispatched.isEmpty()) {
+        channels.remove(attempt.getDispatchedChannel());
+      }
+
+      deadlines.remove(attempt);
+    }
+
+    return attempt;
+  }
+
+  /**
+   * Removes and returns all messages which have been handed to the channel.
+   */
+  public List<MessageAttempt> removeChannel(MessageChannel channel) {
+    List<MessageAttempt> removed = new LinkedList<>();
+    Map<Long, MessageAttempt> dispatched = channels.remove(channel);
+
+    if (dispatched == null) {
+      return removed;
+    }
+
+    for (MessageAttempt attempt : dispatched.values()) {
+      messages.remove(attempt.getId());
+      deadlines.remove(attempt);
+      removed.add(attempt);
+    }
+
+    return removed;
+  }
+
+  /**
+   * Returns all messages whose deadline is reached and stops tracking their deadline.
+   * The messages are kept until they are removed.
+   *
+   * @param now The current time in milliseconds.
+   */
+  public List<MessageAttempt> expire(long now) {
+    List<MessageAttempt> expired = new LinkedList<>();
+
+    while (!deadlines.isEmpty() && deadlines.first().getDeadline() <= now) {
+      expired.add(deadlines.pollFirst());
+    }
+
+    return expired;
+  }
+
+  /**
+   * Returns the next point in time at which a message expires or -1 if there is none.
+   */
+  public long nextDeadline() {
+    return deadlines.isEmpty() ? -1 : deadlines.first().getDeadline();
+  }
+}
@@ -13,7 +13,6 @@ public abstract class Event {
 
   /**
    * Process the event.
-   * @return Returns false if the event should be handled again later.
    */
-  public abstract boolean process();
+  public abstract void process();
 }
@@ -0,0 +1,48 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Class for the event that a connection should be opened ahead of sending messages.
+ */
+
+public class EventConnect extends Event {
+  private Identifier destination;
+  private CompletableFuture<Boolean> future;
+  private long deadline;
+
+  /**
+   * Constructs a new EventConnect.
+   *
+   * @param manager The ConnectionManager.
+   * @param destination The destination to connect to.
+   * @param future The future to complete once the connection is authenticated.
+   * @param deadline The point in time at which the attempt fails or Long.MAX_VALUE.
+   */
+  public EventConnect(ConnectionManager manager, Identifier destination,
+      CompletableFuture<Boolean> future, long deadline) {
+    super(manager);
+
+    this.destination = destination;
+    this.future = future;
+    this.deadline = deadline;
+  }
+
+  @Override
+  public void process() {
+    if (!destination.isValid()) {
+      future.complete(false);
+      return;
+    }
+
+    if (manager.isConnected(destination)) {
+      future.complete(true);
+      return;
+    }
+
+    manager.warmConnections.addWaiter(destination, future, deadline);
+    manager.openConnection(destination);
+  }
+}
@@ -19,7 +19,7 @@ public class EventConnectionClosed extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     Context context = manager.channelContexts.get(channel);
 
     if (context == null) {
@@ -27,7 +27,5 @@ public class EventConnectionClosed extends Event {
     } else {
       context.close(channel);
     }
-
-    return true;
   }
 }
@@ -15,7 +15,7 @@ public class EventConnectionOpened extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     Context context = manager.channelContexts.get(channel);
 
     // check if a context object already exists
@@ -27,6 +27,5 @@ public class EventConnectionOpened extends Event {
     }
 
     context.opened(channel);
-    return true;
   }
 }
@@ -0,0 +1,19 @@
+package edu.kit.tm.ptp.connection;
+
+/**
+ * Class for the event of a task to run on the thread of the ConnectionManager.
+ */
+
+public class EventExecute extends Event {
+  private Runnable task;
+
+  public EventExecute(ConnectionManager manager, Runnable task) {
+    super(manager);
+    this.task = task;
+  }
+
+  @Override
+  public void process() {
+    task.run();
+  }
+}
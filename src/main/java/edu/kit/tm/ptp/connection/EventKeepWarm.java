@@ -0,0 +1,32 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+/**
+ * Class for the event that a connection should be kept open or not.
+ */
+
+public class EventKeepWarm extends Event {
+  private Identifier destination;
+  private boolean keepWarm;
+
+  public EventKeepWarm(ConnectionManager manager, Identifier destination, boolean keepWarm) {
+    super(manager);
+
+    this.destination = destination;
+    this.keepWarm = keepWarm;
+  }
+
+  @Override
+  public void process() {
+    if (!destination.isValid()) {
+      return;
+    }
+
+    manager.warmConnections.pin(destination, keepWarm);
+
+    if (keepWarm) {
+      manager.openConnection(destination);
+    }
+  }
+}
@@ -16,8 +16,8 @@ public class EventMessageReceived extends Event {
   private MessageChannel source;
 
   @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
-      justification = "MessageChannel uses a new buffer for each message"
-          + "and doesn't alter them after reception.")
+      justification = "MessageChannel copies each message into a new array "
+          + "and doesn't alter it after reception.")
   public EventMessageReceived(ConnectionManager manager, byte[] data, MessageChannel source) {
     super(manager);
 
@@ -26,7 +26,7 @@ public class EventMessageReceived extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     Context context = manager.channelContexts.get(source);
 
     if (context == null) {
@@ -35,7 +35,5 @@ public class EventMessageReceived extends Event {
     } else {
       context.messageReceived(data, source);
     }
-
-    return true;
   }
 }
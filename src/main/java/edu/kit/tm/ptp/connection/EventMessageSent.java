@@ -19,7 +19,7 @@ public class EventMessageSent extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     Context context = manager.channelContexts.get(destination);
 
     if (context == null) {
@@ -27,7 +27,5 @@ public class EventMessageSent extends Event {
     } else {
       context.messageSent(id, destination);
     }
-
-    return true;
   }
 }
@@ -0,0 +1,30 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.SendListener;
+
+/**
+ * Class for the event that messages have been handled without being sent.
+ * Used to inform the listeners on the thread of the ConnectionManager.
+ */
+
+public class EventReportResult extends Event {
+  private SendListener.State state;
+  private MessageAttempt[] attempts;
+
+  public EventReportResult(ConnectionManager manager, SendListener.State state,
+      MessageAttempt... attempts) {
+    super(manager);
+
+    this.state = state;
+    this.attempts = attempts;
+  }
+
+  @Override
+  public void process() {
+    for (MessageAttempt attempt : attempts) {
+      if (attempt.isInformSendListener()) {
+        manager.reportResult(attempt, state);
+      }
+    }
+  }
+}
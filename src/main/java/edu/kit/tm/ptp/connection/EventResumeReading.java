@@ -0,0 +1,21 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+/**
+ * Class for the event of messages of a paused source which have been consumed.
+ */
+
+public class EventResumeReading extends Event {
+  private Identifier source;
+
+  public EventResumeReading(ConnectionManager manager, Identifier source) {
+    super(manager);
+    this.source = source;
+  }
+
+  @Override
+  public void process() {
+    manager.resumeReading(source);
+  }
+}
@@ -2,50 +2,70 @@ package edu.kit.tm.ptp.connection;
 
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.SendListener;
-import edu.kit.tm.ptp.channels.MessageChannel;
 
 /**
- * Class for the event that a message should be sent.
+ * Class for the event that one or several messages should be sent.
  */
 
 public class EventSendMessage extends Event {
-  private  MessageAttempt attempt;
+  private  MessageAttempt[] attempts;
 
-  public EventSendMessage(ConnectionManager manager, MessageAttempt attempt) {
+  public EventSendMessage(ConnectionManager manager, MessageAttempt... attempts) {
     super(manager);
 
-    this.attempt = attempt;
+    this.attempts = attempts;
   }
 
   @Override
-  public boolean process() {
+  public void process() {
+    Identifier previous = null;
+
+    for (MessageAttempt attempt : attempts) {
+      if (add(attempt)) {
+        // Park the messages first to send consecutive messages to a destination at once
+        Identifier identifier = attempt.getDestination();
+
+        if (previous != null && !previous.equals(identifier)) {
+          manager.sendPendingMessages(previous);
+        }
+
+        previous = identifier;
+      }
+    }
+
+    if (previous != null) {
+      manager.sendPendingMessages(previous);
+    }
+  }
+
+  /**
+   * Parks the message behind older messages to the destination.
+   * Returns false if the message can't be sent.
+   */
+  private boolean add(MessageAttempt attempt) {
     Identifier identifier = attempt.getDestination();
 
     // Check if identifier is valid
     if (!identifier.isValid()) {
-      manager.sendListener.messageSent(attempt.getId(), identifier,
-          SendListener.State.INVALID_DESTINATION);
-      return true;
+      manager.messageFinished(attempt);
+      manager.reportResult(attempt, SendListener.State.INVALID_DESTINATION);
+      return false;
     }
 
     // Check timeout of message
     if (attempt.getTimeout() != -1
         && System.currentTimeMillis() - attempt.getSendTimestamp() >= attempt.getTimeout()) {
+      manager.metrics.messageTimedOut();
+      manager.messageFinished(attempt);
+
       if (attempt.isInformSendListener()) {
-        manager.sendListener.messageSent(attempt.getId(), attempt.getDestination(),
-            SendListener.State.TIMEOUT);
+        manager.reportResult(attempt, SendListener.State.TIMEOUT);
       }
-      return true;
-    }
-
-    MessageChannel channel = manager.identifierMap.get(identifier);
-    Context context = manager.channelContexts.get(channel);
-
-    if (context == null) {
-      // No channel exists for the destination yet
-      context = new Context(manager);
+      return false;
     }
 
-    return context.sendMessage(attempt);
+    manager.pendingMessages.add(attempt);
+    manager.warmConnections.used(identifier);
+    return true;
   }
 }
@@ -19,15 +19,18 @@ public class EventSetIdentifier extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     if (identifier == null || !identifier.isValid()) {
       manager.logger.log(Level.WARNING, "Identifier is invalid.");
-      return true;
+      return;
     }
 
     manager.localIdentifier = identifier;
     manager.logger.log(Level.INFO, "Set local identifier to " + identifier);
+    manager.registerAtTransport(identifier, -1);
 
-    return true;
+    // Messages might have been delayed because the identifier wasn't known
+    manager.sendPendingMessages();
+    manager.openWantedConnections();
   }
 }
@@ -25,27 +25,30 @@ public class EventSetIdentity extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     if (identifier == null || !identifier.isValid()) {
       manager.logger.log(Level.WARNING, "Identifier is invalid.");
-      return true;
+      return;
     }
 
     if (privateKey == null || !privateKey.exists()) {
       manager.logger.log(Level.WARNING, "PrivateKey is invalid.");
-      return true;
+      return;
     }
 
     try {
       manager.cryptHelper.setKeyPair(CryptHelper.readKeyPairFromFile(privateKey));
     } catch (InvalidKeyException | InvalidKeySpecException | IOException e) {
       manager.logger.log(Level.SEVERE, "Failed to set private key file.");
-      return true;
+      return;
     }
 
     manager.localIdentifier = identifier;
     manager.logger.log(Level.INFO, "Set local identifier to " + identifier);
+    manager.registerAtTransport(identifier, -1);
 
-    return true;
+    // Messages might have been delayed because the identifier wasn't known
+    manager.sendPendingMessages();
+    manager.openWantedConnections();
   }
 }
@@ -16,10 +16,12 @@ public class EventUpdateSOCKS extends Event {
   }
 
   @Override
-  public boolean process() {
+  public void process() {
     manager.socksPort = socksPort;
     manager.socksHost = socksHost;
 
-    return true;
+    // Messages might have been delayed because the proxy wasn't known
+    manager.sendPendingMessages();
+    manager.openWantedConnections();
   }
 }
@@ -0,0 +1,51 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+/**
+ * Interface for classes which allow to set/remove timers and inform an ExpireListener
+ * when they expire.
+ *
+ * @author Timon Hackenjos
+ */
+public interface ITimerManager {
+  /**
+   * Starts the timer manager.
+   */
+  void start();
+
+  /**
+   * Stops the timer manager and clears timeouts.
+   * Does nothing if the manager has been stopped before.
+   */
+  void stop();
+
+  /**
+   * Removes the timeout with the specified class and identifier.
+   */
+  void remove(Identifier identifier, int timerClass);
+
+  /**
+   * Schedules a new timer if none is set already.
+   *
+   * @param identifier The identifier for the timeout.
+   * @param timer The delay in milliseconds.
+   * @param timerClass Identifies different timers of the same identifier.
+   * @return True if a new timer has been scheduled.
+   */
+  boolean setTimerIfNoneExists(Identifier identifier, int timer, int timerClass);
+
+  /**
+   * Schedules a new timer. Overwrites existing ones with the same timerClass and identifier.
+   *
+   * @param identifier The identifier for the timeout.
+   * @param timer The delay in milliseconds.
+   * @param timerClass Identifies different timers of the same identifier.
+   */
+  void setTimer(Identifier identifier, int timer, int timerClass);
+
+  /**
+   * Returns true if the timer manager is running.
+   */
+  boolean isRunning();
+}
@@ -0,0 +1,48 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps identifiers of PTP instances on the local machine to the ports of their bind servers.
+ * ConnectionManagers using the LoopbackTransport register themselves. Instances running
+ * in other processes can be added manually.
+ *
+ * @author Timon Hackenjos
+ */
+public final class LoopbackRegistry {
+  private static final ConcurrentMap<Identifier, Integer> ports = new ConcurrentHashMap<>();
+
+  private LoopbackRegistry() {
+  }
+
+  /**
+   * Registers the port of the bind server of a local PTP instance.
+   */
+  public static void register(Identifier identifier, int port) {
+    if (identifier == null || port <= 0) {
+      throw new IllegalArgumentException();
+    }
+
+    ports.put(identifier, port);
+  }
+
+  /**
+   * Removes the identifier if it's still registered with the supplied port.
+   */
+  public static void unregister(Identifier identifier, int port) {
+    if (identifier != null) {
+      ports.remove(identifier, port);
+    }
+  }
+
+  /**
+   * Returns the port of the bind server of the identifier or -1 if it's unknown.
+   */
+  public static int lookup(Identifier identifier) {
+    Integer port = ports.get(identifier);
+    return port == null ? -1 : port;
+  }
+}
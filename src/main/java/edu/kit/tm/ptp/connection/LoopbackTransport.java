@@ -0,0 +1,35 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Connects directly to the bind server of PTP instances listed in the LoopbackRegistry.
+ * Other destinations are reached through the Tor SOCKS proxy.
+ *
+ * @author Timon Hackenjos
+ */
+public class LoopbackTransport implements Transport {
+  @Override
+  public void register(Identifier identifier, int port) {
+    LoopbackRegistry.register(identifier, port);
+  }
+
+  @Override
+  public void unregister(Identifier identifier, int port) {
+    LoopbackRegistry.unregister(identifier, port);
+  }
+
+  @Override
+  public InetSocketAddress resolve(Identifier destination) {
+    int port = LoopbackRegistry.lookup(destination);
+
+    if (port == -1) {
+      return null;
+    }
+
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+  }
+}
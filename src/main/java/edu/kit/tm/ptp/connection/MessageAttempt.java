@@ -1,6 +1,8 @@
 package edu.kit.tm.ptp.connection;
 
 import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.Priority;
+import edu.kit.tm.ptp.SendListener;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -19,6 +21,10 @@ public class MessageAttempt {
   private Identifier destination;
   private boolean informSendListener;
   private MessageChannel dispatchedChannel = null;
+  private SendListener sendListener = null;
+  private Object orderingKey = null;
+  private Priority priority = Priority.NORMAL;
+  private boolean timedOut = false;
 
   /**
    * Constructs a new MessageAttempt.
@@ -78,6 +84,14 @@ public class MessageAttempt {
     this.timeout = timeout;
   }
 
+  /**
+   * Returns the point in time at which the attempt times out
+   * or Long.MAX_VALUE if the attempt never times out.
+   */
+  public long getDeadline() {
+    return timeout == -1 ? Long.MAX_VALUE : sendTimestamp + timeout;
+  }
+
   public Identifier getDestination() {
     return destination;
   }
@@ -102,6 +116,49 @@ public class MessageAttempt {
     this.dispatchedChannel = dispatchedChannel;
   }
 
+  /**
+   * Returns the listener to inform about the result of the attempt
+   * or null if the listener of the ConnectionManager should be informed.
+   */
+  public SendListener getSendListener() {
+    return sendListener;
+  }
+
+  public void setSendListener(SendListener sendListener) {
+    this.sendListener = sendListener;
+  }
+
+  /**
+   * Returns the key of the messages whose order has to be kept
+   * or null if the message may be sent over any connection.
+   */
+  public Object getOrderingKey() {
+    return orderingKey;
+  }
+
+  public void setOrderingKey(Object orderingKey) {
+    this.orderingKey = orderingKey;
+  }
+
+  public Priority getPriority() {
+    return priority;
+  }
+
+  public void setPriority(Priority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Returns true if the attempt has been reported as timed out while it was being written.
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  public void setTimedOut(boolean timedOut) {
+    this.timedOut = timedOut;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -0,0 +1,27 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+/**
+ * A listener that will be notified when reading from the connections of a source pauses
+ * because its messages haven't been consumed and when it resumes.
+ *
+ * @author Timon Hackenjos
+ */
+public interface PauseListener {
+
+  /**
+   * Notifies this listener that messages from the source aren't read anymore.
+   *
+   * @param source The identifier of the paused source.
+   */
+  public void readingPaused(Identifier source);
+
+  /**
+   * Notifies this listener that messages from the source are read again or that the source
+   * has no connections anymore.
+   *
+   * @param source The identifier of the source.
+   */
+  public void readingResumed(Identifier source);
+}
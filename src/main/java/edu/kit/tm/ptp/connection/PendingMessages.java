@@ -0,0 +1,227 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Messages which couldn't be dispatched to a channel yet.
+ * The messages are parked per destination ordered by their priority and
+ * the order they have been sent
+ * and are additionally indexed by their deadline to be able to expire them
+ * without looking at every message. Also keeps track of the points in time
+ * at which sending to a destination should be retried.
+ * Not thread-safe, only used by the thread of the ConnectionManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class PendingMessages {
+  private final Map<Identifier, NavigableSet<MessageAttempt>> messages = new HashMap<>();
+  private final NavigableSet<MessageAttempt> deadlines =
+      new TreeSet<>(new DeadlineComparator());
+  private final Map<Identifier, Retry> retries = new HashMap<>();
+  private final NavigableSet<Retry> retryTimes = new TreeSet<>();
+  private long retryCounter = 0;
+
+  private static final class PriorityComparator implements Comparator<MessageAttempt> {
+    @Override
+    public int compare(MessageAttempt a1, MessageAttempt a2) {
+      int result = a1.getPriority().compareTo(a2.getPriority());
+
+      if (result != 0) {
+        return result;
+      }
+
+      return Long.compare(a1.getId(), a2.getId());
+    }
+  }
+
+  /**
+   * Orders messages by their deadline and the order they have been sent.
+   */
+  static final class DeadlineComparator implements Comparator<MessageAttempt> {
+    @Override
+    public int compare(MessageAttempt a1, MessageAttempt a2) {
+      int result = Long.compare(a1.getDeadline(), a2.getDeadline());
+
+      if (result != 0) {
+        return result;
+      }
+
+      return Long.compare(a1.getId(), a2.getId());
+    }
+  }
+
+  private static final class Retry implements Comparable<Retry> {
+    private final Identifier identifier;
+    private final long time;
+    private final long sequence;
+
+    private Retry(Identifier identifier, long time, long sequence) {
+      this.identifier = identifier;
+      this.time = time;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Retry other) {
+      int result = Long.compare(time, other.time);
+
+      if (result != 0) {
+        return result;
+      }
+
+      return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Retry && compareTo((Retry) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (sequence ^ (sequence >>> 32));
+    }
+  }
+
+  /**
+   * Parks a message until it can be dispatched.
+   */
+  public void add(MessageAttempt attempt) {
+    NavigableSet<MessageAttempt> queue = messages.get(attempt.getDestination());
+
+    if (queue == null) {
+      queue = new TreeSet<>(new PriorityComparator());
+      messages.put(attempt.getDestination(), queue);
+    }
+
+    queue.add(attempt);
+
+    if (attempt.getTimeout() != -1) {
+      deadlines.add(attempt);
+    }
+  }
+
+  /**
+   * Returns the oldest parked message of the highest priority for the destination
+   * or null if there is none.
+   */
+  public MessageAttempt peek(Identifier destination) {
+    NavigableSet<MessageAttempt> queue = messages.get(destination);
+
+    return queue == null || queue.isEmpty() ? null : queue.first();
+  }
+
+  /**
+   * Removes a parked message.
+   *
+   * @return True if the message has been parked.
+   */
+  public boolean remove(MessageAttempt attempt) {
+    NavigableSet<MessageAttempt> queue = messages.get(attempt.getDestination());
+
+    if (queue == null || !queue.remove(attempt)) {
+      return false;
+    }
+
+    if (queue.isEmpty()) {
+      messages.remove(attempt.getDestination());
+    }
+
+    deadlines.remove(attempt);
+    return true;
+  }
+
+  /**
+   * Returns true if messages are parked for the destination.
+   */
+  public boolean hasMessages(Identifier destination) {
+    return messages.containsKey(destination);
+  }
+
+  /**
+   * Returns the destinations for which messages are parked.
+   */
+  public Set<Identifier> getDestinations() {
+    return messages.keySet();
+  }
+
+  /**
+   * Removes and returns all parked messages whose deadline is reached.
+   *
+   * @param now The current time in milliseconds.
+   */
+  public List<MessageAttempt> expire(long now) {
+    List<MessageAttempt> expired = new LinkedList<>();
+
+    while (!deadlines.isEmpty() && deadlines.first().getDeadline() <= now) {
+      MessageAttempt attempt = deadlines.first();
+      remove(attempt);
+      expired.add(attempt);
+    }
+
+    return expired;
+  }
+
+  /**
+   * Schedules to retry sending the messages of a destination at the supplied time.
+   * Overwrites a previously scheduled retry for the destination.
+   */
+  public void scheduleRetry(Identifier destination, long time) {
+    Retry retry = retries.get(destination);
+
+    if (retry != null) {
+      if (retry.time == time) {
+        return;
+      }
+
+      retryTimes.remove(retry);
+    }
+
+    retry = new Retry(destination, time, retryCounter++);
+    retries.put(destination, retry);
+    retryTimes.add(retry);
+  }
+
+  /**
+   * Removes and returns a destination whose retry time is reached or null if there is none.
+   *
+   * @param now The current time in milliseconds.
+   */
+  public Identifier pollRetry(long now) {
+    if (retryTimes.isEmpty() || retryTimes.first().time > now) {
+      return null;
+    }
+
+    Retry retry = retryTimes.pollFirst();
+    retries.remove(retry.identifier);
+
+    return retry.identifier;
+  }
+
+  /**
+   * Returns the next point in time at which a message expires or a retry is due.
+   * Returns -1 if nothing is scheduled.
+   */
+  public long nextDeadline() {
+    long next = -1;
+
+    if (!deadlines.isEmpty()) {
+      next = deadlines.first().getDeadline();
+    }
+
+    if (!retryTimes.isEmpty() && (next == -1 || retryTimes.first().time < next)) {
+      next = retryTimes.first().time;
+    }
+
+    return next;
+  }
+}
@@ -2,7 +2,6 @@ package edu.kit.tm.ptp.connection;
 
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.ReceiveListener;
-import edu.kit.tm.ptp.SendListener;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
 import java.util.logging.Level;
@@ -25,18 +24,23 @@ public class StateAuthenticated extends StateConnected {
     ConnectionManager manager = context.getConnectionManager();
     
     Identifier identifier = attempt.getDestination();
-    MessageChannel channel = manager.identifierMap.get(identifier);
+    ChannelPool pool = manager.pools.get(identifier);
     
-    manager.logger.log(Level.INFO,
-        "Sending message with id " + attempt.getId() + " to " + attempt.getDestination());
+    if (manager.logger.isLoggable(Level.FINE)) {
+      manager.logger.log(Level.FINE,
+          "Sending message with id " + attempt.getId() + " to " + attempt.getDestination());
+    }
 
-    if (channel == null) {
+    if (pool == null) {
       throw new IllegalStateException();
     }
 
-    if (channel.addMessage(attempt.getData(), attempt.getId())) {
+    MessageChannel channel = pool.addMessage(attempt);
+
+    if (channel != null) {
+      manager.metrics.messageDispatched();
       attempt.setDispatchedChannel(channel);
-      manager.dispatchedMessages.put(attempt.getId(), attempt);
+      manager.dispatchedMessages.add(attempt);
       return true;
     } else {
       return false;
@@ -55,12 +59,17 @@ public class StateAuthenticated extends StateConnected {
       return;
     }
 
-    manager.logger.log(Level.INFO,
-        "Received message from " + identifier + " with size " + data.length);
+    if (manager.logger.isLoggable(Level.FINE)) {
+      manager.logger.log(Level.FINE,
+          "Received message from " + identifier + " with size " + data.length);
+    }
+
+    manager.metrics.messageReceived(identifier, data.length);
 
     ReceiveListener receiveListener = manager.receiveListener;
     if (receiveListener != null) {
       receiveListener.messageReceived(data, identifier);
+      manager.messageBuffered(identifier, data.length);
     } else {
       manager.logger.log(Level.WARNING, "Dropped message because no listener is set.");
     }
@@ -70,24 +79,17 @@ public class StateAuthenticated extends StateConnected {
   public void messageSent(long id, MessageChannel destination) {
     ConnectionManager manager = context.getConnectionManager();
 
-    MessageAttempt attempt = manager.dispatchedMessages.get(id);
+    MessageAttempt attempt = manager.dispatchedMessages.remove(id);
 
     if (attempt == null) {
       manager.logger.log(Level.WARNING, "Unknown message id of sent message " + id);
       throw new IllegalStateException();
     }
 
-    manager.dispatchedMessages.remove(id);
+    manager.messageWritten(attempt);
 
-    if (manager.sendListener != null && attempt.isInformSendListener()) {
-      manager.sendListener.messageSent(id, attempt.getDestination(), SendListener.State.SUCCESS);
-    }
-
-    if (attempt.getTimeout() != -1
-        && attempt.getSendTimestamp() + attempt.getTimeout() < System.currentTimeMillis()) {
-      manager.logger.log(Level.WARNING,
-          "Message with id " + attempt.getId() + " was sent even though the timer expired");
-    }
+    // The channel has room for further messages
+    manager.sendPendingMessages(attempt.getDestination());
 
   }
 }
@@ -30,8 +30,14 @@ public class StateConnect extends AbstractState {
     manager.logger.log(Level.INFO,
         "Trying to connect to " + identifier + " through tor socks proxy");
     
+    // Additional connections to the destination aren't registered in the identifierMap
+    boolean registered = channel.equals(manager.identifierMap.get(identifier));
+    ChannelPool pool = manager.pools.get(identifier);
+
     // remove channel from maps
-    manager.identifierMap.remove(identifier);
+    if (registered) {
+      manager.identifierMap.remove(identifier);
+    }
     manager.channelMap.remove(channel);
     manager.channelContexts.remove(channel);
     
@@ -41,13 +47,18 @@ public class StateConnect extends AbstractState {
     try {
       manager.channelManager.addChannel(socks);
       
-      manager.identifierMap.put(identifier, socks);
+      if (registered) {
+        manager.identifierMap.put(identifier, socks);
+      } else if (pool != null) {
+        pool.replaceConnecting(channel, socks);
+      }
       manager.channelMap.put(socks, identifier);
       manager.channelContexts.put(socks, context);
       
       context.setState(context.getConcreteConnectSOCKS());
 
-      socks.connectThroughSOCKS(identifier.getTorAddress(), manager.hsPort);
+      socks.connectThroughSOCKS(identifier.getTorAddress(), manager.hsPort,
+          manager.nextSOCKSUserId());
     } catch (ClosedChannelException e) {
       manager.logger.log(Level.WARNING, "Channel was closed while adding channel to ChannelManager",
           e);
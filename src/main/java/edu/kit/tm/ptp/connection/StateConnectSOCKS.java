@@ -10,7 +10,8 @@ import java.util.logging.Level;
  * to the tor socks proxy and tries to connect to a
  * hidden service.
  * A state transition is triggered by a successful connect
- * to the hidden service.
+ * to the hidden service. Connections opened directly by the
+ * transport start in this state.
  * 
  * @author Timon Hackenjos
  *
@@ -28,7 +29,7 @@ public class StateConnectSOCKS extends AbstractState {
     Identifier identifier = manager.channelMap.get(channel);
     
     manager.logger.log(Level.INFO,
-        "Connection to " + identifier + " through socks was successfull");
+        "Connection to " + identifier + " was successfull");
 
     if (manager.localIdentifier == null) {
       manager.logger.log(Level.WARNING, "No identifier set. Unable to authenticate the connection");
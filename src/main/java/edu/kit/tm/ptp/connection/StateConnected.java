@@ -44,16 +44,54 @@ public class StateConnected extends AbstractState {
 
       context.setState(context.getConcreteAuthenticated());
 
+      if (context.getAuthTimestamp() != -1) {
+        manager.metrics.authenticated(System.currentTimeMillis() - context.getAuthTimestamp());
+      }
+
+      if (auth != null && (auth.getCapabilities() & Authenticator.COMPRESSION) != 0) {
+        channel.setCompressionThreshold(manager.compressionThreshold);
+      }
+
+      ChannelPool pool = manager.getPool(identifier);
       MessageChannel other = manager.identifierMap.get(identifier);
+      boolean registered = channel.equals(other);
+
+      if (other != null && !registered && !identifier.equals(manager.localIdentifier)) {
+        if (!manager.isAuthenticated(other) || pool.size() >= manager.channelsPerDestination) {
+          manager.logger.log(Level.WARNING,
+              "Another connection to identifier is already open. Closing the old connection.");
+
+          if (manager.isAuthenticated(other)) {
+            // Let the remote end read the messages written to the old connection first
+            manager.shutdownChannel(identifier, other);
+          } else {
+            pool.remove(other);
+            manager.channelClosed(other);
+          }
+          other = null;
+        }
+      }
 
-      if (other != null && !other.equals(channel) && !identifier.equals(manager.localIdentifier)) {
-        manager.logger.log(Level.WARNING,
-            "Another connection to identifier is already open. Closing the old connection.");
-        manager.channelClosed(other);
+      pool.authenticated(channel);
+
+      if (manager.pausedSources.contains(identifier)) {
+        // Reading from the source waits for its messages to be consumed
+        manager.channelManager.registerRead(channel, false);
+        manager.readingPaused(identifier);
       }
 
-      manager.identifierMap.put(identifier, channel);
+      if (other == null || registered || identifier.equals(manager.localIdentifier)) {
+        manager.identifierMap.put(identifier, channel);
+      }
       manager.channelMap.put(channel, identifier);
+
+      if (registered && !identifier.equals(manager.localIdentifier)) {
+        manager.openAdditionalConnections(identifier);
+      }
+
+      // Send messages which waited for the connection
+      manager.sendPendingMessages(identifier);
+      manager.warmConnections.connected(identifier);
     }
   }
 
@@ -62,9 +100,18 @@ public class StateConnected extends AbstractState {
     ConnectionManager manager = context.getConnectionManager();
 
     Identifier other = manager.channelMap.get(channel);
+    long now = System.currentTimeMillis();
+
+    if (context.getConnectTimestamp() != -1) {
+      manager.metrics.connected(now - context.getConnectTimestamp());
+    }
+
+    context.setAuthTimestamp(now);
 
     auth =
         manager.authFactory.createInstance(manager, manager, channel);
+    auth.setCapabilities((manager.compressionThreshold != -1 ? Authenticator.COMPRESSION : 0)
+        | (manager.authCache.ticketsEnabled() ? Authenticator.RESUMPTION : 0));
     if (other != null) {
       auth.authenticate(manager.localIdentifier, other);
     } else {
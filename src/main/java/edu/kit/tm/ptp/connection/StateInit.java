@@ -4,6 +4,7 @@ import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.logging.Level;
 
 /**
@@ -49,41 +50,63 @@ public class StateInit extends AbstractState {
 
   @Override
   public boolean sendMessage(MessageAttempt attempt) {
+    connect(attempt.getDestination());
+    return false;
+  }
+
+  @Override
+  public void connect(Identifier identifier) {
     ConnectionManager manager = context.getConnectionManager();
 
-    Identifier identifier = attempt.getDestination();
     MessageChannel channel = null;
 
     if (manager.localIdentifier == null) {
-      manager.logger.log(Level.INFO, "Delaying message attempt because local Identifier isn't set");
-      return false;
+      manager.logger.log(Level.INFO,
+          "Delaying connection attempt because local Identifier isn't set");
+      return;
     }
 
-    if (manager.socksPort == -1 || manager.socksHost == null) {
-      manager.logger.log(Level.INFO, "Delaying message attempt because socks proxy isn't set");
-      return false;
+    InetSocketAddress address = manager.transport.resolve(identifier);
+
+    if (address == null && (manager.socksPort == -1 || manager.socksHost == null)) {
+      manager.logger.log(Level.INFO, "Delaying connection attempt because socks proxy isn't set");
+      return;
     }
 
     manager.logger.log(Level.INFO, "Connection to destination " + identifier + " is closed");
-    if (manager.lastTry.get(identifier) == null || System.currentTimeMillis()
-        - manager.lastTry.get(identifier) >= manager.connectRetryInterval) {
-      manager.logger.log(Level.INFO, "Opening new connection to destination " + identifier);
-      manager.lastTry.put(identifier, System.currentTimeMillis());
-      try {
-        channel = manager.connect(identifier);
-
-        manager.identifierMap.put(identifier, channel);
-        manager.channelMap.put(channel, identifier);
-        manager.channelContexts.put(channel, context);
-
-        context.setState(context.getConcreteConnect());
-      } catch (IOException ioe) {
-        manager.logger.log(Level.WARNING,
-            "Error while trying to open a new connection to " + identifier, ioe);
-      }
+
+    Long lastTry = manager.lastTry.get(identifier);
+    long now = System.currentTimeMillis();
+
+    if (lastTry != null && now - lastTry < manager.connectRetryInterval) {
+      manager.logger.log(Level.INFO, "Delaying connection attempt to destination " + identifier);
+      manager.pendingMessages.scheduleRetry(identifier, lastTry + manager.connectRetryInterval);
+      return;
     }
 
-    return false;
+    manager.logger.log(Level.INFO, "Opening new connection to destination " + identifier);
+
+    if (lastTry != null) {
+      manager.metrics.reconnect();
+    }
+
+    manager.lastTry.put(identifier, now);
+    context.setConnectTimestamp(now);
+    try {
+      channel = manager.connect(identifier, address);
+
+      manager.identifierMap.put(identifier, channel);
+      manager.channelMap.put(channel, identifier);
+      manager.channelContexts.put(channel, context);
+
+      // A direct connection doesn't need the SOCKS handshake
+      context.setState(address == null ? context.getConcreteConnect()
+          : context.getConcreteConnectSOCKS());
+    } catch (IOException ioe) {
+      manager.logger.log(Level.WARNING,
+          "Error while trying to open a new connection to " + identifier, ioe);
+      manager.pendingMessages.scheduleRetry(identifier, now + manager.connectRetryInterval);
+    }
   }
 
 }
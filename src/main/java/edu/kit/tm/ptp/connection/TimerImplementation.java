@@ -0,0 +1,30 @@
+package edu.kit.tm.ptp.connection;
+
+/**
+ * The available implementations of ITimerManager.
+ *
+ * @author Timon Hackenjos
+ */
+public enum TimerImplementation {
+  /** Decrements all timers at a fixed interval. */
+  INTERVAL,
+  /** Hierarchical timing wheel driven by absolute deadlines. */
+  TIMING_WHEEL;
+
+  /**
+   * Creates a timer manager of this type.
+   *
+   * @param listener The listener that should be notified of expired timers.
+   * @param step The interval (resolution) in milliseconds at which timers are checked.
+   * @param group The ThreadGroup to start the thread in or null.
+   */
+  public ITimerManager create(ExpireListener listener, int step, ThreadGroup group) {
+    switch (this) {
+      case INTERVAL:
+        return new TimerManager(listener, step, group);
+      case TIMING_WHEEL:
+      default:
+        return new TimingWheelTimerManager(listener, step, group);
+    }
+  }
+}
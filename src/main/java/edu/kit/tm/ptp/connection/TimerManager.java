@@ -17,7 +17,7 @@ import java.util.logging.Logger;
  * @author Simeon Andreev
  *
  */
-public class TimerManager implements Runnable  {
+public class TimerManager implements ITimerManager, Runnable  {
 
   /** The logger for this class. */
   private final Logger logger = Logger.getLogger(TimerManager.class.getName());
@@ -130,6 +130,7 @@ public class TimerManager implements Runnable  {
   /**
    * Start the TimerManager.
    */
+  @Override
   public void start() {
     logger.log(Level.INFO, "Starting TimerManager");
     thread.start();
@@ -140,6 +141,7 @@ public class TimerManager implements Runnable  {
    * Stops the TimerManager and clears timeouts.
    * Does nothing if the manager has been stopped before.
    */
+  @Override
   public void stop() {
     logger.log(Level.INFO, "Stopping TimerManager.");
     thread.interrupt();
@@ -160,8 +162,12 @@ public class TimerManager implements Runnable  {
    *
    * @param identifier The identifier that should be removed.
    */
+  @Override
   public synchronized void remove(Identifier identifier, int timerClass) {
-    logger.log(Level.INFO, "Removing identifier from map: " + identifier);
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Removing identifier from map: " + identifier);
+    }
+
     map.remove(new TimerKey(identifier, timerClass));
   }
 
@@ -171,14 +177,23 @@ public class TimerManager implements Runnable  {
    * @param identifier The identifier for the timeout.
    * @param timer The delay in milliseconds.
    * @param timerClass Identifies different timers of the same identifier.
+   * @return True if a new timer has been scheduled.
    */
-  public synchronized void setTimerIfNoneExists(Identifier identifier, int timer, int timerClass) {
+  @Override
+  public synchronized boolean setTimerIfNoneExists(Identifier identifier, int timer,
+      int timerClass) {
     TimerKey key = new TimerKey(identifier, timerClass);
-    if (!map.containsKey(key)) {
-      logger.log(Level.INFO, "Setting timeout (" + timer + "ms) for identifier: " + identifier
+    if (map.containsKey(key)) {
+      return false;
+    }
+
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Setting timeout (" + timer + "ms) for identifier: " + identifier
           + " class: " + timerClass);
-      map.put(key, timer);
     }
+
+    map.put(key, timer);
+    return true;
   }
   
   /**
@@ -188,10 +203,14 @@ public class TimerManager implements Runnable  {
    * @param timer The delay in milliseconds.
    * @param timerClass Identifies different timers of the same identifier.
    */
+  @Override
   public synchronized void setTimer(Identifier identifier, int timer, int timerClass) {
     TimerKey key = new TimerKey(identifier, timerClass);
-    logger.log(Level.INFO, "Setting timeout (" + timer + "ms) for identifier: " + identifier
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Setting timeout (" + timer + "ms) for identifier: " + identifier
           + " class: " + timerClass);
+    }
+
     map.put(key, timer);
   }
 
@@ -230,6 +249,7 @@ public class TimerManager implements Runnable  {
     map.clear();
   }
   
+  @Override
   public boolean isRunning() {
     return thread.isAlive();
   }
@@ -0,0 +1,495 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A TimerManager based on a hierarchical timing wheel.
+ * Setting and removing timers takes constant time and doesn't allocate memory
+ * once an identifier is known. Timers expire at absolute deadlines measured in ticks
+ * of the configured step, the thread only wakes up while timers are scheduled or to forget
+ * identifiers whose timers have been idle for a while.
+ *
+ * @author Timon Hackenjos
+ */
+public class TimingWheelTimerManager implements ITimerManager, Runnable {
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+  /** The number of ticks covered by the wheel. Later deadlines are cascaded again. */
+  private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+  /** The number of ticks the timers of an identifier are kept after all of them expired. */
+  private static final long IDLE_TICKS = SLOTS;
+
+  private final Logger logger = Logger.getLogger(TimingWheelTimerManager.class.getName());
+  private final ExpireListener listener;
+  /** The length of a tick in nanoseconds. */
+  private final long tick;
+  private final Thread thread;
+  private final long startTime = System.nanoTime();
+  private final Node[][] wheel = new Node[LEVELS][SLOTS];
+  private final Map<Identifier, Entry> entries = new HashMap<>();
+
+  /** The last tick which has been processed. */
+  private long currentTick = 0;
+  private int scheduled = 0;
+  /** Entries without scheduled timers, the least recently used first. */
+  private Entry idleHead = null;
+  private Entry idleTail = null;
+
+  private Identifier[] expiredIdentifiers = new Identifier[16];
+  private int[] expiredClasses = new int[16];
+  private int expiredCount = 0;
+
+  /** The timers of an identifier. */
+  private static final class Entry {
+    private final Identifier identifier;
+    private Node[] nodes = new Node[2];
+    private int active = 0;
+    private long idleSince = 0;
+    private boolean idle = false;
+    private Entry idlePrev = null;
+    private Entry idleNext = null;
+
+    private Entry(Identifier identifier) {
+      this.identifier = identifier;
+    }
+  }
+
+  /** A timer which is linked into a slot of the wheel while it's scheduled. */
+  private static final class Node {
+    private final Entry entry;
+    private final int timerClass;
+    private long deadline = 0;
+    private boolean scheduled = false;
+    private int level = 0;
+    private int slot = 0;
+    private Node prev = null;
+    private Node next = null;
+
+    private Node(Entry entry, int timerClass) {
+      this.entry = entry;
+      this.timerClass = timerClass;
+    }
+  }
+
+  /**
+   * Constructor method.
+   *
+   * @param listener The listener that should be notified of expired timers.
+   * @param step The resolution of the timers in milliseconds.
+   */
+  public TimingWheelTimerManager(ExpireListener listener, int step) {
+    this(listener, step, null);
+  }
+
+  /**
+   * Constructor method.
+   *
+   * @param listener The listener that should be notified of expired timers.
+   * @param step The resolution of the timers in milliseconds.
+   * @param group The ThreadGroup to start the thread in or null.
+   */
+  public TimingWheelTimerManager(ExpireListener listener, int step, ThreadGroup group) {
+    if (listener == null) {
+      throw new NullPointerException();
+    }
+
+    if (step < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.listener = listener;
+    this.tick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, step));
+    this.thread = new Thread(group, this);
+  }
+
+  @Override
+  public void start() {
+    logger.log(Level.INFO, "Starting TimingWheelTimerManager");
+    thread.start();
+  }
+
+  @Override
+  public void stop() {
+    logger.log(Level.INFO, "Stopping TimingWheelTimerManager.");
+    thread.interrupt();
+
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      logger.log(Level.INFO,
+          "TimingWheelTimerManager was interrupted while waiting for the thread");
+    }
+
+    clear();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return thread.isAlive();
+  }
+
+  @Override
+  public synchronized void remove(Identifier identifier, int timerClass) {
+    Entry entry = entries.get(identifier);
+
+    if (entry == null || timerClass < 0 || timerClass >= entry.nodes.length) {
+      return;
+    }
+
+    Node node = entry.nodes[timerClass];
+
+    if (node != null && node.scheduled) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Removing timer for identifier: " + identifier
+            + " class: " + timerClass);
+      }
+
+      cancel(node);
+    }
+  }
+
+  @Override
+  public synchronized boolean setTimerIfNoneExists(Identifier identifier, int timer,
+      int timerClass) {
+    Node node = getNode(identifier, timerClass);
+
+    if (node.scheduled) {
+      return false;
+    }
+
+    schedule(node, timer);
+    return true;
+  }
+
+  @Override
+  public synchronized void setTimer(Identifier identifier, int timer, int timerClass) {
+    Node node = getNode(identifier, timerClass);
+
+    if (node.scheduled) {
+      cancel(node);
+    }
+
+    schedule(node, timer);
+  }
+
+  @Override
+  public void run() {
+    logger.log(Level.INFO, "TimingWheelTimerManager entering execution loop.");
+
+    try {
+      while (!thread.isInterrupted()) {
+        int count = advance();
+
+        // Inform the listener without holding the lock
+        for (int i = 0; i < count; i++) {
+          try {
+            listener.expired(expiredIdentifiers[i], expiredClasses[i]);
+          } catch (IOException e) {
+            logger.log(Level.WARNING,
+                "Received IOException while closing a socket: " + e.getMessage());
+          }
+
+          expiredIdentifiers[i] = null;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Thread should stop
+    }
+
+    logger.log(Level.INFO, "TimingWheelTimerManager exiting execution loop.");
+  }
+
+  /**
+   * Waits until a tick with scheduled timers is due and processes all due ticks.
+   * Returns the number of expired timers.
+   */
+  private synchronized int advance() throws InterruptedException {
+    long now = elapsedTicks();
+
+    while (scheduled == 0 || now <= currentTick) {
+      if (scheduled == 0 && idleHead == null) {
+        wait();
+      } else if (scheduled == 0) {
+        long remaining = (idleHead.idleSince + IDLE_TICKS) * tick - elapsedNanos();
+
+        if (remaining > 0) {
+          wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+
+        if (scheduled == 0) {
+          currentTick = Math.max(currentTick, elapsedTicks());
+          evictIdle();
+        }
+      } else {
+        long remaining = (currentTick + 1) * tick - elapsedNanos();
+        wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+      }
+
+      now = elapsedTicks();
+    }
+
+    expiredCount = 0;
+
+    while (currentTick < now && scheduled > 0) {
+      currentTick++;
+      processTick();
+    }
+
+    // Nothing is scheduled anymore, skip the remaining ticks
+    currentTick = now;
+    evictIdle();
+
+    return expiredCount;
+  }
+
+  private void processTick() {
+    int slot = (int) (currentTick & SLOT_MASK);
+
+    // Move timers of the higher levels down once a lower level wrapped around
+    for (int level = 1; level < LEVELS && slot == 0; level++) {
+      slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+      cascade(level, slot);
+    }
+
+    slot = (int) (currentTick & SLOT_MASK);
+    Node node = wheel[0][slot];
+
+    while (node != null) {
+      Node next = node.next;
+
+      if (node.deadline <= currentTick) {
+        cancel(node);
+        addExpired(node);
+      } else {
+        // Deadline is more than a round ahead
+        unlink(node);
+        link(node);
+      }
+
+      node = next;
+    }
+  }
+
+  private void cascade(int level, int slot) {
+    Node node = wheel[level][slot];
+    wheel[level][slot] = null;
+
+    while (node != null) {
+      Node next = node.next;
+      node.prev = null;
+      node.next = null;
+      link(node);
+      node = next;
+    }
+  }
+
+  private void addExpired(Node node) {
+    if (expiredCount == expiredIdentifiers.length) {
+      expiredIdentifiers = Arrays.copyOf(expiredIdentifiers, expiredCount * 2);
+      expiredClasses = Arrays.copyOf(expiredClasses, expiredCount * 2);
+    }
+
+    expiredIdentifiers[expiredCount] = node.entry.identifier;
+    expiredClasses[expiredCount] = node.timerClass;
+    expiredCount++;
+  }
+
+  private Node getNode(Identifier identifier, int timerClass) {
+    if (identifier == null) {
+      throw new NullPointerException();
+    }
+
+    if (timerClass < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    Entry entry = entries.get(identifier);
+
+    if (entry == null) {
+      entry = new Entry(identifier);
+      entries.put(identifier, entry);
+    }
+
+    if (timerClass >= entry.nodes.length) {
+      entry.nodes = Arrays.copyOf(entry.nodes, timerClass + 1);
+    }
+
+    Node node = entry.nodes[timerClass];
+
+    if (node == null) {
+      node = new Node(entry, timerClass);
+      entry.nodes[timerClass] = node;
+    }
+
+    return node;
+  }
+
+  private void schedule(Node node, int timer) {
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Setting timeout (" + timer + "ms) for identifier: "
+          + node.entry.identifier + " class: " + node.timerClass);
+    }
+
+    if (scheduled == 0) {
+      // The wheel has been idle, continue at the current time
+      currentTick = Math.max(currentTick, elapsedTicks());
+      notifyAll();
+    }
+
+    long deadline =
+        (elapsedNanos() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timer)) + tick - 1) / tick;
+    node.deadline = Math.max(deadline, currentTick + 1);
+    node.scheduled = true;
+    link(node);
+    scheduled++;
+
+    Entry entry = node.entry;
+
+    if (entry.active++ == 0 && entry.idle) {
+      unlinkIdle(entry);
+    }
+  }
+
+  private void cancel(Node node) {
+    unlink(node);
+    node.scheduled = false;
+    scheduled--;
+
+    Entry entry = node.entry;
+
+    if (--entry.active == 0) {
+      entry.idleSince = currentTick;
+      linkIdle(entry);
+    }
+  }
+
+  /**
+   * Links the node into the slot matching its deadline.
+   */
+  private void link(Node node) {
+    long delta = node.deadline - currentTick;
+    long deadline = node.deadline;
+
+    if (delta >= MAX_TICKS) {
+      // Place the timer at the end of the wheel, it's cascaded again later
+      deadline = currentTick + MAX_TICKS - 1;
+      delta = MAX_TICKS - 1;
+    }
+
+    int level = 0;
+
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+
+    int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+    node.level = level;
+    node.slot = slot;
+    node.prev = null;
+    node.next = wheel[level][slot];
+
+    if (node.next != null) {
+      node.next.prev = node;
+    }
+
+    wheel[level][slot] = node;
+  }
+
+  private void unlink(Node node) {
+    if (node.prev != null) {
+      node.prev.next = node.next;
+    } else if (wheel[node.level][node.slot] == node) {
+      wheel[node.level][node.slot] = node.next;
+    }
+
+    if (node.next != null) {
+      node.next.prev = node.prev;
+    }
+
+    node.prev = null;
+    node.next = null;
+  }
+
+  private void linkIdle(Entry entry) {
+    entry.idle = true;
+    entry.idlePrev = idleTail;
+    entry.idleNext = null;
+
+    if (idleTail != null) {
+      idleTail.idleNext = entry;
+    } else {
+      idleHead = entry;
+    }
+
+    idleTail = entry;
+  }
+
+  private void unlinkIdle(Entry entry) {
+    if (entry.idlePrev != null) {
+      entry.idlePrev.idleNext = entry.idleNext;
+    } else {
+      idleHead = entry.idleNext;
+    }
+
+    if (entry.idleNext != null) {
+      entry.idleNext.idlePrev = entry.idlePrev;
+    } else {
+      idleTail = entry.idlePrev;
+    }
+
+    entry.idle = false;
+    entry.idlePrev = null;
+    entry.idleNext = null;
+  }
+
+  /**
+   * Forgets identifiers whose timers have been idle for a while.
+   */
+  private void evictIdle() {
+    while (idleHead != null && idleHead.idleSince + IDLE_TICKS <= currentTick) {
+      Entry entry = idleHead;
+      unlinkIdle(entry);
+      entries.remove(entry.identifier);
+    }
+  }
+
+  private long elapsedNanos() {
+    return System.nanoTime() - startTime;
+  }
+
+  private long elapsedTicks() {
+    return elapsedNanos() / tick;
+  }
+
+  /**
+   * Returns the number of identifiers whose timers are kept.
+   */
+  synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Clears all timeouts.
+   */
+  private synchronized void clear() {
+    for (Node[] level : wheel) {
+      Arrays.fill(level, null);
+    }
+
+    entries.clear();
+    idleHead = null;
+    idleTail = null;
+    scheduled = 0;
+  }
+}
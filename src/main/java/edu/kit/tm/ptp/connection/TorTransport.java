@@ -0,0 +1,25 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Reaches every destination through the Tor SOCKS proxy.
+ *
+ * @author Timon Hackenjos
+ */
+public class TorTransport implements Transport {
+  @Override
+  public void register(Identifier identifier, int port) {
+  }
+
+  @Override
+  public void unregister(Identifier identifier, int port) {
+  }
+
+  @Override
+  public InetSocketAddress resolve(Identifier destination) {
+    return null;
+  }
+}
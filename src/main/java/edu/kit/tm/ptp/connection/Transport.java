@@ -0,0 +1,30 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Decides how the ConnectionManager reaches other PTP instances.
+ * Connections opened directly are authenticated like connections through Tor.
+ *
+ * @author Timon Hackenjos
+ */
+public interface Transport {
+  /**
+   * Called once the identifier of the local hidden service and the port of the bind server
+   * are known.
+   */
+  void register(Identifier identifier, int port);
+
+  /**
+   * Called when the ConnectionManager stops.
+   */
+  void unregister(Identifier identifier, int port);
+
+  /**
+   * Returns the address to connect to for reaching the destination directly
+   * or null if the destination has to be reached through the Tor SOCKS proxy.
+   */
+  InetSocketAddress resolve(Identifier destination);
+}
@@ -0,0 +1,26 @@
+package edu.kit.tm.ptp.connection;
+
+/**
+ * The available implementations of Transport.
+ *
+ * @author Timon Hackenjos
+ */
+public enum TransportImplementation {
+  /** Connects to every destination through Tor. */
+  TOR,
+  /** Connects directly to PTP instances on the local machine, otherwise through Tor. */
+  LOOPBACK;
+
+  /**
+   * Creates a transport of this type.
+   */
+  public Transport create() {
+    switch (this) {
+      case LOOPBACK:
+        return new LoopbackTransport();
+      case TOR:
+      default:
+        return new TorTransport();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps track of the destinations the ConnectionManager should stay connected to:
+ * destinations with pending connect requests, pinned destinations and
+ * the most recently used destinations. Connect requests are additionally indexed by
+ * their deadline to be able to expire them without looking at every request.
+ * Only accessed by the thread of the ConnectionManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class WarmConnections {
+  private final Map<Identifier, List<Waiter>> waiters = new HashMap<>();
+  private final NavigableSet<Waiter> deadlines = new TreeSet<>();
+  private long waiterCounter = 0;
+  private final Set<Identifier> pinned = new HashSet<>();
+  private final Map<Identifier, Boolean> recent;
+  private final int capacity;
+
+  /** A pending connect request. */
+  private static final class Waiter implements Comparable<Waiter> {
+    private final Identifier destination;
+    private final CompletableFuture<Boolean> future;
+    private final long deadline;
+    private final long sequence;
+
+    private Waiter(Identifier destination, CompletableFuture<Boolean> future, long deadline,
+        long sequence) {
+      this.destination = destination;
+      this.future = future;
+      this.deadline = deadline;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Waiter other) {
+      int result = Long.compare(deadline, other.deadline);
+
+      if (result != 0) {
+        return result;
+      }
+
+      return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Waiter && compareTo((Waiter) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (sequence ^ (sequence >>> 32));
+    }
+  }
+
+  /**
+   * Constructs a new WarmConnections object.
+   *
+   * @param capacity The number of recently used destinations to stay connected to.
+   */
+  public WarmConnections(final int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.capacity = capacity;
+
+    // Ordered by access, the least recently used destination first
+    recent = new LinkedHashMap<Identifier, Boolean>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Identifier, Boolean> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Adds a connect request which is completed once the destination is connected.
+   *
+   * @param deadline The point in time at which the request fails or Long.MAX_VALUE.
+   */
+  public void addWaiter(Identifier destination, CompletableFuture<Boolean> future,
+      long deadline) {
+    List<Waiter> list = waiters.get(destination);
+
+    if (list == null) {
+      list = new LinkedList<>();
+      waiters.put(destination, list);
+    }
+
+    Waiter waiter = new Waiter(destination, future, deadline, waiterCounter++);
+    list.add(waiter);
+
+    if (deadline != Long.MAX_VALUE) {
+      deadlines.add(waiter);
+    }
+  }
+
+  /**
+   * Completes the connect requests of the destination successfully.
+   */
+  public void connected(Identifier destination) {
+    List<Waiter> list = waiters.remove(destination);
+
+    if (list != null) {
+      for (Waiter waiter : list) {
+        deadlines.remove(waiter);
+        waiter.future.complete(true);
+      }
+    }
+  }
+
+  /**
+   * Fails the connect requests whose deadline has passed.
+   */
+  public void expire(long now) {
+    while (!deadlines.isEmpty() && deadlines.first().deadline <= now) {
+      Waiter waiter = deadlines.pollFirst();
+      List<Waiter> list = waiters.get(waiter.destination);
+
+      list.remove(waiter);
+
+      if (list.isEmpty()) {
+        waiters.remove(waiter.destination);
+      }
+
+      waiter.future.complete(false);
+    }
+  }
+
+  /**
+   * Returns the earliest deadline of a connect request or -1 if there is none.
+   */
+  public long nextDeadline() {
+    return deadlines.isEmpty() ? -1 : deadlines.first().deadline;
+  }
+
+  /**
+   * Fails all connect requests.
+   */
+  public void clear() {
+    for (List<Waiter> list : waiters.values()) {
+      for (Waiter waiter : list) {
+        waiter.future.complete(false);
+      }
+    }
+
+    waiters.clear();
+    deadlines.clear();
+  }
+
+  /**
+   * Stay connected to the destination until it's unpinned.
+   */
+  public void pin(Identifier destination, boolean pin) {
+    if (pin) {
+      pinned.add(destination);
+    } else {
+      pinned.remove(destination);
+    }
+  }
+
+  /**
+   * Informs about a message to the destination.
+   */
+  public void used(Identifier destination) {
+    if (capacity > 0) {
+      recent.put(destination, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Returns true if a connection to the destination should be kept open.
+   */
+  public boolean isWanted(Identifier destination) {
+    return waiters.containsKey(destination) || pinned.contains(destination)
+        || recent.containsKey(destination);
+  }
+
+  /**
+   * Returns all destinations a connection should be kept open to.
+   */
+  public Set<Identifier> getWanted() {
+    Set<Identifier> wanted = new HashSet<>(pinned);
+    wanted.addAll(recent.keySet());
+    wanted.addAll(waiters.keySet());
+    return wanted;
+  }
+}
@@ -22,6 +22,7 @@ import java.security.KeyPair;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Security;
 import java.security.Signature;
@@ -30,18 +31,36 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 
 /**
- * Helper class for cryptographic operations.
+ * Helper class for cryptographic operations. The methods may be called by several threads
+ * concurrently, every thread uses its own Signature, MessageDigest and KeyFactory objects.
  * 
  * @author Timon Hackenjos
  */
 
 public class CryptHelper {
-  protected KeyPair keyPair = null;
-  private Signature sign = null;
-  private Signature verify = null;
-  private MessageDigest sha1 = null;
-  private KeyFactory rsaFactory = null;
-  private Base32 base32 = new Base32();
+  protected volatile KeyPair keyPair = null;
+  private volatile boolean initialized = false;
+  private final ThreadLocal<ThreadState> threadState = new ThreadLocal<>();
+  private final Base32 base32 = new Base32();
+
+  /**
+   * The objects used by a single thread.
+   */
+  private static final class ThreadState {
+    private final Signature sign;
+    private final Signature verify;
+    private final MessageDigest sha1;
+    private final KeyFactory rsaFactory;
+    /** The key sign has been initialized with. */
+    private PrivateKey signKey = null;
+
+    private ThreadState() throws NoSuchAlgorithmException {
+      sign = Signature.getInstance("SHA256withRSA");
+      verify = Signature.getInstance("SHA256withRSA");
+      sha1 = MessageDigest.getInstance("SHA1");
+      rsaFactory = KeyFactory.getInstance("RSA");
+    }
+  }
 
   public CryptHelper() {
     Security.addProvider(new BouncyCastleProvider());
@@ -54,10 +73,29 @@ public class CryptHelper {
    * @throws NoSuchProviderException If the used provider isn't available.
    */
   public void init() throws NoSuchAlgorithmException, NoSuchProviderException {
-    sign = Signature.getInstance("SHA256withRSA");
-    verify = Signature.getInstance("SHA256withRSA");
-    sha1 = MessageDigest.getInstance("SHA1");
-    rsaFactory = KeyFactory.getInstance("RSA");
+    threadState.set(new ThreadState());
+    initialized = true;
+  }
+
+  private ThreadState getThreadState() {
+    if (!initialized) {
+      throw new IllegalStateException("Call init first");
+    }
+
+    ThreadState state = threadState.get();
+
+    if (state == null) {
+      try {
+        state = new ThreadState();
+      } catch (NoSuchAlgorithmException e) {
+        // init succeeded on another thread
+        throw new IllegalStateException("Algorithm unavailable: " + e.getMessage());
+      }
+
+      threadState.set(state);
+    }
+
+    return state;
   }
 
   /**
@@ -66,12 +104,11 @@ public class CryptHelper {
    * @throws InvalidKeyException If the KeyPair can't be used.
    */
   public void setKeyPair(KeyPair keyPair) throws InvalidKeyException {
-    if (sign == null) {
-      throw new IllegalStateException("Call init first");
-    }
+    ThreadState state = getThreadState();
 
+    state.sign.initSign(keyPair.getPrivate());
+    state.signKey = keyPair.getPrivate();
     this.keyPair = keyPair;
-    sign.initSign(keyPair.getPrivate());
   }
 
   /**
@@ -89,17 +126,28 @@ public class CryptHelper {
    * @throws SignatureException If an error occurs while signing.
    */
   public byte[] sign(ByteBuffer data) throws SignatureException {
-    if (keyPair == null) {
+    KeyPair pair = keyPair;
+
+    if (pair == null) {
       throw new IllegalStateException("PrivateKey hasn't been set.");
     }
 
-    if (sign == null) {
-      throw new IllegalStateException("Call init first");
+    ThreadState state = getThreadState();
+
+    if (state.signKey != pair.getPrivate()) {
+      try {
+        state.sign.initSign(pair.getPrivate());
+      } catch (InvalidKeyException e) {
+        // The key has been checked by setKeyPair
+        throw new SignatureException(e);
+      }
+
+      state.signKey = pair.getPrivate();
     }
 
-    sign.update(data);
+    state.sign.update(data);
 
-    return sign.sign();
+    return state.sign.sign();
   }
 
   /**
@@ -115,9 +163,7 @@ public class CryptHelper {
    */
   public boolean verifySignature(ByteBuffer data, byte[] signature, PublicKey pubKey)
       throws InvalidKeyException, SignatureException {
-    if (verify == null) {
-      throw new IllegalStateException("Call init first");
-    }
+    Signature verify = getThreadState().verify;
 
     verify.initVerify(pubKey);
     verify.update(data);
@@ -157,12 +203,8 @@ public class CryptHelper {
    * @throws InvalidKeySpecException If the public key isn't encoded in x509.
    */
   public PublicKey decodePublicKey(byte[] pubKeyBytes) throws InvalidKeySpecException {
-    if (rsaFactory == null) {
-      throw new IllegalStateException("Call init first");
-    }
-
     X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(pubKeyBytes);
-    return rsaFactory.generatePublic(pubKeySpec);
+    return getThreadState().rsaFactory.generatePublic(pubKeySpec);
   }
 
   /**
@@ -172,9 +214,7 @@ public class CryptHelper {
    */
   public Identifier calculateHiddenServiceIdentifier(PublicKey pubKey)
       throws IOException {
-    if (sha1 == null) {
-      throw new IllegalStateException("Call init first");
-    }
+    MessageDigest sha1 = getThreadState().sha1;
 
     SubjectPublicKeyInfo spkInfo = SubjectPublicKeyInfo.getInstance(pubKey.getEncoded());
     /*
@@ -162,6 +162,9 @@ public class PTPFloodingExample {
             case TIMEOUT:
               System.out.println("Sending of message timed out");
               break;
+            case QUEUE_FULL:
+              System.out.println("Message rejected because too many messages are pending");
+              break;
             default:
               break;
           }
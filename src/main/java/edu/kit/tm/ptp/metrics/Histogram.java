@@ -0,0 +1,112 @@
+package edu.kit.tm.ptp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with buckets of exponentially growing size. Values are recorded without locking.
+ * Bucket 0 counts the value 0, bucket i counts the values from 2^(i-1) to 2^i - 1.
+ *
+ * @author Timon Hackenjos
+ */
+public class Histogram {
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+
+    buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+    count.increment();
+    sum.add(value);
+
+    long current = max.get();
+
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of the recorded values.
+   */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the largest recorded value or 0 if no value has been recorded.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values or 0 if no value has been recorded.
+   */
+  public double getMean() {
+    long values = count.sum();
+    return values == 0 ? 0 : (double) sum.sum() / values;
+  }
+
+  /**
+   * Returns the number of values in each bucket.
+   */
+  public long[] getBuckets() {
+    long[] result = new long[BUCKETS];
+
+    for (int i = 0; i < BUCKETS; i++) {
+      result[i] = buckets.get(i);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns an upper bound of the supplied percentile of the recorded values.
+   *
+   * @param percentile The percentile between 0 and 100.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException();
+    }
+
+    long[] counts = getBuckets();
+    long total = 0;
+
+    for (long bucket : counts) {
+      total += bucket;
+    }
+
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+
+      if (seen >= rank && seen > 0) {
+        return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+      }
+    }
+
+    return getMax();
+  }
+}
@@ -0,0 +1,368 @@
+package edu.kit.tm.ptp.metrics;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing the operation of a PTP instance.
+ * Values are recorded without locking and may be read from any thread.
+ * The metrics can be exported over JMX using {@link #registerMBean(String)}.
+ *
+ * @author Timon Hackenjos
+ */
+public class Metrics implements MetricsMXBean {
+  private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+  private static final String DOMAIN = "edu.kit.tm.ptp";
+
+  /** The bytes exchanged with a single peer. */
+  private static final class Peer {
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+  }
+
+  private final LongAdder messagesQueued = new LongAdder();
+  private final LongAdder messagesDispatched = new LongAdder();
+  private final LongAdder messagesSent = new LongAdder();
+  private final LongAdder messagesTimedOut = new LongAdder();
+  private final LongAdder messagesRejected = new LongAdder();
+  private final LongAdder pendingBytes = new LongAdder();
+  private final LongAdder messagesReceived = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder bytesSavedByCompression = new LongAdder();
+  private final LongAdder eventsQueued = new LongAdder();
+  private final LongAdder eventsProcessed = new LongAdder();
+  private final LongAdder timersSet = new LongAdder();
+  private final LongAdder timersExpired = new LongAdder();
+  private final LongAdder reconnects = new LongAdder();
+  private final LongAdder readPauses = new LongAdder();
+  private final Histogram connectLatency = new Histogram();
+  private final Histogram authLatency = new Histogram();
+  private final Histogram selectorLoopTime = new Histogram();
+  private final ConcurrentHashMap<Identifier, Peer> peers = new ConcurrentHashMap<>();
+
+  private ObjectName objectName = null;
+
+  /**
+   * Records messages handed to the ConnectionManager to send.
+   */
+  public void messagesQueued(int messages) {
+    messagesQueued.add(messages);
+  }
+
+  /**
+   * Records a message which has been added to a channel.
+   */
+  public void messageDispatched() {
+    messagesDispatched.increment();
+  }
+
+  /**
+   * Records a message which has been written completely.
+   */
+  public void messageSent(Identifier destination, int length) {
+    messagesSent.increment();
+    bytesSent.add(length);
+    getPeer(destination).bytesSent.add(length);
+  }
+
+  /**
+   * Records a message which couldn't be sent in time.
+   */
+  public void messageTimedOut() {
+    messagesTimedOut.increment();
+  }
+
+  /**
+   * Records a message which has been rejected because too many bytes are pending.
+   */
+  public void messageRejected() {
+    messagesRejected.increment();
+  }
+
+  /**
+   * Records a change of the payload bytes of the messages waiting to be sent.
+   */
+  public void bytesPending(long delta) {
+    pendingBytes.add(delta);
+  }
+
+  /**
+   * Records a received message.
+   */
+  public void messageReceived(Identifier source, int length) {
+    messagesReceived.increment();
+    bytesReceived.add(length);
+    getPeer(source).bytesReceived.add(length);
+  }
+
+  /**
+   * Records a compressed message.
+   *
+   * @param length The length of the message.
+   * @param compressedLength The length of the compressed message.
+   */
+  public void messageCompressed(int length, int compressedLength) {
+    bytesSavedByCompression.add(length - compressedLength);
+  }
+
+  /**
+   * Records the time in milliseconds it took to open a connection.
+   */
+  public void connected(long millis) {
+    connectLatency.record(millis);
+  }
+
+  /**
+   * Records the time in milliseconds it took to authenticate a connection.
+   */
+  public void authenticated(long millis) {
+    authLatency.record(millis);
+  }
+
+  /**
+   * Records the time in microseconds a selector thread spent handling ready channels.
+   */
+  public void selected(long micros) {
+    selectorLoopTime.record(micros);
+  }
+
+  /**
+   * Records an event added to the queue of the ConnectionManager.
+   */
+  public void eventQueued() {
+    eventsQueued.increment();
+  }
+
+  /**
+   * Records an event processed by the ConnectionManager.
+   */
+  public void eventProcessed() {
+    eventsProcessed.increment();
+  }
+
+  /**
+   * Records a request to set a timer.
+   */
+  public void timerSet() {
+    timersSet.increment();
+  }
+
+  /**
+   * Records a timer which expired.
+   */
+  public void timerExpired() {
+    timersExpired.increment();
+  }
+
+  /**
+   * Records a connection attempt to a destination which was connected before.
+   */
+  public void reconnect() {
+    reconnects.increment();
+  }
+
+  /**
+   * Records that reading from a source has been paused because its messages weren't consumed.
+   */
+  public void readPaused() {
+    readPauses.increment();
+  }
+
+  private Peer getPeer(Identifier identifier) {
+    Peer peer = peers.get(identifier);
+
+    if (peer == null) {
+      peer = new Peer();
+      Peer previous = peers.putIfAbsent(identifier, peer);
+
+      if (previous != null) {
+        peer = previous;
+      }
+    }
+
+    return peer;
+  }
+
+  @Override
+  public long getMessagesQueued() {
+    return messagesQueued.sum();
+  }
+
+  @Override
+  public long getMessagesDispatched() {
+    return messagesDispatched.sum();
+  }
+
+  @Override
+  public long getMessagesSent() {
+    return messagesSent.sum();
+  }
+
+  @Override
+  public long getMessagesTimedOut() {
+    return messagesTimedOut.sum();
+  }
+
+  @Override
+  public long getMessagesRejected() {
+    return messagesRejected.sum();
+  }
+
+  @Override
+  public long getPendingBytes() {
+    return pendingBytes.sum();
+  }
+
+  @Override
+  public long getMessagesReceived() {
+    return messagesReceived.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  /**
+   * Returns the number of bytes of messages sent to the destination.
+   */
+  public long getBytesSent(Identifier destination) {
+    Peer peer = peers.get(destination);
+    return peer == null ? 0 : peer.bytesSent.sum();
+  }
+
+  /**
+   * Returns the number of bytes of messages received from the source.
+   */
+  public long getBytesReceived(Identifier source) {
+    Peer peer = peers.get(source);
+    return peer == null ? 0 : peer.bytesReceived.sum();
+  }
+
+  @Override
+  public Map<String, Long> getBytesSentPerPeer() {
+    Map<String, Long> result = new HashMap<>();
+
+    for (Map.Entry<Identifier, Peer> entry : peers.entrySet()) {
+      result.put(entry.getKey().toString(), entry.getValue().bytesSent.sum());
+    }
+
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getBytesReceivedPerPeer() {
+    Map<String, Long> result = new HashMap<>();
+
+    for (Map.Entry<Identifier, Peer> entry : peers.entrySet()) {
+      result.put(entry.getKey().toString(), entry.getValue().bytesReceived.sum());
+    }
+
+    return result;
+  }
+
+  @Override
+  public long getBytesSavedByCompression() {
+    return bytesSavedByCompression.sum();
+  }
+
+  @Override
+  public Histogram getConnectLatency() {
+    return connectLatency;
+  }
+
+  @Override
+  public Histogram getAuthLatency() {
+    return authLatency;
+  }
+
+  @Override
+  public Histogram getSelectorLoopTime() {
+    return selectorLoopTime;
+  }
+
+  @Override
+  public long getEventQueueDepth() {
+    // Read the processed events first to never report a negative depth
+    long processed = eventsProcessed.sum();
+    return Math.max(0, eventsQueued.sum() - processed);
+  }
+
+  @Override
+  public long getEventsProcessed() {
+    return eventsProcessed.sum();
+  }
+
+  @Override
+  public long getTimersSet() {
+    return timersSet.sum();
+  }
+
+  @Override
+  public long getTimersExpired() {
+    return timersExpired.sum();
+  }
+
+  @Override
+  public long getReconnects() {
+    return reconnects.sum();
+  }
+
+  @Override
+  public long getReadPauses() {
+    return readPauses.sum();
+  }
+
+  /**
+   * Exports the metrics over JMX using the platform MBeanServer.
+   *
+   * @param name The name to distinguish several PTP instances.
+   * @return The name the metrics have been registered with.
+   * @throws JMException If the registration fails.
+   */
+  public synchronized ObjectName registerMBean(String name) throws JMException {
+    if (objectName != null) {
+      throw new IllegalStateException("Metrics are registered already");
+    }
+
+    ObjectName newName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+    objectName = newName;
+
+    return objectName;
+  }
+
+  /**
+   * Removes the metrics from the platform MBeanServer. Does nothing if the metrics
+   * haven't been registered.
+   */
+  public synchronized void unregisterMBean() {
+    if (objectName == null) {
+      return;
+    }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      logger.log(Level.WARNING, "Failed to unregister metrics: " + e.getMessage());
+    }
+
+    objectName = null;
+  }
+}
@@ -0,0 +1,73 @@
+package edu.kit.tm.ptp.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface to export the metrics of a PTP instance over JMX.
+ *
+ * @author Timon Hackenjos
+ */
+public interface MetricsMXBean {
+  /** Returns the number of messages handed to the ConnectionManager to send. */
+  long getMessagesQueued();
+
+  /** Returns the number of messages added to a channel. */
+  long getMessagesDispatched();
+
+  /** Returns the number of messages written completely. */
+  long getMessagesSent();
+
+  /** Returns the number of messages which couldn't be sent in time. */
+  long getMessagesTimedOut();
+
+  /** Returns the number of messages rejected because too many bytes were pending. */
+  long getMessagesRejected();
+
+  /** Returns the payload bytes of the messages waiting to be sent. */
+  long getPendingBytes();
+
+  /** Returns the number of received messages. */
+  long getMessagesReceived();
+
+  /** Returns the number of bytes of sent messages. */
+  long getBytesSent();
+
+  /** Returns the number of bytes of received messages. */
+  long getBytesReceived();
+
+  /** Returns the number of bytes of sent messages per destination. */
+  Map<String, Long> getBytesSentPerPeer();
+
+  /** Returns the number of bytes of received messages per source. */
+  Map<String, Long> getBytesReceivedPerPeer();
+
+  /** Returns the number of bytes saved by compressing messages. */
+  long getBytesSavedByCompression();
+
+  /** Returns the time in milliseconds it took to open connections. */
+  Histogram getConnectLatency();
+
+  /** Returns the time in milliseconds it took to authenticate connections. */
+  Histogram getAuthLatency();
+
+  /** Returns the time in microseconds the selector threads spent handling ready channels. */
+  Histogram getSelectorLoopTime();
+
+  /** Returns the number of events waiting to be processed by the ConnectionManager. */
+  long getEventQueueDepth();
+
+  /** Returns the number of events processed by the ConnectionManager. */
+  long getEventsProcessed();
+
+  /** Returns the number of requests to set a timer. */
+  long getTimersSet();
+
+  /** Returns the number of timers which expired. */
+  long getTimersExpired();
+
+  /** Returns the number of connection attempts to destinations which were connected before. */
+  long getReconnects();
+
+  /** Returns how often reading from a source has been paused to wait for its messages. */
+  long getReadPauses();
+}
@@ -6,88 +6,192 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 /**
  * Serializes and deserializes objects using Kryo. To be able to serialize a class it must contain a
  * constructor without any arguments. Classes need to be registered before they can be serialized
  * and deserialized. Also the order in which they are registered is important.
+ * The serializer is thread-safe. Every thread uses an own Kryo instance and buffers which
+ * pick up the registered classes before they are used.
  *
  * @author Timon Hackenjos
  */
 public class Serializer {
-  private Kryo kryo = new Kryo();
-  private Set<Class<?>> registeredClasses = new HashSet<>();
-  
+  /** The initial size of the buffer used to serialize objects. */
+  private static final int initialBufferSize = 1024;
+  /** Larger buffers aren't kept after serializing an object. */
+  private static final int maxKeptBufferSize = 64 * 1024;
+  private static final byte[] empty = new byte[0];
+
+  /** The registered classes in the order of registration. Replaced on every registration. */
+  private volatile Class<?>[] registrations = new Class<?>[0];
+
+  private final ThreadLocal<Instance> instances = new ThreadLocal<Instance>() {
+    @Override
+    protected Instance initialValue() {
+      return new Instance();
+    }
+  };
+
+  /** The Kryo instance and buffers of a thread. */
+  private static final class Instance {
+    private final Kryo kryo = new Kryo();
+    private final Input input = new Input();
+    private Output output = newOutput();
+    /** The number of registrations known to the Kryo instance. */
+    private int registered = 0;
+
+    private void update(Class<?>[] snapshot) {
+      while (registered < snapshot.length) {
+        kryo.register(snapshot[registered]);
+        registered++;
+      }
+    }
+  }
+
   public Serializer() {
   }
 
   /**
    * Serialize an object of a previously registered class.
-   * 
+   *
    * @param obj The object to serialize.
    * @return The bytes representing the object.
    */
   public byte[] serialize(Object obj) {
-    if (obj == null) {
-      throw new IllegalArgumentException("Object to serialize is null");
+    return serializeAll(obj);
+  }
+
+  /**
+   * Serializes several objects of previously registered classes one after another.
+   * A receiver which only deserializes the first object ignores the following ones.
+   *
+   * @param objects The objects to serialize.
+   * @return The bytes representing the objects.
+   * @see #deserializeAll(byte[])
+   */
+  public byte[] serializeAll(Object... objects) {
+    for (Object obj : objects) {
+      if (obj == null) {
+        throw new IllegalArgumentException("Object to serialize is null");
+      }
     }
 
-    // No maximum buffer size
-    Output out = new Output(0, -1);
+    Instance instance = getInstance();
+    Output out = instance.output;
 
-    kryo.writeClassAndObject(out, obj);
+    out.clear();
 
-    return out.getBuffer();
+    try {
+      for (Object obj : objects) {
+        instance.kryo.writeClassAndObject(out, obj);
+      }
+
+      return out.toBytes();
+    } finally {
+      if (out.getBuffer().length > maxKeptBufferSize) {
+        // Don't keep a large buffer after serializing a large object
+        instance.output = newOutput();
+      }
+    }
   }
 
   /**
    * Deserializes a previously serialized object of a class.
-   * 
+   *
    * @param data The bytes representing the object.
    * @return The deserialized object.
    * @throws IOException If an error occurs while deserializing.
    */
   public Object deserialize(byte[] data) throws IOException {
+    return deserialize(data, false).get(0);
+  }
+
+  /**
+   * Deserializes all objects which have been serialized one after another.
+   *
+   * @param data The bytes representing the objects.
+   * @return The deserialized objects in the order they have been serialized.
+   * @throws IOException If an error occurs while deserializing.
+   * @see #serializeAll(Object...)
+   */
+  public List<Object> deserializeAll(byte[] data) throws IOException {
+    return deserialize(data, true);
+  }
+
+  private List<Object> deserialize(byte[] data, boolean all) throws IOException {
     if (data.length == 0) {
       throw new IOException("Can't deserialize empty byte array");
     }
 
-    Object obj = null;
+    Instance instance = getInstance();
+    Input input = instance.input;
+    List<Object> objects = new ArrayList<>(1);
 
     try {
-      Input input = new Input(data);
+      input.setBuffer(data);
+
+      do {
+        Object obj = instance.kryo.readClassAndObject(input);
+
+        if (obj == null) {
+          throw new IOException("Kryo returned null");
+        }
 
-      obj = kryo.readClassAndObject(input);
+        objects.add(obj);
+      } while (all && input.position() < data.length);
     } catch (KryoException e) { // Handling an unchecked exception
       throw new IOException(e.getMessage());
+    } finally {
+      // Don't keep a reference to the data
+      input.setBuffer(empty);
     }
 
-    if (obj == null) {
-      throw new IOException("Kryo returned null");
-    }
-
-    return obj;
+    return objects;
   }
 
   /**
    * Registers the supplied class to be able to serialize objects of the class.
    * Keep in mind that the order of registration matters.
    * Registering a class several times has no effect.
-   * 
+   *
    * @param type The class to register.
    */
-  public <T> void registerClass(Class<T> type) {
-    registeredClasses.add(type);
-    kryo.register(type);
+  public synchronized <T> void registerClass(Class<T> type) {
+    if (isRegistered(type)) {
+      return;
+    }
+
+    Class<?>[] snapshot = Arrays.copyOf(registrations, registrations.length + 1);
+    snapshot[snapshot.length - 1] = type;
+    registrations = snapshot;
   }
 
   /**
    * Returns true if the supplied class type has already been registered.
    */
   public <T> boolean isRegistered(Class<T> type) {
-    return registeredClasses.contains(type);
+    for (Class<?> registered : registrations) {
+      if (registered == type) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private Instance getInstance() {
+    Instance instance = instances.get();
+    instance.update(registrations);
+    return instance;
+  }
+
+  private static Output newOutput() {
+    // No maximum buffer size
+    return new Output(initialBufferSize, -1);
   }
 }
@@ -0,0 +1,81 @@
+package edu.kit.tm.ptp.serialization;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * A part of a stream which is sent as a message of its own.
+ *
+ * @author Timon Hackenjos
+ */
+public class StreamChunk {
+  private long stream;
+  private long sequence;
+  private long offset;
+  private byte[] data;
+  private boolean last;
+  private boolean aborted;
+
+  /**
+   * Constructor is needed to be able to serialize an object.
+   */
+  public StreamChunk() {
+    this.data = null;
+  }
+
+  /**
+   * Constructs a new StreamChunk.
+   *
+   * @param stream The id the sender assigned to the stream.
+   * @param sequence The number of chunks of the stream which were sent before.
+   * @param offset The position of the chunk in the stream.
+   * @param data The bytes of the chunk.
+   * @param last True if the chunk is the last chunk of the stream.
+   * @param aborted True if the sender stopped sending the stream.
+   */
+  @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
+      justification = "StreamChunk is just a simple container."
+          + " Avoid to copy data several times.")
+  public StreamChunk(long stream, long sequence, long offset, byte[] data, boolean last,
+      boolean aborted) {
+    this.stream = stream;
+    this.sequence = sequence;
+    this.offset = offset;
+    this.data = data;
+    this.last = last;
+    this.aborted = aborted;
+  }
+
+  public long getStream() {
+    return stream;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the containing bytes.
+   */
+  @SuppressFBWarnings(value = "EI_EXPOSE_REP",
+      justification = "StreamChunk is just a simple container."
+          + " Avoid to copy data several times.")
+  public byte[] getData() {
+    if (data == null) {
+      throw new IllegalStateException();
+    }
+
+    return data;
+  }
+
+  public boolean isLast() {
+    return last;
+  }
+
+  public boolean isAborted() {
+    return aborted;
+  }
+}
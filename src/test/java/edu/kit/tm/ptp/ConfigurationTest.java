@@ -4,6 +4,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import edu.kit.tm.ptp.channels.SelectorAssignment;
+import edu.kit.tm.ptp.connection.TimerImplementation;
+import edu.kit.tm.ptp.connection.TransportImplementation;
 import edu.kit.tm.ptp.utility.Constants;
 
 import org.junit.After;
@@ -49,6 +52,23 @@ public class ConfigurationTest {
   private int isAliveSendTimeout = -1;
   private int connectRetryInterval = -1;
   private int messageSendRetryInterval = -1;
+  private int selectorThreads = -1;
+  private SelectorAssignment selectorAssignment = null;
+  private TimerImplementation timerImplementation = null;
+  private int dispatcherThreads = -1;
+  private TransportImplementation transport = null;
+  private int warmConnections = -1;
+  private int channelsPerDestination = -1;
+  private int streamChunkSize = -1;
+  private int compressionThreshold = -1;
+  private int resumptionTicketLifetime = -1;
+  private int authenticationThreads = -1;
+  private int receiveBufferLimit = -1;
+  private int maxPendingBytes = -1;
+  private int maxPendingBytesPerDestination = -1;
+  private int streamBufferLimit = -1;
+  private int streamBufferLimitPerSource = -1;
+  private int streamIdleTimeout = -1;
 
   /**
    * @throws IOException
@@ -77,6 +97,26 @@ public class ConfigurationTest {
     timerUpdateInterval = random.nextInt(Integer.MAX_VALUE);
     connectRetryInterval = random.nextInt(Integer.MAX_VALUE);
     messageSendRetryInterval = random.nextInt(Integer.MAX_VALUE);
+    selectorThreads = 1 + random.nextInt(16);
+    selectorAssignment =
+        SelectorAssignment.values()[random.nextInt(SelectorAssignment.values().length)];
+    timerImplementation =
+        TimerImplementation.values()[random.nextInt(TimerImplementation.values().length)];
+    dispatcherThreads = 1 + random.nextInt(16);
+    transport =
+        TransportImplementation.values()[random.nextInt(TransportImplementation.values().length)];
+    warmConnections = random.nextInt(64);
+    channelsPerDestination = 1 + random.nextInt(8);
+    streamChunkSize = 1 + random.nextInt(1024 * 1024);
+    compressionThreshold = random.nextInt(4096);
+    resumptionTicketLifetime = random.nextInt(3600 * 1000);
+    authenticationThreads = random.nextInt(8);
+    receiveBufferLimit = random.nextInt(64 * 1024 * 1024) + 1;
+    maxPendingBytes = random.nextInt(256 * 1024 * 1024);
+    maxPendingBytesPerDestination = random.nextInt(64 * 1024 * 1024);
+    streamBufferLimit = random.nextInt(16 * 1024 * 1024);
+    streamBufferLimitPerSource = random.nextInt(64 * 1024 * 1024);
+    streamIdleTimeout = 1 + random.nextInt(3600 * 1000);
 
     // Write the properties to the input file.
     BufferedWriter writer = new BufferedWriter(
@@ -91,6 +131,31 @@ public class ConfigurationTest {
         + newline);
     output.write(ConfigurationFileReader.MessageSendRetryInterval + " " + messageSendRetryInterval 
         + newline);
+    output.write(ConfigurationFileReader.SelectorThreads + " " + selectorThreads + newline);
+    output.write(ConfigurationFileReader.SelectorAssignment + " " + selectorAssignment + newline);
+    output.write(ConfigurationFileReader.TimerImplementation + " " + timerImplementation
+        + newline);
+    output.write(ConfigurationFileReader.DispatcherThreads + " " + dispatcherThreads + newline);
+    output.write(ConfigurationFileReader.Transport + " " + transport + newline);
+    output.write(ConfigurationFileReader.WarmConnections + " " + warmConnections + newline);
+    output.write(ConfigurationFileReader.ChannelsPerDestination + " " + channelsPerDestination
+        + newline);
+    output.write(ConfigurationFileReader.StreamChunkSize + " " + streamChunkSize + newline);
+    output.write(ConfigurationFileReader.CompressionThreshold + " " + compressionThreshold
+        + newline);
+    output.write(ConfigurationFileReader.ResumptionTicketLifetime + " "
+        + resumptionTicketLifetime + newline);
+    output.write(ConfigurationFileReader.AuthenticationThreads + " " + authenticationThreads
+        + newline);
+    output.write(ConfigurationFileReader.ReceiveBufferLimit + " " + receiveBufferLimit
+        + newline);
+    output.write(ConfigurationFileReader.MaxPendingBytes + " " + maxPendingBytes + newline);
+    output.write(ConfigurationFileReader.MaxPendingBytesPerDestination + " "
+        + maxPendingBytesPerDestination + newline);
+    output.write(ConfigurationFileReader.StreamBufferLimit + " " + streamBufferLimit + newline);
+    output.write(ConfigurationFileReader.StreamBufferLimitPerSource + " "
+        + streamBufferLimitPerSource + newline);
+    output.write(ConfigurationFileReader.StreamIdleTimeout + " " + streamIdleTimeout + newline);
 
     output.flush();
     output.close();
@@ -255,4 +320,243 @@ public class ConfigurationTest {
     }
   }
 
+  /**
+   * Test method for {@link Configuration#getTimerImplementation()}.
+   *
+   * <p>Checks whether the configuration read the TimerImplementation property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetTimerImplementation() {
+    if (timerImplementation != configuration.getTimerImplementation()) {
+      fail("TimerImplementation property does not match: " + timerImplementation + " != "
+          + configuration.getTimerImplementation());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getDispatcherThreads()}.
+   *
+   * <p>Checks whether the configuration read the DispatcherThreads property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetDispatcherThreads() {
+    if (dispatcherThreads != configuration.getDispatcherThreads()) {
+      fail("DispatcherThreads property does not match: " + dispatcherThreads + " != "
+          + configuration.getDispatcherThreads());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getSelectorThreads()}.
+   *
+   * <p>Checks whether the configuration read the SelectorThreads property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetSelectorThreads() {
+    if (selectorThreads != configuration.getSelectorThreads()) {
+      fail("SelectorThreads property does not match: " + selectorThreads + " != "
+          + configuration.getSelectorThreads());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getSelectorAssignment()}.
+   *
+   * <p>Checks whether the configuration read the SelectorAssignment property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetSelectorAssignment() {
+    if (selectorAssignment != configuration.getSelectorAssignment()) {
+      fail("SelectorAssignment property does not match: " + selectorAssignment + " != "
+          + configuration.getSelectorAssignment());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getTransport()}.
+   *
+   * <p>Checks whether the configuration read the Transport property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetTransport() {
+    if (transport != configuration.getTransport()) {
+      fail("Transport property does not match: " + transport + " != "
+          + configuration.getTransport());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getWarmConnections()}.
+   *
+   * <p>Checks whether the configuration read the WarmConnections property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetWarmConnections() {
+    if (warmConnections != configuration.getWarmConnections()) {
+      fail("WarmConnections property does not match: " + warmConnections + " != "
+          + configuration.getWarmConnections());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getChannelsPerDestination()}.
+   *
+   * <p>Checks whether the configuration read the ChannelsPerDestination property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetChannelsPerDestination() {
+    if (channelsPerDestination != configuration.getChannelsPerDestination()) {
+      fail("ChannelsPerDestination property does not match: " + channelsPerDestination + " != "
+          + configuration.getChannelsPerDestination());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getStreamChunkSize()}.
+   *
+   * <p>Checks whether the configuration read the StreamChunkSize property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetStreamChunkSize() {
+    if (streamChunkSize != configuration.getStreamChunkSize()) {
+      fail("StreamChunkSize property does not match: " + streamChunkSize + " != "
+          + configuration.getStreamChunkSize());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getCompressionThreshold()}.
+   *
+   * <p>Checks whether the configuration read the CompressionThreshold property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetCompressionThreshold() {
+    if (compressionThreshold != configuration.getCompressionThreshold()) {
+      fail("CompressionThreshold property does not match: " + compressionThreshold + " != "
+          + configuration.getCompressionThreshold());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getResumptionTicketLifetime()}.
+   *
+   * <p>Checks whether the configuration read the ResumptionTicketLifetime property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetResumptionTicketLifetime() {
+    if (resumptionTicketLifetime != configuration.getResumptionTicketLifetime()) {
+      fail("ResumptionTicketLifetime property does not match: " + resumptionTicketLifetime
+          + " != " + configuration.getResumptionTicketLifetime());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getAuthenticationThreads()}.
+   *
+   * <p>Checks whether the configuration read the AuthenticationThreads property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetAuthenticationThreads() {
+    if (authenticationThreads != configuration.getAuthenticationThreads()) {
+      fail("AuthenticationThreads property does not match: " + authenticationThreads + " != "
+          + configuration.getAuthenticationThreads());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getReceiveBufferLimit()}.
+   *
+   * <p>Checks whether the configuration read the ReceiveBufferLimit property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetReceiveBufferLimit() {
+    if (receiveBufferLimit != configuration.getReceiveBufferLimit()) {
+      fail("ReceiveBufferLimit property does not match: " + receiveBufferLimit + " != "
+          + configuration.getReceiveBufferLimit());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingBytes()}.
+   *
+   * <p>Checks whether the configuration read the MaxPendingBytes property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingBytes() {
+    if (maxPendingBytes != configuration.getMaxPendingBytes()) {
+      fail("MaxPendingBytes property does not match: " + maxPendingBytes + " != "
+          + configuration.getMaxPendingBytes());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingBytesPerDestination()}.
+   *
+   * <p>Checks whether the configuration read the MaxPendingBytesPerDestination property
+   * correctly. Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingBytesPerDestination() {
+    if (maxPendingBytesPerDestination != configuration.getMaxPendingBytesPerDestination()) {
+      fail("MaxPendingBytesPerDestination property does not match: "
+          + maxPendingBytesPerDestination + " != "
+          + configuration.getMaxPendingBytesPerDestination());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getStreamBufferLimit()}.
+   *
+   * <p>Checks whether the configuration read the StreamBufferLimit property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetStreamBufferLimit() {
+    if (streamBufferLimit != configuration.getStreamBufferLimit()) {
+      fail("StreamBufferLimit property does not match: " + streamBufferLimit + " != "
+          + configuration.getStreamBufferLimit());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getStreamBufferLimitPerSource()}.
+   *
+   * <p>Checks whether the configuration read the StreamBufferLimitPerSource property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetStreamBufferLimitPerSource() {
+    if (streamBufferLimitPerSource != configuration.getStreamBufferLimitPerSource()) {
+      fail("StreamBufferLimitPerSource property does not match: " + streamBufferLimitPerSource
+          + " != " + configuration.getStreamBufferLimitPerSource());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getStreamIdleTimeout()}.
+   *
+   * <p>Checks whether the configuration read the StreamIdleTimeout property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetStreamIdleTimeout() {
+    if (streamIdleTimeout != configuration.getStreamIdleTimeout()) {
+      fail("StreamIdleTimeout property does not match: " + streamIdleTimeout + " != "
+          + configuration.getStreamIdleTimeout());
+    }
+  }
+
 }
@@ -1,26 +1,52 @@
 package edu.kit.tm.ptp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.Configuration;
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.PTP;
 import edu.kit.tm.ptp.SendListener;
 import edu.kit.tm.ptp.auth.DummyAuthenticatorFactory;
+import edu.kit.tm.ptp.connection.ChannelPool;
 import edu.kit.tm.ptp.connection.ConnectionManager;
+import edu.kit.tm.ptp.connection.LoopbackRegistry;
+import edu.kit.tm.ptp.connection.LoopbackTransport;
+import edu.kit.tm.ptp.connection.PauseListener;
+import edu.kit.tm.ptp.crypt.CryptHelper;
+import edu.kit.tm.ptp.metrics.Metrics;
 import edu.kit.tm.ptp.serialization.ByteArrayMessage;
 import edu.kit.tm.ptp.serialization.Serializer;
 import edu.kit.tm.ptp.utility.Constants;
 import edu.kit.tm.ptp.utility.TestConstants;
 import edu.kit.tm.ptp.utility.TestHelper;
 
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
 import org.junit.After;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionManagerTest {
   private ConnectionManager manager;
@@ -90,6 +116,688 @@ public class ConnectionManagerTest {
     assertEquals(ptp.getIdentifier(), listener.getDestination());
   }
 
+  @Test
+  public void testSendBatchInvalidDestination() throws IOException {
+    SendReceiveListener listener = new SendReceiveListener();
+    SendReceiveListener batchListener = new SendReceiveListener();
+
+    manager = new ConnectionManager(1000, listener, listener, null);// Dummy port
+    manager.start();
+
+    byte[] data = new byte[] {0x0, 0x1, 0x2, 0x3};
+    Identifier destination = new Identifier("xyz.onion");
+    long[] ids = manager.send(new byte[][] {data, data}, new Identifier[] {destination,
+        destination}, TestConstants.hiddenServiceSetupTimeout, batchListener);
+
+    TestHelper.wait(batchListener.sent, 2, TestConstants.hiddenServiceSetupTimeout);
+
+    // Only the listener of the batch is informed
+    assertEquals(2, batchListener.sent.get());
+    assertEquals(0, listener.sent.get());
+    assertEquals(2, ids.length);
+    assertEquals(ids[0] + 1, ids[1]);
+    assertEquals(ids[1], batchListener.getId());
+    assertEquals(SendListener.State.INVALID_DESTINATION, batchListener.getState());
+  }
+
+  @Test
+  public void testLoopbackTransport() throws IOException {
+    SendReceiveListener receiverListener = new SendReceiveListener();
+    Identifier destination = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiverListener,
+        receiverListener, null, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      // No SOCKS proxy is necessary to reach the receiver
+      manager = new ConnectionManager(1000, listener, listener, null,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      long id = manager.send(new byte[] {0x0, 0x1, 0x2, 0x3}, destination,
+          TestConstants.listenerTimeout);
+
+      TestHelper.wait(receiverListener.received, 1, TestConstants.listenerTimeout);
+
+      assertEquals(1, receiverListener.received.get());
+      assertEquals(id, listener.getId());
+      assertEquals(SendListener.State.SUCCESS, listener.getState());
+
+      Metrics metrics = manager.getMetrics();
+      assertEquals(1, metrics.getMessagesQueued());
+      assertEquals(1, metrics.getMessagesSent());
+      assertEquals(4, metrics.getBytesSent(destination));
+      assertEquals(1, metrics.getConnectLatency().getCount());
+      assertEquals(1, metrics.getAuthLatency().getCount());
+      assertEquals(4, receiver.getMetrics().getBytesReceived());
+    } finally {
+      receiver.stop();
+    }
+
+    // The receiver isn't reachable after stopping
+    assertEquals(-1, LoopbackRegistry.lookup(destination));
+  }
+
+  @Test
+  public void testConnect() throws IOException, InterruptedException, ExecutionException,
+      TimeoutException {
+    SendReceiveListener receiverListener = new SendReceiveListener();
+    Identifier destination = new Identifier("cccccccccccccccc.onion");
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiverListener,
+        receiverListener, null, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      manager = new ConnectionManager(1000, listener, listener, null,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      CompletableFuture<Boolean> connected = manager.connect(destination, -1);
+      assertTrue(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      // Completes immediately for an authenticated connection
+      connected = manager.connect(destination, 0);
+      assertTrue(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      // No SOCKS proxy is set to reach other destinations
+      connected = manager.connect(new Identifier("dddddddddddddddd.onion"), 100);
+      assertFalse(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testChannelsPerDestination() throws IOException, InterruptedException,
+      ExecutionException, TimeoutException {
+    final int keys = 4;
+    final int messages = 200;
+    final List<List<Integer>> results = new ArrayList<>();
+    final AtomicInteger received = new AtomicInteger(0);
+    Identifier destination = new Identifier("eeeeeeeeeeeeeeee.onion");
+
+    for (int i = 0; i < keys; i++) {
+      results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    ReceiveListener receiveListener = new ReceiveListener() {
+      @Override
+      public void messageReceived(byte[] data, Identifier source) {
+        results.get(data[0]).add(ByteBuffer.wrap(data, 1, 4).getInt());
+        received.incrementAndGet();
+      }
+    };
+
+    Configuration config = new Configuration();
+    config.setChannelsPerDestination(3);
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), config, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      manager = new ConnectionManager(1000, listener, listener, config,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      CompletableFuture<Boolean> connected = manager.connect(destination, -1);
+      assertTrue(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      // Give the additional connections time to be authenticated
+      TestHelper.sleep(200);
+
+      for (int j = 0; j < messages; j++) {
+        for (int i = 0; i < keys; i++) {
+          byte[] data = ByteBuffer.allocate(5).put((byte) i).putInt(j).array();
+          manager.sendOrdered(data, destination, TestConstants.listenerTimeout, i);
+        }
+      }
+
+      TestHelper.wait(received, keys * messages, TestConstants.listenerTimeout);
+      assertEquals(keys * messages, received.get());
+      assertEquals(keys * messages, listener.sent.get());
+
+      // Messages with the same key arrive in order
+      for (List<Integer> result : results) {
+        for (int j = 0; j < messages; j++) {
+          assertEquals(j, (int) result.get(j));
+        }
+      }
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testOrderWhilePoolGrows() throws IOException, InterruptedException,
+      ExecutionException, TimeoutException {
+    final int keys = 4;
+    final int messages = 500;
+    OrderedReceiver receiveListener = new OrderedReceiver(keys);
+    Identifier destination = new Identifier("gggggggggggggggg.onion");
+
+    Configuration config = new Configuration();
+    config.setChannelsPerDestination(3);
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), config, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      PoolConnectionManager poolManager = new PoolConnectionManager(listener, config);
+      manager = poolManager;
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      // Start sending before any connection is open, the pool grows in between
+      sendOrdered(destination, keys, 0, messages, 1024);
+
+      TestHelper.wait(receiveListener.received, keys * messages, TestConstants.listenerTimeout);
+      assertEquals(keys * messages, receiveListener.received.get());
+      assertEquals(keys * messages, listener.sent.get());
+      assertEquals(3, poolManager.getPoolSize(destination));
+      receiveListener.assertOrdered(messages);
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testOrderWhenChannelCloses() throws IOException, InterruptedException,
+      ExecutionException, TimeoutException {
+    final int keys = 4;
+    final int messages = 400;
+    OrderedReceiver receiveListener = new OrderedReceiver(keys);
+    Identifier destination = new Identifier("hhhhhhhhhhhhhhhh.onion");
+
+    Configuration config = new Configuration();
+    config.setChannelsPerDestination(3);
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), config, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      PoolConnectionManager poolManager = new PoolConnectionManager(listener, config);
+      manager = poolManager;
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      assertTrue(manager.connect(destination, -1)
+          .get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      long start = System.currentTimeMillis();
+
+      while (poolManager.getPoolSize(destination) < 3
+          && System.currentTimeMillis() - start < TestConstants.listenerTimeout) {
+        Thread.sleep(10);
+      }
+
+      assertEquals(3, poolManager.getPoolSize(destination));
+
+      // Shut a channel down while messages are waiting to be written to it
+      sendOrdered(destination, keys, 0, messages / 2, 16 * 1024);
+      poolManager.closeChannel(destination);
+      sendOrdered(destination, keys, messages / 2, messages, 16 * 1024);
+
+      TestHelper.wait(receiveListener.received, keys * messages, TestConstants.listenerTimeout);
+      assertEquals(keys * messages, receiveListener.received.get());
+      assertEquals(keys * messages, listener.sent.get());
+      receiveListener.assertOrdered(messages);
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  /**
+   * Sends messages with the sequence numbers from first to last, exclusive, for every key.
+   */
+  private void sendOrdered(Identifier destination, int keys, int first, int last, int size) {
+    for (int j = first; j < last; j++) {
+      for (int i = 0; i < keys; i++) {
+        byte[] data = ByteBuffer.allocate(size).put((byte) i).putInt(j).array();
+        manager.sendOrdered(data, destination, TestConstants.listenerTimeout, i);
+      }
+    }
+  }
+
+  /**
+   * Records the sequence numbers of received messages per key.
+   */
+  private static class OrderedReceiver implements ReceiveListener {
+    private final List<List<Integer>> results = new ArrayList<>();
+    private final AtomicInteger received = new AtomicInteger(0);
+
+    private OrderedReceiver(int keys) {
+      for (int i = 0; i < keys; i++) {
+        results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+      }
+    }
+
+    @Override
+    public void messageReceived(byte[] data, Identifier source) {
+      results.get(data[0]).add(ByteBuffer.wrap(data, 1, 4).getInt());
+      received.incrementAndGet();
+    }
+
+    private void assertOrdered(int messages) {
+      for (List<Integer> result : results) {
+        assertEquals(messages, result.size());
+
+        for (int j = 0; j < messages; j++) {
+          assertEquals(j, (int) result.get(j));
+        }
+      }
+    }
+  }
+
+  /**
+   * Allows to inspect and change the pools of channels on the thread of the ConnectionManager.
+   */
+  private static class PoolConnectionManager extends ConnectionManager {
+    private PoolConnectionManager(SendReceiveListener listener, Configuration config) {
+      super(1000, listener, listener, config, new DummyAuthenticatorFactory());// Dummy port
+    }
+
+    private int getPoolSize(final Identifier destination) throws InterruptedException,
+        ExecutionException, TimeoutException {
+      final CompletableFuture<Integer> size = new CompletableFuture<>();
+
+      getEventExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          ChannelPool pool = pools.get(destination);
+          size.complete(pool != null ? pool.size() : 0);
+        }
+      });
+
+      return size.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeChannel(final Identifier destination) {
+      getEventExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          shutdownChannel(destination, pools.get(destination).getAuthenticated().get(0));
+        }
+      });
+    }
+  }
+
+  @Test
+  public void testCompression() throws IOException, InterruptedException, ExecutionException,
+      TimeoutException {
+    final AtomicInteger received = new AtomicInteger(0);
+    final byte[] data = new byte[64 * 1024];
+    Identifier destination = new Identifier("eeeeeeeeeeeeeeee.onion");
+
+    ReceiveListener receiveListener = new ReceiveListener() {
+      @Override
+      public void messageReceived(byte[] message, Identifier source) {
+        if (Arrays.equals(data, message)) {
+          received.incrementAndGet();
+        }
+      }
+    };
+
+    Configuration config = new Configuration();
+    config.setCompressionThreshold(1024);
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), config, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      manager = new ConnectionManager(1000, listener, listener, config,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(new Identifier("aaaaaaaaaaaaaaaa.onion"));
+      manager.start();
+
+      CompletableFuture<Boolean> connected = manager.connect(destination, -1);
+      assertTrue(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      manager.send(data, destination, TestConstants.listenerTimeout);
+
+      TestHelper.wait(received, 1, TestConstants.listenerTimeout);
+      assertEquals(1, received.get());
+      assertTrue(manager.getMetrics().getBytesSavedByCompression() > 0);
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testAuthenticationThreads() throws IOException, GeneralSecurityException,
+      InterruptedException, ExecutionException, TimeoutException {
+    SendReceiveListener receiverListener = new SendReceiveListener();
+    File receiverKey = File.createTempFile("ptp", ".key");
+    File senderKey = File.createTempFile("ptp", ".key");
+    receiverKey.deleteOnExit();
+    senderKey.deleteOnExit();
+    Identifier destination = writeKeyPair(receiverKey);
+
+    Configuration config = new Configuration();
+    config.setAuthenticationThreads(2);
+    config.setResumptionTicketLifetime(60 * 1000);
+    config.setConnectRetryInterval(100);
+
+    ConnectionManager receiver =
+        new ConnectionManager(1000, receiverListener, receiverListener, config);// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setIdentity(receiverKey, destination);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      manager = new ConnectionManager(1000, listener, listener, config);// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setIdentity(senderKey, writeKeyPair(senderKey));
+      manager.start();
+
+      manager.send(new byte[] {0x0}, destination, TestConstants.listenerTimeout);
+      TestHelper.wait(receiverListener.received, 1, TestConstants.listenerTimeout);
+      assertEquals(1, receiverListener.received.get());
+
+      // The second connection is authenticated using a resumption ticket
+      manager.disconnect(destination);
+      CompletableFuture<Boolean> connected = manager.connect(destination, -1);
+      assertTrue(connected.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+      manager.send(new byte[] {0x1}, destination, TestConstants.listenerTimeout);
+      TestHelper.wait(receiverListener.received, 2, TestConstants.listenerTimeout);
+      assertEquals(2, receiverListener.received.get());
+      assertEquals(2, receiver.getMetrics().getAuthLatency().getCount());
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testReceiveBufferLimit() throws IOException, InterruptedException {
+    final int messages = 256;
+    final byte[] data = new byte[64 * 1024];
+    final ConcurrentLinkedQueue<byte[]> unconsumed = new ConcurrentLinkedQueue<>();
+    Identifier source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    Identifier destination = new Identifier("ffffffffffffffff.onion");
+
+    ReceiveListener receiveListener = new ReceiveListener() {
+      @Override
+      public void messageReceived(byte[] message, Identifier source) {
+        unconsumed.add(message);
+      }
+    };
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), null, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+    receiver.setReceiveBufferLimit(data.length * 2);
+    final AtomicInteger paused = new AtomicInteger(0);
+    final AtomicInteger resumed = new AtomicInteger(0);
+    receiver.setPauseListener(new PauseListener() {
+      @Override
+      public void readingPaused(Identifier source) {
+        paused.incrementAndGet();
+      }
+
+      @Override
+      public void readingResumed(Identifier source) {
+        resumed.incrementAndGet();
+      }
+    });
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      SendReceiveListener listener = new SendReceiveListener();
+
+      manager = new ConnectionManager(1000, listener, listener, null,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(source);
+      manager.start();
+
+      for (int i = 0; i < messages; i++) {
+        manager.send(data, destination, 10 * TestConstants.listenerTimeout);
+      }
+
+      Thread.sleep(500);
+      // Reading paused until the messages are consumed
+      assertTrue(unconsumed.size() < messages);
+      assertEquals(1, receiver.getMetrics().getReadPauses());
+      assertEquals(1, paused.get());
+      assertEquals(0, resumed.get());
+
+      int consumed = 0;
+      long start = System.currentTimeMillis();
+
+      while (consumed < messages
+          && System.currentTimeMillis() - start < TestConstants.listenerTimeout) {
+        byte[] message = unconsumed.poll();
+
+        if (message == null) {
+          Thread.sleep(1);
+        } else {
+          consumed++;
+          receiver.messageConsumed(source, message.length);
+        }
+      }
+
+      assertEquals(messages, consumed);
+      assertEquals(0, receiver.getUnconsumedBytes(source));
+      // Reading paused again while the messages have been consumed
+      TestHelper.wait(resumed, paused.get(), TestConstants.listenerTimeout);
+      assertEquals(paused.get(), resumed.get());
+      assertEquals(paused.get(), receiver.getMetrics().getReadPauses());
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testDispatchedTimeout() throws IOException, InterruptedException {
+    final int messages = 128;
+    final long timeout = 1000;
+    final byte[] data = new byte[64 * 1024];
+    final ConcurrentLinkedQueue<byte[]> unconsumed = new ConcurrentLinkedQueue<>();
+    final AtomicInteger timedOut = new AtomicInteger(0);
+    final AtomicInteger reported = new AtomicInteger(0);
+    Identifier source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    Identifier destination = new Identifier("dddddddddddddddd.onion");
+
+    ReceiveListener receiveListener = new ReceiveListener() {
+      @Override
+      public void messageReceived(byte[] message, Identifier source) {
+        unconsumed.add(message);
+      }
+    };
+
+    SendListener listener = new SendListener() {
+      @Override
+      public void messageSent(long id, Identifier destination, State state) {
+        if (state == State.TIMEOUT) {
+          timedOut.incrementAndGet();
+        }
+
+        reported.incrementAndGet();
+      }
+    };
+
+    ConnectionManager receiver = new ConnectionManager(1000, receiveListener,
+        new SendReceiveListener(), null, new DummyAuthenticatorFactory());// Dummy port
+    receiver.setTransport(new LoopbackTransport());
+    receiver.setLocalIdentifier(destination);
+    // Stop reading so the messages pile up in the channel of the sender
+    receiver.setReceiveBufferLimit(data.length);
+
+    try {
+      receiver.start();
+      receiver.startBindServer(Constants.anyport);
+
+      manager = new ConnectionManager(1000, new SendReceiveListener(), listener, null,
+          new DummyAuthenticatorFactory());// Dummy port
+      manager.setTransport(new LoopbackTransport());
+      manager.setLocalIdentifier(source);
+      manager.start();
+
+      for (int i = 0; i < messages; i++) {
+        manager.send(data, destination, timeout);
+      }
+
+      long start = System.currentTimeMillis();
+
+      // Messages which are being written time out as well
+      while (reported.get() < messages
+          && System.currentTimeMillis() - start < 3 * timeout) {
+        Thread.sleep(10);
+      }
+
+      assertEquals(messages, reported.get());
+      assertTrue(timedOut.get() > 0);
+      assertEquals(timedOut.get(), manager.getMetrics().getMessagesTimedOut());
+
+      start = System.currentTimeMillis();
+
+      // The rest of the messages which are being written is still sent
+      while (manager.getPendingBytes() > 0
+          && System.currentTimeMillis() - start < TestConstants.listenerTimeout) {
+        byte[] message = unconsumed.poll();
+
+        if (message == null) {
+          Thread.sleep(1);
+        } else {
+          receiver.messageConsumed(source, message.length);
+        }
+      }
+
+      // Not reported again
+      assertEquals(messages, reported.get());
+      assertEquals(timedOut.get(), manager.getMetrics().getMessagesTimedOut());
+      assertEquals(0, manager.getPendingBytes());
+    } finally {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  public void testMaxPendingBytes() throws IOException {
+    Identifier first = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    Identifier second = new Identifier("bbbbbbbbbbbbbbbb.onion");
+    byte[] data = new byte[4];
+
+    Configuration config = new Configuration();
+    config.setMaxPendingBytes(10);
+    config.setMaxPendingBytesPerDestination(6);
+
+    SendReceiveListener listener = new SendReceiveListener();
+    SendReceiveListener rejected = new SendReceiveListener();
+
+    // Nobody is listening on the destinations so the messages stay pending
+    manager = new ConnectionManager(1000, listener, listener, config,
+        new DummyAuthenticatorFactory());// Dummy port
+    manager.setTransport(new LoopbackTransport());
+    manager.setLocalIdentifier(new Identifier("cccccccccccccccc.onion"));
+    manager.start();
+
+    long timeout = 3000;
+    manager.send(data, first, timeout);
+    // Exceeds the limit of the destination
+    long id = manager.send(data, first, timeout, rejected);
+    manager.send(data, second, timeout);
+    assertEquals(8, manager.getPendingBytes());
+    assertEquals(4, manager.getPendingBytes(first));
+
+    TestHelper.wait(rejected.sent, 1, TestConstants.listenerTimeout);
+    assertEquals(id, rejected.getId());
+    assertEquals(SendListener.State.QUEUE_FULL, rejected.getState());
+
+    // Exceeds the total limit
+    long[] ids = manager.send(new byte[][] {new byte[2], data}, new Identifier[] {second, first},
+        timeout, rejected);
+    assertEquals(10, manager.getPendingBytes());
+
+    TestHelper.wait(rejected.sent, 2, TestConstants.listenerTimeout);
+    assertEquals(ids[1], rejected.getId());
+    assertEquals(SendListener.State.QUEUE_FULL, rejected.getState());
+    assertEquals(2, manager.getMetrics().getMessagesRejected());
+
+    // Room is released when the messages time out
+    TestHelper.wait(listener.sent, 2, TestConstants.listenerTimeout);
+    assertEquals(SendListener.State.TIMEOUT, listener.getState());
+    TestHelper.wait(rejected.sent, 3, TestConstants.listenerTimeout);
+    assertEquals(0, manager.getPendingBytes());
+    assertEquals(0, manager.getMetrics().getPendingBytes());
+  }
+
+  /**
+   * Writes a new RSA key pair to the file and returns the matching hidden service identifier.
+   */
+  private Identifier writeKeyPair(File file) throws IOException, GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair pair = generator.generateKeyPair();
+
+    JcaPEMWriter writer =
+        new JcaPEMWriter(new OutputStreamWriter(new FileOutputStream(file), Constants.charset));
+    writer.writeObject(pair);
+    writer.close();
+
+    CryptHelper helper = new CryptHelper();
+    helper.init();
+    return helper.calculateHiddenServiceIdentifier(pair.getPublic());
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void invalidLocalIdentifier() {
     SendReceiveListener listener = new SendReceiveListener();
@@ -0,0 +1,97 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the MessageDispatcher.
+ *
+ * @author Timon Hackenjos
+ */
+public class MessageDispatcherTest {
+  private MessageDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    dispatcher = new MessageDispatcher(4, null);
+  }
+
+  @After
+  public void tearDown() {
+    dispatcher.stop();
+  }
+
+  @Test
+  public void testOrderPerIdentifier() throws InterruptedException {
+    int identifiers = 8;
+    int tasks = 1000;
+    final CountDownLatch latch = new CountDownLatch(identifiers * tasks);
+    List<List<Integer>> results = new ArrayList<>();
+
+    for (int i = 0; i < identifiers; i++) {
+      results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    for (int j = 0; j < tasks; j++) {
+      for (int i = 0; i < identifiers; i++) {
+        final List<Integer> result = results.get(i);
+        final int value = j;
+
+        dispatcher.dispatch(new Identifier("identifier" + i + ".onion"), new Runnable() {
+          @Override
+          public void run() {
+            result.add(value);
+            latch.countDown();
+          }
+        });
+      }
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    for (List<Integer> result : results) {
+      assertEquals(tasks, result.size());
+
+      for (int j = 0; j < tasks; j++) {
+        assertEquals(j, (int) result.get(j));
+      }
+    }
+  }
+
+  @Test
+  public void testStop() {
+    final List<Integer> result = Collections.synchronizedList(new ArrayList<Integer>());
+    Identifier identifier = new Identifier("identifier.onion");
+
+    dispatcher.dispatch(identifier, new Runnable() {
+      @Override
+      public void run() {
+        result.add(1);
+      }
+    });
+
+    // Waits for the submitted task
+    dispatcher.stop();
+    assertEquals(1, result.size());
+
+    // Tasks are discarded after stopping
+    dispatcher.dispatch(identifier, new Runnable() {
+      @Override
+      public void run() {
+        result.add(2);
+      }
+    });
+
+    assertEquals(1, result.size());
+  }
+}
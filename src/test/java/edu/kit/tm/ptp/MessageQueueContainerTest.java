@@ -0,0 +1,265 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.utility.TestConstants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the lookup of registered types by the containers for listeners and queues.
+ *
+ * @author Timon Hackenjos
+ */
+public class MessageQueueContainerTest {
+  private final Identifier source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+
+  private static class Base {}
+
+  private static class Derived extends Base {}
+
+  @Test
+  public void testDispatch() {
+    MessageQueueContainer container = new MessageQueueContainer();
+    final AtomicInteger called = new AtomicInteger(0);
+
+    assertFalse(container.dispatch("Test", source, 0, 0));
+    assertNull(container.getTypeOrNull("Test"));
+
+    container.putListener(String.class, new MessageReceivedListener<String>() {
+      @Override
+      public void messageReceived(String message, Identifier source) {
+        called.incrementAndGet();
+      }
+    });
+
+    // Registering a type replaces the looked up types
+    assertSame(String.class, container.getTypeOrNull("Test"));
+    assertTrue(container.hasListener("Test"));
+    assertFalse(container.hasQueue("Test"));
+    assertTrue(container.dispatch("Test", source, 0, 0));
+    assertEquals(1, called.get());
+
+    container.addMessageQueue(String.class);
+    assertTrue(container.dispatch("Test", source, 1, 0));
+    assertEquals(2, called.get());
+
+    QueuedMessage<String> message = container.pollMessage(String.class);
+    assertEquals("Test", message.getData());
+    assertEquals(source, message.getSource());
+    assertEquals(1, message.getReceiveTime());
+    assertFalse(container.hasMessage(String.class));
+  }
+
+  @Test
+  public void testSubtypes() {
+    MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Base.class);
+
+    assertSame(Base.class, container.getType(new Derived()));
+    assertFalse(container.hasListener(new Derived()));
+    assertTrue(container.dispatch(new Derived(), source, 0, 0));
+    assertTrue(container.hasMessage(Base.class));
+    assertTrue(container.pollMessage(Base.class).getData() instanceof Derived);
+
+    // The exact class is preferred over a supertype
+    container.addMessageQueue(Derived.class);
+    assertSame(Derived.class, container.getType(new Derived()));
+    assertSame(Base.class, container.getType(new Base()));
+  }
+
+  @Test
+  public void testTakeAndDrain() throws InterruptedException {
+    final MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Integer.class);
+    IMessageQueue<Integer> queue = new MessageQueue<Integer>(Integer.class, container);
+
+    assertNull(queue.take(10));
+
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+
+        container.dispatch(1, source, 0, 0);
+      }
+    });
+    producer.start();
+
+    assertEquals(Integer.valueOf(1), queue.take(TestConstants.listenerTimeout).getData());
+    producer.join();
+
+    for (int i = 0; i < 5; i++) {
+      container.dispatch(i, source, 0, 0);
+    }
+
+    List<QueuedMessage<Integer>> messages = new ArrayList<>();
+    assertEquals(3, queue.drainTo(messages, 3));
+    assertEquals(2, queue.drainTo(messages, 3));
+    assertEquals(5, messages.size());
+    assertEquals(Integer.valueOf(4), messages.get(4).getData());
+    assertFalse(queue.hasMessage());
+  }
+
+  @Test
+  public void testDefaultTakeAndDrain() throws InterruptedException {
+    final MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Integer.class);
+
+    // Implements only the methods queues had to implement before take and drainTo
+    IMessageQueue<Integer> queue = new IMessageQueue<Integer>() {
+      @Override
+      public boolean hasMessage() {
+        return container.hasMessage(Integer.class);
+      }
+
+      @Override
+      public QueuedMessage<Integer> pollMessage() {
+        return container.pollMessage(Integer.class);
+      }
+    };
+
+    assertNull(queue.take(10));
+
+    for (int i = 0; i < 5; i++) {
+      container.dispatch(i, source, 0, 0);
+    }
+
+    assertEquals(Integer.valueOf(0), queue.take(TestConstants.listenerTimeout).getData());
+
+    List<QueuedMessage<Integer>> messages = new ArrayList<>();
+    assertEquals(3, queue.drainTo(messages, 3));
+    assertEquals(1, queue.drainTo(messages, 3));
+    assertEquals(Integer.valueOf(4), messages.get(3).getData());
+    assertFalse(queue.hasMessage());
+  }
+
+  @Test
+  public void testDropPolicies() {
+    MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Integer.class, 2, OverflowPolicy.DROP_OLDEST);
+    container.addMessageQueue(String.class, 2, OverflowPolicy.DROP_NEWEST);
+
+    for (int i = 0; i < 4; i++) {
+      container.dispatch(i, source, 0, 0);
+      container.dispatch(String.valueOf(i), source, 0, 0);
+    }
+
+    assertEquals(Integer.valueOf(2), container.pollMessage(Integer.class).getData());
+    assertEquals(Integer.valueOf(3), container.pollMessage(Integer.class).getData());
+    assertNull(container.pollMessage(Integer.class));
+
+    assertEquals("0", container.pollMessage(String.class).getData());
+    assertEquals("1", container.pollMessage(String.class).getData());
+    assertNull(container.pollMessage(String.class));
+
+    // Space is available again
+    container.dispatch("4", source, 0, 0);
+    assertEquals("4", container.pollMessage(String.class).getData());
+  }
+
+  @Test
+  public void testBlock() {
+    MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Integer.class, 1, OverflowPolicy.BLOCK);
+
+    // Adding doesn't wait for space
+    for (int i = 0; i < 3; i++) {
+      assertTrue(container.dispatch(i, source, 0, 0));
+    }
+
+    // Held messages follow in order once there is space
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Integer.valueOf(i), container.pollMessage(Integer.class).getData());
+    }
+
+    assertNull(container.pollMessage(Integer.class));
+
+    for (int i = 3; i < 6; i++) {
+      container.dispatch(i, source, 0, 0);
+    }
+
+    // Growing the queue takes held messages in
+    container.setQueueCapacity(Integer.class, 2, OverflowPolicy.BLOCK);
+    List<QueuedMessage<Integer>> messages = new ArrayList<>();
+    assertEquals(2, container.drainMessages(Integer.class, messages, 5));
+    assertEquals(Integer.valueOf(4), messages.get(1).getData());
+
+    // Closing drops held messages
+    container.dispatch(6, source, 0, 0);
+    container.dispatch(7, source, 0, 0);
+    container.dispatch(8, source, 0, 0);
+    container.close();
+    assertEquals(Integer.valueOf(5), container.pollMessage(Integer.class).getData());
+    assertEquals(Integer.valueOf(6), container.pollMessage(Integer.class).getData());
+    assertNull(container.pollMessage(Integer.class));
+  }
+
+  @Test
+  public void testHasBlockingQueue() {
+    MessageQueueContainer container = new MessageQueueContainer();
+    container.addMessageQueue(Integer.class, 1, OverflowPolicy.DROP_NEWEST);
+    assertFalse(container.hasBlockingQueue());
+
+    container.setQueueCapacity(Integer.class, 1, OverflowPolicy.BLOCK);
+    assertTrue(container.hasBlockingQueue());
+  }
+
+  @Test
+  public void testConsumed() {
+    final AtomicInteger consumed = new AtomicInteger(0);
+    MessageQueueContainer container = new MessageQueueContainer() {
+      @Override
+      protected void messageConsumed(Identifier source, int length) {
+        consumed.addAndGet(length);
+      }
+    };
+
+    container.putListener(String.class, new MessageReceivedListener<String>() {
+      @Override
+      public void messageReceived(String message, Identifier source) {
+      }
+    });
+    container.addMessageQueue(Integer.class, 1, OverflowPolicy.DROP_NEWEST);
+    container.addMessageQueue(Long.class, 1, OverflowPolicy.BLOCK);
+
+    // Messages without a queue are consumed by the listener
+    container.dispatch("Test", source, 0, 1);
+    assertEquals(1, consumed.get());
+
+    // Queued messages are consumed when they leave the queue
+    container.dispatch(1, source, 0, 10);
+    assertEquals(1, consumed.get());
+    container.dispatch(2, source, 0, 100);
+    assertEquals(101, consumed.get());
+    container.pollMessage(Integer.class);
+    assertEquals(111, consumed.get());
+
+    container.dispatch(1L, source, 0, 1000);
+    container.dispatch(2L, source, 0, 10000);
+    List<QueuedMessage<Long>> messages = new ArrayList<>();
+    container.drainMessages(Long.class, messages, 1);
+    assertEquals(1111, consumed.get());
+
+    container.dispatch(3L, source, 0, 100000);
+    container.close();
+    assertEquals(101111, consumed.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCallUnregisteredListener() {
+    new ListenerContainer().callReceiveListener("Test", source);
+  }
+}
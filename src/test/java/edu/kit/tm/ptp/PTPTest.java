@@ -18,6 +18,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,11 +30,18 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -245,6 +254,151 @@ public class PTPTest {
     assertEquals("Received message does not match sent message.", true, matches.get());
   }
 
+  /**
+   * Sends messages to the own identifier and to an invalid identifier using futures.
+   */
+  @Test
+  public void testSendAsync() throws IOException, InterruptedException, ExecutionException,
+      TimeoutException {
+    client1.init();
+    client1.reuseHiddenService();
+
+    final long timeout = 180 * 1000;
+    final AtomicInteger perMessage = new AtomicInteger(0);
+
+    client1.setSendListener(new SendListener() {
+      @Override
+      public void messageSent(long id, Identifier destination, State state) {
+        perMessage.incrementAndGet();
+      }
+    });
+
+    Identifier identifier = client1.getIdentifier();
+    byte[] data = testString.getBytes(Constants.charset);
+    CompletableFuture<SendResult> future = client1.sendMessageAsync(data, identifier, timeout);
+    CompletableFuture<SendResult> invalid =
+        client1.sendMessageAsync(data, new Identifier("xyz.onion"));
+
+    SendResult result = future.get(timeout + 5 * 1000, TimeUnit.MILLISECONDS);
+    assertTrue(result.isSuccess());
+    assertEquals(identifier, result.getDestination());
+
+    result = invalid.get(timeout, TimeUnit.MILLISECONDS);
+    assertEquals(SendListener.State.INVALID_DESTINATION, result.getState());
+    assertEquals(0, perMessage.get());
+  }
+
+  /**
+   * Sends a stream larger than a single chunk to the own identifier.
+   */
+  @Test
+  public void testSelfSendStream() throws IOException, InterruptedException, ExecutionException,
+      TimeoutException {
+    client1.init();
+    client1.reuseHiddenService();
+
+    final long timeout = 180 * 1000;
+    final byte[] data = new byte[5 * Configuration.DEFAULT_STREAMCHUNKSIZE + 17];
+    new Random().nextBytes(data);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AtomicBoolean complete = new AtomicBoolean(false);
+    final AtomicBoolean inOrder = new AtomicBoolean(true);
+
+    client1.setStreamListener(new StreamListener() {
+      @Override
+      public void chunkReceived(Identifier source, long stream, long offset, byte[] chunk,
+          boolean last) {
+        if (offset != output.size()) {
+          inOrder.set(false);
+        }
+
+        output.write(chunk, 0, chunk.length);
+
+        if (last) {
+          complete.set(true);
+        }
+      }
+
+      @Override
+      public void streamAborted(Identifier source, long stream) {
+        inOrder.set(false);
+      }
+    });
+
+    CompletableFuture<SendResult> future = client1.sendStream(new ByteArrayInputStream(data),
+        client1.getIdentifier(), timeout);
+
+    SendResult result = future.get(timeout + 5 * 1000, TimeUnit.MILLISECONDS);
+    assertTrue(result.isSuccess());
+
+    TestHelper.wait(complete, TestConstants.listenerTimeout);
+    assertTrue(complete.get());
+    assertTrue(inOrder.get());
+    assertTrue(Arrays.equals(data, output.toByteArray()));
+  }
+
+  /**
+   * Sends a batch of messages to the own identifier.
+   */
+  @Test
+  public void testSelfSendBatch() throws IOException {
+    client1.init();
+    client1.reuseHiddenService();
+
+    Identifier identifier = client1.getIdentifier();
+    final int messages = 10;
+    final long timeout = 180 * 1000;
+    final AtomicInteger received = new AtomicInteger(0);
+    final AtomicInteger succeeded = new AtomicInteger(-1);
+    final AtomicInteger perMessage = new AtomicInteger(0);
+
+    client1.setReceiveListener(new ReceiveListenerAdapter() {
+      @Override
+      public void messageReceived(byte[] data, Identifier source) {
+        received.incrementAndGet();
+      }
+    });
+
+    client1.setSendListener(new SendListener() {
+      @Override
+      public void messageSent(long id, Identifier destination, State state) {
+        perMessage.incrementAndGet();
+      }
+    });
+
+    client1.setBatchSendListener(new BatchSendListener() {
+      @Override
+      public void messagesSent(long[] ids, Identifier[] destinations,
+          SendListener.State[] states) {
+        int success = 0;
+
+        for (SendListener.State state : states) {
+          if (state == SendListener.State.SUCCESS) {
+            success++;
+          }
+        }
+
+        succeeded.set(success);
+      }
+    });
+
+    List<byte[]> batch = new ArrayList<>();
+
+    for (int i = 0; i < messages; i++) {
+      batch.add(testString.getBytes(Constants.charset));
+    }
+
+    assertEquals(messages, client1.sendMessages(batch, identifier, timeout).length);
+
+    TestHelper.wait(succeeded, messages, timeout + 5 * 1000);
+    TestHelper.wait(received, messages, 30 * 1000);
+
+    assertEquals(messages, succeeded.get());
+    assertEquals(messages, received.get());
+    assertEquals(0, perMessage.get());
+  }
+
   /**
    * Tests the API wrapper with a ping-pong between two API objects. Fails if a received message
    * does not match the first sent message, or if there is no real ping-pong, or if the number of
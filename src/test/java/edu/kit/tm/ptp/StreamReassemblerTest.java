@@ -0,0 +1,223 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.serialization.StreamChunk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for the StreamReassembler.
+ *
+ * @author Timon Hackenjos
+ */
+public class StreamReassemblerTest {
+  private static final int chunkSize = 10;
+  private static final int idleTimeout = 1000;
+  private Configuration config;
+  private TestReassembler reassembler;
+  private Recorder listener;
+  private Identifier source;
+
+  private static class TestReassembler extends StreamReassembler {
+    private long consumed = 0;
+    private final List<Long> expired = new ArrayList<>();
+
+    private TestReassembler(Configuration config) {
+      super(config);
+    }
+
+    @Override
+    protected void messageConsumed(Identifier source, int length) {
+      consumed += length;
+    }
+
+    @Override
+    protected void streamExpired(Identifier source, long stream) {
+      expired.add(stream);
+    }
+  }
+
+  /**
+   * Records the sequence numbers of the passed chunks, -1 for an abort.
+   */
+  private static class Recorder implements StreamListener {
+    private final List<Long> chunks = new ArrayList<>();
+
+    @Override
+    public void chunkReceived(Identifier source, long stream, long offset, byte[] data,
+        boolean last) {
+      chunks.add(offset / chunkSize);
+    }
+
+    @Override
+    public void streamAborted(Identifier source, long stream) {
+      chunks.add(-1L);
+    }
+
+    private List<Long> poll() {
+      List<Long> polled = new ArrayList<>(chunks);
+      chunks.clear();
+      return polled;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    config = new Configuration();
+    config.setStreamIdleTimeout(idleTimeout);
+    reassembler = new TestReassembler(config);
+    listener = new Recorder();
+    source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  }
+
+  @Test
+  public void testReorder() {
+    add(chunk(1, 2, false));
+    add(chunk(1, 1, false));
+    assertTrue(listener.poll().isEmpty());
+
+    add(chunk(1, 0, false));
+    List<Long> ready = listener.poll();
+    assertEquals(3, ready.size());
+
+    for (int i = 0; i < ready.size(); i++) {
+      assertEquals(i, ready.get(i).longValue());
+    }
+
+    add(chunk(1, 3, true));
+    assertEquals(1, listener.poll().size());
+    // The stream is finished, a chunk which is resent late is dropped
+    add(chunk(1, 0, false));
+    assertTrue(listener.poll().isEmpty());
+    assertEquals(5 * chunkSize, reassembler.consumed);
+  }
+
+  @Test
+  public void testStreamsIndependent() {
+    add(chunk(1, 1, false));
+    assertTrue(listener.poll().isEmpty());
+    add(chunk(2, 0, false));
+    assertEquals(1, listener.poll().size());
+
+    Identifier other = new Identifier("bbbbbbbbbbbbbbbb.onion");
+    reassembler.add(other, chunk(1, 0, false), chunkSize, listener);
+    assertEquals(1, listener.poll().size());
+    add(chunk(1, 0, false));
+    assertEquals(2, listener.poll().size());
+  }
+
+  @Test
+  public void testAbort() {
+    add(chunk(1, 2, false));
+    add(chunk(1, 4, false));
+    assertTrue(listener.poll().isEmpty());
+
+    // Chunk 0 and 1 got lost, chunks 2 and 4 were sent before the abort
+    add(new StreamChunk(1, 5, 5 * chunkSize, new byte[0], true, true));
+    List<Long> ready = listener.poll();
+    assertEquals(3, ready.size());
+    assertEquals(2, ready.get(0).longValue());
+    assertEquals(4, ready.get(1).longValue());
+    assertEquals(-1, ready.get(2).longValue());
+
+    add(chunk(1, 0, false));
+    assertTrue(listener.poll().isEmpty());
+    assertEquals(0, reassembler.getBuffered(source));
+  }
+
+  @Test
+  public void testConsumedOncePassedOn() {
+    add(chunk(1, 1, false));
+    add(chunk(1, 2, false));
+    assertEquals(0, reassembler.consumed);
+    assertEquals(2 * chunkSize, reassembler.getBuffered(source));
+
+    add(chunk(1, 0, false));
+    assertEquals(3 * chunkSize, reassembler.consumed);
+    assertEquals(0, reassembler.getBuffered(source));
+
+    // Chunks without a listener are dropped
+    reassembler.add(source, chunk(1, 3, false), chunkSize, null);
+    assertEquals(4 * chunkSize, reassembler.consumed);
+  }
+
+  @Test
+  public void testStreamLimit() {
+    config.setStreamBufferLimit(2 * chunkSize);
+    reassembler = new TestReassembler(config);
+
+    add(chunk(1, 1, false));
+    add(chunk(1, 2, false));
+    assertTrue(listener.poll().isEmpty());
+
+    add(chunk(1, 3, false));
+    List<Long> ready = listener.poll();
+    assertEquals(1, ready.size());
+    assertEquals(-1, ready.get(0).longValue());
+    assertEquals(3 * chunkSize, reassembler.consumed);
+    assertEquals(0, reassembler.getBuffered(source));
+
+    add(chunk(1, 0, false));
+    assertTrue(listener.poll().isEmpty());
+  }
+
+  @Test
+  public void testSourceLimit() {
+    config.setStreamBufferLimitPerSource(2 * chunkSize);
+    reassembler = new TestReassembler(config);
+
+    add(chunk(1, 1, false));
+    add(chunk(2, 1, false));
+    assertTrue(listener.poll().isEmpty());
+
+    add(chunk(3, 1, false));
+    assertEquals(-1, listener.poll().get(0).longValue());
+    assertEquals(2 * chunkSize, reassembler.getBuffered(source));
+
+    add(chunk(1, 0, false));
+    assertEquals(2, listener.poll().size());
+    assertEquals(chunkSize, reassembler.getBuffered(source));
+  }
+
+  @Test
+  public void testIdleStreamExpires() {
+    long start = System.currentTimeMillis();
+    add(chunk(1, 0, true));
+    add(chunk(2, 1, false));
+    assertEquals(1, listener.poll().size());
+
+    reassembler.expire(source, start + idleTimeout / 2);
+    assertTrue(reassembler.expired.isEmpty());
+    assertEquals(chunkSize, reassembler.getBuffered(source));
+
+    long expiry = System.currentTimeMillis() + idleTimeout;
+    reassembler.expire(source, expiry);
+    assertEquals(1, reassembler.expired.size());
+    assertEquals(2, reassembler.expired.get(0).longValue());
+    assertEquals(0, reassembler.getBuffered(source));
+    assertEquals(2 * chunkSize, reassembler.consumed);
+
+    add(chunk(2, 0, false));
+    assertTrue(listener.poll().isEmpty());
+
+    // The ids are forgotten after the idle timeout
+    reassembler.expire(source, expiry + idleTimeout);
+    add(chunk(2, 0, false));
+    assertEquals(1, listener.poll().size());
+  }
+
+  private void add(StreamChunk chunk) {
+    reassembler.add(source, chunk, chunkSize, listener);
+  }
+
+  private StreamChunk chunk(long stream, long sequence, boolean last) {
+    return new StreamChunk(stream, sequence, sequence * chunkSize, new byte[chunkSize], last,
+        false);
+  }
+}
@@ -0,0 +1,92 @@
+package edu.kit.tm.ptp.auth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+/**
+ * Tests the caching of public keys and resumption tickets.
+ *
+ * @author Timon Hackenjos
+ */
+public class AuthenticationCacheTest {
+  private final Identifier alice = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private final Identifier bob = new Identifier("bbbbbbbbbbbbbbbb.onion");
+  private final Identifier eve = new Identifier("eeeeeeeeeeeeeeee.onion");
+
+  @Test
+  public void testKeys() {
+    AuthenticationCache cache = new AuthenticationCache(0);
+    byte[] encoded = new byte[] {1, 2, 3};
+
+    assertNull(cache.getKey(encoded));
+    cache.putKey(encoded, null, alice);
+    encoded[0] = 4;
+    assertNull(cache.getKey(encoded));
+    encoded[0] = 1;
+    assertSame(alice, cache.getKey(encoded).getIdentifier());
+    assertFalse(cache.ticketsEnabled());
+  }
+
+  @Test
+  public void testTickets() {
+    AuthenticationCache cache = new AuthenticationCache(60 * 1000);
+    assertTrue(cache.ticketsEnabled());
+
+    byte[] ticket = cache.issueTicket(bob, alice);
+    assertEquals(16, ticket.length);
+    // Tickets are bound to the peers they have been issued to
+    assertFalse(cache.redeemTicket(ticket.clone(), bob, eve));
+    // and can only be used once
+    assertFalse(cache.redeemTicket(ticket.clone(), bob, alice));
+
+    ticket = cache.issueTicket(bob, alice);
+    assertTrue(cache.redeemTicket(ticket.clone(), bob, alice));
+    assertFalse(cache.redeemTicket(ticket.clone(), bob, alice));
+    assertFalse(cache.redeemTicket(new byte[16], bob, alice));
+
+    cache.storeTicket(alice, bob, ticket);
+    assertNull(cache.takeTicket(alice, eve));
+    assertArrayEquals(ticket, cache.takeTicket(alice, bob));
+    assertNull(cache.takeTicket(alice, bob));
+  }
+
+  @Test
+  public void testExpiry() throws InterruptedException {
+    AuthenticationCache cache = new AuthenticationCache(50);
+
+    byte[] ticket = cache.issueTicket(bob, alice);
+    cache.storeTicket(alice, bob, ticket);
+    Thread.sleep(100);
+
+    assertNull(cache.takeTicket(alice, bob));
+    assertFalse(cache.redeemTicket(ticket, bob, alice));
+  }
+
+  @Test
+  public void testCapacity() {
+    AuthenticationCache cache = new AuthenticationCache(60 * 1000, 2);
+
+    byte[] first = cache.issueTicket(bob, alice);
+    byte[] second = cache.issueTicket(bob, eve);
+    cache.issueTicket(alice, eve);
+
+    assertFalse(cache.redeemTicket(first, bob, alice));
+    assertTrue(cache.redeemTicket(second, bob, eve));
+
+    cache.putKey(new byte[] {1}, null, alice);
+    cache.putKey(new byte[] {2}, null, bob);
+    cache.getKey(new byte[] {1});
+    cache.putKey(new byte[] {3}, null, eve);
+
+    assertSame(alice, cache.getKey(new byte[] {1}).getIdentifier());
+    assertNull(cache.getKey(new byte[] {2}));
+  }
+}
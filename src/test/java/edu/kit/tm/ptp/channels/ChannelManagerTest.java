@@ -16,8 +16,11 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Test class for the ChannelManager.
@@ -154,4 +157,58 @@ public class ChannelManagerTest {
     assertEquals(0, listener.read.get());
     assertEquals(0, listener.write.get());
   }
+
+  @Test
+  public void testSeveralSelectorThreads() throws IOException {
+    channelManager.stop();
+    channelManager = new ChannelManager(listener, null, 4, SelectorAssignment.LEAST_LOADED);
+    channelManager.start();
+
+    int count = 8;
+    List<MessageChannel> channels = new LinkedList<>();
+
+    for (int i = 0; i < count; i++) {
+      SocketChannel client = SocketChannel.open();
+      client.configureBlocking(false);
+      client.connect(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+      channels.add(channelManager.connect(client));
+    }
+
+    TestHelper.wait(listener.conOpen, count, TestConstants.socketConnectTimeout);
+    assertEquals(count, listener.conOpen.get());
+
+    for (MessageChannel channel : channels) {
+      channelManager.addChannel(channel);
+      channelManager.registerRead(channel, true);
+    }
+
+    List<SocketChannel> accepted = new LinkedList<>();
+
+    while (accepted.size() < count) {
+      SocketChannel socket = server.accept();
+
+      if (socket != null) {
+        accepted.add(socket);
+      }
+    }
+
+    for (SocketChannel socket : accepted) {
+      ByteBuffer frame = ByteBuffer.allocate(5);
+      frame.putInt(1).put((byte) 0x1);
+      frame.flip();
+
+      while (frame.hasRemaining()) {
+        socket.write(frame);
+      }
+    }
+
+    // Registrations are applied without waiting for a selection timeout
+    TestHelper.wait(listener.read, count, TestConstants.listenerTimeout);
+    assertEquals(count, listener.read.get());
+
+    for (SocketChannel socket : accepted) {
+      socket.close();
+    }
+  }
 }
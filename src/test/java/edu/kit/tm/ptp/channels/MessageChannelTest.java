@@ -2,8 +2,11 @@ package edu.kit.tm.ptp.channels;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
+import edu.kit.tm.ptp.Priority;
 import edu.kit.tm.ptp.utility.Constants;
 import edu.kit.tm.ptp.utility.Listener;
 import edu.kit.tm.ptp.utility.TestConstants;
@@ -16,8 +19,12 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 public class MessageChannelTest {
   private ServerSocketChannel server = null;
@@ -101,6 +108,302 @@ public class MessageChannelTest {
     assertEquals(c2, listener.getPassedChannel());
   }
 
+  @Test
+  public void testQueuedMessages() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    int messages = 10;
+
+    for (int i = 0; i < messages; i++) {
+      assertTrue(c1.addMessage(new byte[] {(byte) i}, i));
+    }
+
+    assertFalse(c1.isIdle());
+
+    // A single gathering write suffices for small messages
+    c1.write();
+
+    assertTrue(c1.isIdle());
+    assertEquals(messages, listener.write.get());
+    assertEquals(messages - 1, listener.getPassedId());
+
+    for (int i = 0; i < 10 * messages && listener.read.get() < messages; i++) {
+      c2.read();
+    }
+
+    assertEquals(messages, listener.read.get());
+    assertArrayEquals(new byte[] {(byte) (messages - 1)}, listener.getPassedBytes());
+
+    // The queue of a channel is bounded
+    int added = 0;
+    while (c1.addMessage(new byte[0], added)) {
+      added++;
+    }
+
+    assertTrue(added > 0);
+    assertFalse(c1.isIdle());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testLargeMessage() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    // Doesn't fit into a pooled buffer
+    byte[] large = new byte[3 * manager.getBufferPool().getBufferLength()];
+
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) i;
+    }
+
+    byte[] small = new byte[] {0x1, 0x2, 0x3};
+
+    assertTrue(c1.addMessage(large, 1));
+    assertTrue(c1.addMessage(small, 2));
+
+    for (int i = 0; i < 1000 && listener.read.get() < 2; i++) {
+      c1.write();
+      c2.read();
+    }
+
+    assertEquals(2, listener.read.get());
+    assertEquals(2, listener.write.get());
+    assertArrayEquals(small, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testPriority() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    CollectingListener listener = new CollectingListener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    // Larger than the socket buffers, can't be written at once
+    byte[] large = new byte[8 * 1024 * 1024];
+    large[0] = 0x1;
+
+    assertTrue(c1.addMessage(large, 1, Priority.LOW));
+    assertTrue(c1.addMessage(new byte[] {0x2}, 2, Priority.LOW));
+    c1.write();
+
+    // Overtakes the waiting message but not the partially written one
+    assertTrue(c1.addMessage(new byte[] {0x3}, 3, Priority.HIGH));
+
+    for (int i = 0; i < 100000 && listener.received.size() < 3; i++) {
+      c1.write();
+      c2.read();
+    }
+
+    assertEquals(3, listener.received.size());
+    assertEquals(large.length, listener.received.get(0).length);
+    assertArrayEquals(new byte[] {0x3}, listener.received.get(1));
+    assertArrayEquals(new byte[] {0x2}, listener.received.get(2));
+    assertTrue(c1.isIdle());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testRemoveMessage() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    CollectingListener listener = new CollectingListener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    byte[] large = new byte[8 * 1024 * 1024];
+
+    assertTrue(c1.addMessage(large, 1, Priority.NORMAL));
+    assertTrue(c1.addMessage(new byte[] {0x2}, 2, Priority.NORMAL));
+    c1.write();
+
+    // Only messages which haven't been started can be removed
+    assertFalse(c1.removeMessage(1, Priority.NORMAL));
+    assertFalse(c1.removeMessage(2, Priority.HIGH));
+    assertTrue(c1.removeMessage(2, Priority.NORMAL));
+    assertFalse(c1.removeMessage(2, Priority.NORMAL));
+
+    for (int i = 0; i < 100000 && listener.received.size() < 1; i++) {
+      c1.write();
+      c2.read();
+    }
+
+    assertEquals(1, listener.received.size());
+    assertEquals(large.length, listener.received.get(0).length);
+    assertTrue(c1.isIdle());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testCompression() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    CollectingListener listener = new CollectingListener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+    c1.setCompressionThreshold(128);
+
+    Random random = new Random();
+    byte[] small = new byte[64];
+    byte[] compressible = new byte[16 * 1024];
+    // Still larger than a pooled buffer after compression
+    byte[] large = new byte[4 * 1024 * 1024];
+    byte[] incompressible = new byte[16 * 1024];
+
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) random.nextInt(4);
+    }
+
+    random.nextBytes(incompressible);
+
+    assertTrue(c1.addMessage(small, 1));
+    assertTrue(c1.addMessage(compressible, 2));
+    assertTrue(c1.addMessage(large, 3));
+    assertTrue(c1.addMessage(incompressible, 4));
+
+    for (int i = 0; i < 100000 && listener.received.size() < 4; i++) {
+      c1.write();
+      c2.read();
+    }
+
+    assertEquals(4, listener.received.size());
+    assertArrayEquals(small, listener.received.get(0));
+    assertArrayEquals(compressible, listener.received.get(1));
+    assertArrayEquals(large, listener.received.get(2));
+    assertArrayEquals(incompressible, listener.received.get(3));
+    assertTrue(manager.getMetrics().getBytesSavedByCompression() > large.length / 2);
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testSeveralFramesPerRead() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    CollectingListener listener = new CollectingListener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel channel = new MessageChannel(serverChannel, manager);
+
+    // Several frames and the beginning of another one
+    ByteBuffer frames = ByteBuffer.allocate(64);
+    frames.putInt(2).put(new byte[] {0x1, 0x2});
+    frames.putInt(0);
+    frames.putInt(1).put((byte) 0x3);
+    frames.putInt(2).put((byte) 0x4);
+    frames.flip();
+
+    while (frames.hasRemaining()) {
+      client.write(frames);
+    }
+
+    TestHelper.sleep(100);
+    channel.read();
+
+    assertEquals(3, listener.received.size());
+    assertArrayEquals(new byte[] {0x1, 0x2}, listener.received.get(0));
+    assertArrayEquals(new byte[0], listener.received.get(1));
+    assertArrayEquals(new byte[] {0x3}, listener.received.get(2));
+
+    client.write(ByteBuffer.wrap(new byte[] {0x5}));
+    TestHelper.sleep(100);
+    channel.read();
+
+    assertEquals(4, listener.received.size());
+    assertArrayEquals(new byte[] {0x4, 0x5}, listener.received.get(3));
+
+    client.close();
+    serverChannel.close();
+  }
+
+  private static class CollectingListener implements ChannelListener {
+    private final List<byte[]> received = new ArrayList<>();
+
+    @Override
+    public void messageReceived(byte[] data, MessageChannel source) {
+      received.add(data);
+    }
+
+    @Override
+    public void messageSent(long id, MessageChannel destination) {}
+
+    @Override
+    public void channelOpened(MessageChannel channel) {}
+
+    @Override
+    public void channelClosed(MessageChannel channel) {}
+  }
+
   @Test
   public void testGetChannel() throws IOException {
     SocketChannel client = SocketChannel.open();
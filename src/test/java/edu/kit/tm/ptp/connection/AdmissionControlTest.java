@@ -0,0 +1,73 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+/**
+ * Tests the limits of pending bytes.
+ *
+ * @author Timon Hackenjos
+ */
+public class AdmissionControlTest {
+  private final Identifier alice = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private final Identifier bob = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+  @Test
+  public void testLimits() {
+    AdmissionControl admission = new AdmissionControl(10, 6);
+
+    assertTrue(admission.admit(alice, 6));
+    assertFalse(admission.admit(alice, 1));
+    assertTrue(admission.admit(bob, 4));
+    assertFalse(admission.admit(bob, 1));
+    assertEquals(10, admission.getPendingBytes());
+
+    admission.release(alice, 6);
+    // A rejection by the limit of the destination doesn't take up room
+    assertFalse(admission.admit(bob, 3));
+    assertTrue(admission.admit(alice, 6));
+    assertEquals(10, admission.getPendingBytes());
+    assertEquals(6, admission.getPendingBytes(alice));
+    assertEquals(4, admission.getPendingBytes(bob));
+  }
+
+  @Test
+  public void testUnlimited() {
+    AdmissionControl admission = new AdmissionControl(-1, -1);
+
+    assertTrue(admission.admit(alice, Integer.MAX_VALUE));
+    assertTrue(admission.admit(alice, Integer.MAX_VALUE));
+    assertEquals(2L * Integer.MAX_VALUE, admission.getPendingBytes(alice));
+  }
+
+  @Test
+  public void testCountersRemoved() {
+    AdmissionControl admission = new AdmissionControl(10, 6);
+
+    assertTrue(admission.admit(alice, 6));
+    assertTrue(admission.admit(bob, 2));
+    // Rejected destinations don't keep a counter
+    assertFalse(admission.admit(new Identifier("cccccccccccccccc.onion"), 7));
+    assertEquals(2, admission.getDestinationCount());
+
+    admission.release(alice, 6);
+    admission.release(bob, 1);
+    assertEquals(1, admission.getDestinationCount());
+    admission.release(bob, 1);
+    assertEquals(0, admission.getDestinationCount());
+    assertEquals(0, admission.getPendingBytes());
+
+    assertTrue(admission.admit(alice, 6));
+    assertEquals(6, admission.getPendingBytes(alice));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLimit() {
+    new AdmissionControl(-2, -1);
+  }
+}
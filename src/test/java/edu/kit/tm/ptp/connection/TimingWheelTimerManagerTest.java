@@ -0,0 +1,147 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.utility.TestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the TimingWheelTimerManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class TimingWheelTimerManagerTest {
+  private static final int step = 5;
+
+  private Listener listener;
+  private TimingWheelTimerManager manager;
+  private Identifier identifier;
+
+  private static class Listener implements ExpireListener {
+    private final AtomicInteger expired = new AtomicInteger(0);
+    private final Map<String, Long> times = new ConcurrentHashMap<>();
+
+    @Override
+    public void expired(Identifier identifier, int timerClass) {
+      times.put(identifier + ":" + timerClass, System.currentTimeMillis());
+      expired.incrementAndGet();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    listener = new Listener();
+    manager = new TimingWheelTimerManager(listener, step);
+    manager.start();
+    identifier = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  }
+
+  @After
+  public void tearDown() {
+    manager.stop();
+  }
+
+  @Test
+  public void testExpire() {
+    long start = System.currentTimeMillis();
+    manager.setTimer(identifier, 50, 0);
+
+    TestHelper.wait(listener.expired, 1, 1000);
+
+    assertEquals(1, listener.expired.get());
+    assertTrue(listener.times.get(identifier + ":0") - start >= 50);
+  }
+
+  @Test
+  public void testRemove() {
+    manager.setTimer(identifier, 50, 0);
+    manager.setTimer(identifier, 50, 1);
+    manager.remove(identifier, 0);
+
+    TestHelper.wait(listener.expired, 2, 300);
+
+    assertEquals(1, listener.expired.get());
+    assertFalse(listener.times.containsKey(identifier + ":0"));
+    assertTrue(listener.times.containsKey(identifier + ":1"));
+  }
+
+  @Test
+  public void testSetTimer() {
+    long start = System.currentTimeMillis();
+    manager.setTimer(identifier, 50, 0);
+    // Doesn't change the existing timer
+    assertFalse(manager.setTimerIfNoneExists(identifier, 1000, 0));
+
+    TestHelper.wait(listener.expired, 1, 500);
+    assertEquals(1, listener.expired.get());
+
+    // Overwrites the existing timer
+    manager.setTimer(identifier, 50, 0);
+    manager.setTimer(identifier, 200, 0);
+
+    TestHelper.sleep(100);
+    assertEquals(1, listener.expired.get());
+
+    TestHelper.wait(listener.expired, 2, 1000);
+    assertEquals(2, listener.expired.get());
+    assertTrue(listener.times.get(identifier + ":0") - start >= 250);
+  }
+
+  @Test
+  public void testIdleEntriesEvicted() {
+    for (int i = 0; i < 200; i++) {
+      Identifier id = new Identifier(String.format("%016d.onion", i));
+      // Re-arm the timer before it expires
+      manager.setTimer(id, 1000, 0);
+      manager.setTimer(id, 10, 0);
+    }
+
+    manager.setTimer(identifier, 1000, 1);
+    manager.remove(identifier, 1);
+
+    TestHelper.wait(listener.expired, 200, 1000);
+    assertEquals(200, listener.expired.get());
+
+    // Idle identifiers are dropped although no timers are scheduled anymore
+    long start = System.currentTimeMillis();
+    while (manager.getEntryCount() > 0 && System.currentTimeMillis() - start < 2000) {
+      TestHelper.sleep(step);
+    }
+
+    assertEquals(0, manager.getEntryCount());
+  }
+
+  @Test
+  public void testLongTimer() {
+    // Timer has to be cascaded from a higher level of the wheel
+    long start = System.currentTimeMillis();
+    manager.setTimer(identifier, 100 * step, 0);
+    manager.setTimer(new Identifier("bbbbbbbbbbbbbbbb.onion"), 10, 0);
+
+    TestHelper.wait(listener.expired, 2, 2000);
+
+    assertEquals(2, listener.expired.get());
+    assertTrue(listener.times.get(identifier + ":0") - start >= 100 * step);
+  }
+
+  @Test
+  public void testRunning() {
+    assertTrue(manager.isRunning());
+
+    TimingWheelTimerManager notStarted = new TimingWheelTimerManager(new Listener(), step);
+    assertFalse(notStarted.isRunning());
+
+    manager.stop();
+    assertFalse(manager.isRunning());
+  }
+}
@@ -0,0 +1,55 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests the expiry of connect requests.
+ *
+ * @author Timon Hackenjos
+ */
+public class WarmConnectionsTest {
+  private final Identifier alice = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private final Identifier bob = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+  @Test
+  public void testExpire() {
+    WarmConnections warm = new WarmConnections(0);
+    CompletableFuture<Boolean> first = new CompletableFuture<>();
+    CompletableFuture<Boolean> second = new CompletableFuture<>();
+    CompletableFuture<Boolean> third = new CompletableFuture<>();
+    CompletableFuture<Boolean> unlimited = new CompletableFuture<>();
+
+    assertEquals(-1, warm.nextDeadline());
+
+    warm.addWaiter(alice, second, 200);
+    warm.addWaiter(bob, first, 100);
+    warm.addWaiter(alice, third, 200);
+    warm.addWaiter(bob, unlimited, Long.MAX_VALUE);
+    assertEquals(100, warm.nextDeadline());
+
+    warm.expire(150);
+    assertFalse(first.getNow(true));
+    assertFalse(second.isDone());
+    assertEquals(200, warm.nextDeadline());
+    assertTrue(warm.isWanted(bob));
+
+    warm.connected(alice);
+    assertTrue(second.getNow(false));
+    assertTrue(third.getNow(false));
+    assertFalse(warm.isWanted(alice));
+    // Requests without a deadline don't expire
+    assertEquals(-1, warm.nextDeadline());
+
+    warm.clear();
+    assertFalse(unlimited.getNow(true));
+    assertFalse(warm.isWanted(bob));
+  }
+}
@@ -2,6 +2,7 @@ package edu.kit.tm.ptp.crypt;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.PTP;
@@ -16,11 +17,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CryptHelperTest {
 
@@ -78,4 +83,46 @@ public class CryptHelperTest {
     ptp.exit();
   }
 
+  @Test
+  public void testConcurrentSignAndVerify() throws Exception {
+    final CryptHelper helper = new CryptHelper();
+    helper.init();
+
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    final KeyPair pair = generator.generateKeyPair();
+    helper.setKeyPair(pair);
+
+    final AtomicInteger valid = new AtomicInteger(0);
+    Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      final byte[] data = new byte[] {(byte) i, 0x1, 0x2};
+
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 50; j++) {
+              byte[] signature = helper.sign(ByteBuffer.wrap(data));
+
+              if (helper.verifySignature(ByteBuffer.wrap(data), signature, pair.getPublic())) {
+                valid.incrementAndGet();
+              }
+            }
+          } catch (GeneralSecurityException e) {
+            // Counted as invalid
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(threads.length * 50, valid.get());
+    assertTrue(helper.calculateHiddenServiceIdentifier(pair.getPublic()).isValid());
+  }
 }
@@ -0,0 +1,114 @@
+package edu.kit.tm.ptp.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Tests the recording and the export of metrics.
+ *
+ * @author Timon Hackenjos
+ */
+public class MetricsTest {
+
+  @Test
+  public void testHistogram() {
+    Histogram histogram = new Histogram();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMean(), 0);
+    assertEquals(0, histogram.getPercentile(50));
+
+    histogram.record(0);
+    histogram.record(1);
+    histogram.record(5);
+    histogram.record(6);
+    histogram.record(1000);
+
+    long[] buckets = histogram.getBuckets();
+    assertEquals(1, buckets[0]);
+    assertEquals(1, buckets[1]);
+    assertEquals(2, buckets[3]);
+    assertEquals(1, buckets[10]);
+
+    assertEquals(5, histogram.getCount());
+    assertEquals(1012, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(1012 / 5.0, histogram.getMean(), 0.001);
+    assertEquals(7, histogram.getPercentile(60));
+    assertEquals(1000, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void testPeers() {
+    Metrics metrics = new Metrics();
+    Identifier first = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    Identifier second = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+    metrics.messageSent(first, 10);
+    metrics.messageSent(first, 5);
+    metrics.messageSent(second, 1);
+    metrics.messageReceived(second, 7);
+
+    assertEquals(3, metrics.getMessagesSent());
+    assertEquals(16, metrics.getBytesSent());
+    assertEquals(15, metrics.getBytesSent(first));
+    assertEquals(0, metrics.getBytesReceived(first));
+    assertEquals(7, metrics.getBytesReceived(second));
+
+    Map<String, Long> sent = metrics.getBytesSentPerPeer();
+    assertEquals(2, sent.size());
+    assertEquals(15, (long) sent.get(first.toString()));
+  }
+
+  @Test
+  public void testEventQueueDepth() {
+    Metrics metrics = new Metrics();
+
+    metrics.eventQueued();
+    metrics.eventQueued();
+    metrics.eventProcessed();
+
+    assertEquals(1, metrics.getEventQueueDepth());
+    assertEquals(1, metrics.getEventsProcessed());
+  }
+
+  @Test
+  public void testMBean() throws JMException {
+    Metrics metrics = new Metrics();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = metrics.registerMBean("test");
+
+    try {
+      metrics.messagesQueued(3);
+      metrics.connected(12);
+
+      assertEquals(3L, server.getAttribute(name, "MessagesQueued"));
+      CompositeData latency = (CompositeData) server.getAttribute(name, "ConnectLatency");
+      assertEquals(1L, latency.get("count"));
+      assertTrue(Arrays.equals(metrics.getConnectLatency().getBuckets(),
+          (long[]) latency.get("buckets")));
+    } finally {
+      metrics.unregisterMBean();
+    }
+
+    assertFalse(server.isRegistered(name));
+    // Unregistering again does nothing
+    metrics.unregisterMBean();
+    assertTrue(metrics.registerMBean("test").equals(name));
+    metrics.unregisterMBean();
+  }
+}
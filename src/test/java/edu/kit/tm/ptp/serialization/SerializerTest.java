@@ -2,6 +2,7 @@ package edu.kit.tm.ptp.serialization;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.utility.Constants;
 
@@ -11,6 +12,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SerializerTest {
   private Serializer serializer;
@@ -40,4 +44,110 @@ public class SerializerTest {
     assertArrayEquals(message.getData(), ((ByteArrayMessage) deserializedMessage).getData());
   }
 
+  @Test
+  public void testExactSize() throws IOException {
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+
+    byte[] small = serializer.serialize(new ByteArrayMessage(new byte[] {0x1}));
+    assertTrue(small.length < 16);
+
+    // Buffers are reused and grown if necessary
+    byte[] large = serializer.serialize(new ByteArrayMessage(new byte[100 * 1024]));
+    assertTrue(large.length >= 100 * 1024);
+    assertTrue(large.length < 100 * 1024 + 16);
+
+    assertArrayEquals(small, serializer.serialize(new ByteArrayMessage(new byte[] {0x1})));
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException {
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+
+    final AtomicInteger errors = new AtomicInteger(0);
+    Thread[] threads = new Thread[8];
+
+    for (int i = 0; i < threads.length; i++) {
+      final byte value = (byte) i;
+
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          byte[] bytes = new byte[value * 100];
+          Arrays.fill(bytes, value);
+
+          for (int j = 0; j < 1000; j++) {
+            try {
+              byte[] data = serializer.serialize(new ByteArrayMessage(bytes));
+              Object obj = serializer.deserialize(data);
+
+              if (!Arrays.equals(bytes, ((ByteArrayMessage) obj).getData())) {
+                errors.incrementAndGet();
+              }
+            } catch (IOException e) {
+              errors.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, errors.get());
+  }
+
+  @Test
+  public void testRegistrationShared() throws IOException, InterruptedException {
+    serializer.registerClass(byte[].class);
+
+    // Creates the Kryo instance of this thread
+    serializer.serialize(new byte[] {0x1});
+
+    serializer.registerClass(ByteArrayMessage.class);
+
+    final byte[][] serialized = new byte[1][];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        serialized[0] = serializer.serialize(new ByteArrayMessage(new byte[] {0x2}));
+      }
+    };
+
+    thread.start();
+    thread.join();
+
+    // The instance of this thread picks up the later registration
+    Object obj = serializer.deserialize(serialized[0]);
+    assertTrue(obj instanceof ByteArrayMessage);
+    assertArrayEquals(new byte[] {0x2}, ((ByteArrayMessage) obj).getData());
+    assertTrue(serializer.isRegistered(ByteArrayMessage.class));
+  }
+
+  @Test
+  public void testSerializeAll() throws IOException {
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+    serializer.registerClass(StreamChunk.class);
+
+    byte[] data = serializer.serializeAll(new ByteArrayMessage(new byte[] {0x1}),
+        new StreamChunk(1, 0, 0, new byte[] {0x2}, true, false));
+
+    List<Object> objects = serializer.deserializeAll(data);
+    assertEquals(2, objects.size());
+    assertArrayEquals(new byte[] {0x1}, ((ByteArrayMessage) objects.get(0)).getData());
+    assertArrayEquals(new byte[] {0x2}, ((StreamChunk) objects.get(1)).getData());
+
+    // A reader which doesn't know the following classes still gets the first object
+    Serializer reader = new Serializer();
+    reader.registerClass(byte[].class);
+    reader.registerClass(ByteArrayMessage.class);
+
+    Object obj = reader.deserialize(data);
+    assertArrayEquals(new byte[] {0x1}, ((ByteArrayMessage) obj).getData());
+  }
 }